@@ -0,0 +1,296 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 20:11:37 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import hlt.language.design.types.DefinedEntry;
+import hlt.language.tools.Misc;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A <tt>CallProfiler</tt> records, for each <a href="../types/DefinedEntry.html">
+ * <tt>DefinedEntry</tt></a> called by a <a href="Runtime.html"><tt>Runtime</tt></a>,
+ * the number of calls, and the number of instructions executed and the wall time
+ * spent both in the entry's own code (<i>self</i>) and in it and all the calls
+ * it makes (<i>inclusive</i>).
+ *
+ * <p>
+ *
+ * Profiling is opt-in: a profiler is installed with <tt>Runtime.setProfiler(CallProfiler)</tt>,
+ * which makes the runtime use an instrumented execution engine and notify the
+ * profiler of each call transition (<tt>pushCall</tt>, <tt>popCall</tt>, and
+ * termination). A runtime without a profiler pays nothing for it. The profiler
+ * maintains its own stack of activations, which follows the runtime's call stack;
+ * a tail call replaces the current activation by that of the callee, just as it
+ * reuses the current call frame. Inclusive counts of a recursive entry are only
+ * accumulated by its outermost activation, so that they are not counted twice.
+ *
+ * <p>
+ *
+ * The results are available as an array of <a href="CallProfiler.Profile.html">
+ * <tt>Profile</tt></a>s from <tt>profiles()</tt>, and as a flat printable report
+ * from <tt>report()</tt>. Like a runtime, a profiler must be used by one thread
+ * at a time; it may however be shared by successive runs to accumulate results.
+ */
+public class CallProfiler
+{
+  /**
+   * The profiles of this profiler, keyed by entry.
+   */
+  private final HashMap _profiles = new HashMap();
+
+  /**
+   * The total number of instructions counted by this profiler.
+   */
+  long _instructionCount;
+
+  /**
+   * The stack of activations, as parallel arrays: the profile of each
+   * activation, the instruction count and time when it started, and the
+   * inclusive instruction counts and times of the calls it has made.
+   */
+  private Profile[] _activeProfile = new Profile[32];
+  private long[] _startInstructions = new long[32];
+  private long[] _startNanos = new long[32];
+  private long[] _childInstructions = new long[32];
+  private long[] _childNanos = new long[32];
+
+  /**
+   * The number of activations on the stack.
+   */
+  private int _depth;
+
+  /**
+   * Returns the total number of instructions counted by this profiler.
+   */
+  public final long instructionCount ()
+    {
+      return _instructionCount;
+    }
+
+  /**
+   * Returns the profile of the specified entry, or <tt>null</tt> if it has not
+   * been called.
+   */
+  public final Profile profile (DefinedEntry entry)
+    {
+      return (Profile)_profiles.get(entry);
+    }
+
+  /**
+   * Returns the profiles recorded by this profiler, in decreasing order of
+   * self instruction counts.
+   */
+  public final Profile[] profiles ()
+    {
+      Profile[] profiles = new Profile[_profiles.size()];
+
+      int i = 0;
+      for (Iterator it = _profiles.values().iterator(); it.hasNext();)
+        profiles[i++] = (Profile)it.next();
+
+      Misc.sort(profiles);
+      return profiles;
+    }
+
+  /**
+   * Discards all the profiles and activations recorded by this profiler.
+   */
+  public final void clear ()
+    {
+      _profiles.clear();
+      Arrays.fill(_activeProfile,null);
+      _depth = 0;
+      _instructionCount = 0;
+    }
+
+  /**
+   * Records the activation of a call to the specified entry.
+   */
+  final void enter (DefinedEntry entry)
+    {
+      Profile profile = (Profile)_profiles.get(entry);
+
+      if (profile == null)
+        _profiles.put(entry,profile = new Profile(entry));
+
+      if (_depth == _activeProfile.length)
+        _growStack();
+
+      profile._calls++;
+      profile._activeCount++;
+
+      _activeProfile[_depth] = profile;
+      _startInstructions[_depth] = _instructionCount;
+      _startNanos[_depth] = System.nanoTime();
+      _childInstructions[_depth] = 0;
+      _childNanos[_depth] = 0;
+      _depth++;
+    }
+
+  /**
+   * Records the end of the latest activation, if any.
+   */
+  final void exit ()
+    {
+      if (_depth == 0)
+        return;
+
+      _depth--;
+
+      Profile profile = _activeProfile[_depth];
+      _activeProfile[_depth] = null;
+
+      long instructions = _instructionCount - _startInstructions[_depth];
+      long nanos = System.nanoTime() - _startNanos[_depth];
+
+      profile._selfInstructions += instructions - _childInstructions[_depth];
+      profile._selfNanos += nanos - _childNanos[_depth];
+
+      if (--profile._activeCount == 0)
+        {
+          profile._inclusiveInstructions += instructions;
+          profile._inclusiveNanos += nanos;
+        }
+
+      if (_depth > 0)
+        {
+          _childInstructions[_depth-1] += instructions;
+          _childNanos[_depth-1] += nanos;
+        }
+    }
+
+  /**
+   * Records a tail call to the specified entry, which replaces the latest
+   * activation.
+   */
+  final void replace (DefinedEntry entry)
+    {
+      exit();
+      enter(entry);
+    }
+
+  /**
+   * Records the end of all pending activations.
+   */
+  final void exitAll ()
+    {
+      while (_depth > 0)
+        exit();
+    }
+
+  private final void _growStack ()
+    {
+      int capacity = 2*_depth;
+
+      _activeProfile = Arrays.copyOf(_activeProfile,capacity);
+      _startInstructions = Arrays.copyOf(_startInstructions,capacity);
+      _startNanos = Arrays.copyOf(_startNanos,capacity);
+      _childInstructions = Arrays.copyOf(_childInstructions,capacity);
+      _childNanos = Arrays.copyOf(_childNanos,capacity);
+    }
+
+  /**
+   * Returns a flat report of the profiles of this profiler, one line per
+   * entry in decreasing order of self instruction counts.
+   */
+  public final String report ()
+    {
+      StringBuilder buf = new StringBuilder();
+
+      buf.append(String.format("%12s %14s %14s %12s %12s  %s\n",
+                               "calls","self instr","incl instr","self ms","incl ms","entry"));
+
+      Profile[] profiles = profiles();
+      for (int i = 0; i < profiles.length; i++)
+        buf.append(profiles[i]).append("\n");
+
+      buf.append(String.format("%12s %14d\n","total",_instructionCount));
+
+      return buf.toString();
+    }
+
+  public String toString ()
+    {
+      return report();
+    }
+
+  /**
+   * This class records the profile of one entry.
+   */
+  public static class Profile implements Comparable
+    {
+      private DefinedEntry _entry;
+      private long _calls;
+      private long _selfInstructions;
+      private long _inclusiveInstructions;
+      private long _selfNanos;
+      private long _inclusiveNanos;
+
+      /**
+       * The number of pending activations of this profile's entry.
+       */
+      private int _activeCount;
+
+      Profile (DefinedEntry entry)
+        {
+          _entry = entry;
+        }
+
+      public final DefinedEntry entry ()
+        {
+          return _entry;
+        }
+
+      public final long calls ()
+        {
+          return _calls;
+        }
+
+      public final long selfInstructions ()
+        {
+          return _selfInstructions;
+        }
+
+      public final long inclusiveInstructions ()
+        {
+          return _inclusiveInstructions;
+        }
+
+      public final long selfNanos ()
+        {
+          return _selfNanos;
+        }
+
+      public final long inclusiveNanos ()
+        {
+          return _inclusiveNanos;
+        }
+
+      /**
+       * Profiles are ordered by decreasing self instruction counts.
+       */
+      public final int compareTo (Object other)
+        {
+          long count = ((Profile)other)._selfInstructions;
+          return _selfInstructions > count ? -1 : _selfInstructions < count ? 1 : 0;
+        }
+
+      public String toString ()
+        {
+          return String.format("%12d %14d %14d %12.3f %12.3f  %s",
+                               _calls,_selfInstructions,_inclusiveInstructions,
+                               _selfNanos/1e6,_inclusiveNanos/1e6,_entry);
+        }
+    }
+}
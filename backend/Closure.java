@@ -5,7 +5,7 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 20:24:16 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
@@ -54,16 +54,28 @@ public class Closure extends Block
       _isExitable = isExitable;
     }
 
+  /**
+   * Returns the int frame of this closure. It may be shared with the environment
+   * stack of a runtime and with other closures, and must not be modified.
+   */
   public final int[] intFrame ()
     {
       return _intFrame;
     }
 
+  /**
+   * Returns the real frame of this closure. It may be shared with the environment
+   * stack of a runtime and with other closures, and must not be modified.
+   */
   public final double[] realFrame ()
     {
       return _realFrame;
     }
 
+  /**
+   * Returns the object frame of this closure. It may be shared with the environment
+   * stack of a runtime and with other closures, and must not be modified.
+   */
   public final Object[] objectFrame ()
     {
       return _objectFrame;
@@ -0,0 +1,917 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 22:06:31 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import hlt.language.design.instructions.Instruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * A <tt>CodeCompiler</tt> provides a tiered execution mode to a <a href="Runtime.html">
+ * <tt>Runtime</tt></a>. The runtime notifies its compiler of each entry into a code
+ * array, by a call to a defined entry (<tt>Runtime.pushCall</tt>) or by the execution
+ * of a block's body (<tt>Runtime.runBody</tt>). Once a code array has been entered
+ * as many times as the compiler's threshold, the compiler generates for it a JVM
+ * class, defined as a hidden class in this package, that executes the code array
+ * as switches on the instruction pointer. Each case of a switch calls the <tt>execute</tt>
+ * method of its instruction through a call site of its own, typed with the
+ * instruction's exact class, so that HotSpot sees one receiver class per call site
+ * and may inline each instruction into the compiled code, rather than a single
+ * megamorphic call site as in the interpretive loop; and when an instruction
+ * just increments the instruction pointer, execution falls through to the next
+ * case without dispatching again.
+ *
+ * <p>
+ *
+ * Instructions are opaque objects to the runtime, which only knows of them their
+ * <tt>execute</tt> and <tt>isReturn</tt> methods; therefore, the compiled code
+ * still goes through the runtime's result and environment stacks, and it is up
+ * to the JIT to keep their values in registers once it has inlined the
+ * instructions. An instruction whose class is not accessible from this package
+ * is called through <tt>Instruction.execute</tt>, and each specific call site is
+ * guarded by a type test, so that the compiled code falls back to a virtual call
+ * should an instruction of its code array have been replaced.
+ *
+ * <p>
+ *
+ * Compiled code is kept as long as its code array is reachable, and holds no
+ * reference to it. The outcome of compiling the most recently entered code arrays
+ * is also held in a small direct-mapped cache, so that entering a compiled code
+ * array on each call costs an identity comparison rather than a hash table lookup;
+ * this cache holds its code arrays strongly, but no more than <tt>RECENT_COUNT</tt>
+ * of them. A compiler is used by one runtime at a time.
+ */
+public class CodeCompiler
+{
+  /**
+   * This is the default number of entries into a code array after which
+   * it is compiled.
+   */
+  public static final int DEFAULT_THRESHOLD = 1000;
+
+  /**
+   * This is the length of the longest code array that is compiled; longer
+   * code arrays would risk exceeding the size limits of a JVM class.
+   */
+  public static final int MAX_CODE_LENGTH = 8192;
+
+  /**
+   * This is the number of entries of the cache of recently entered code arrays
+   * whose compilation is settled; it is a power of 2.
+   */
+  public static final int RECENT_COUNT = 64;
+
+  /**
+   * This marks code arrays that could not be compiled.
+   */
+  private static final Object _NOT_COMPILABLE = new Object();
+
+  /**
+   * The number of entries into the code arrays that have not been compiled,
+   * keyed by the code arrays themselves (which hash by identity), and weakly so.
+   */
+  private final WeakHashMap _counts = new WeakHashMap();
+
+  /**
+   * The compiled code of the code arrays that have been compiled (or the
+   * <tt>_NOT_COMPILABLE</tt> marker), keyed as <tt>_counts</tt>.
+   */
+  private final WeakHashMap _compiled = new WeakHashMap();
+
+  /**
+   * The cache of recently entered code arrays that have been compiled (or found
+   * not compilable), and their compiled code (or <tt>null</tt>), each in the entry
+   * indexed by the low bits of the code array's identity hash code.
+   */
+  private final Instruction[][] _recentCode = new Instruction[RECENT_COUNT][];
+  private final CompiledCode[] _recentCompiled = new CompiledCode[RECENT_COUNT];
+
+  /**
+   * The number of entries into a code array after which it is compiled.
+   */
+  private final int _threshold;
+
+  /**
+   * The number of code arrays compiled by this compiler.
+   */
+  private int _compiledCount;
+
+  /**
+   * The last linkage error raised while defining a compiled class, if any.
+   */
+  private LinkageError _lastFailure;
+
+  /**
+   * Constructs a compiler with the default threshold.
+   */
+  public CodeCompiler ()
+    {
+      this(DEFAULT_THRESHOLD);
+    }
+
+  /**
+   * Constructs a compiler with the specified threshold.
+   */
+  public CodeCompiler (int threshold)
+    {
+      _threshold = threshold;
+    }
+
+  /**
+   * Returns the threshold of this compiler.
+   */
+  public final int threshold ()
+    {
+      return _threshold;
+    }
+
+  /**
+   * Returns the number of code arrays compiled by this compiler.
+   */
+  public final int compiledCount ()
+    {
+      return _compiledCount;
+    }
+
+  /**
+   * Returns the last linkage error raised while defining a compiled class, or
+   * <tt>null</tt> if there has been none. Such code arrays are left to the
+   * interpreter.
+   */
+  public final LinkageError lastFailure ()
+    {
+      return _lastFailure;
+    }
+
+  /**
+   * Records an entry into the specified code array, and compiles it if it has
+   * been entered as many times as the threshold.
+   */
+  final void enter (Instruction[] code)
+    {
+      int recent = System.identityHashCode(code) & (RECENT_COUNT-1);
+
+      if (_recentCode[recent] == code)
+        return;
+
+      Object compiled = _compiled.get(code);
+
+      if (compiled != null)
+        {
+          _recentCode[recent] = code;
+          _recentCompiled[recent] = compiled == _NOT_COMPILABLE ? null : (CompiledCode)compiled;
+          return;
+        }
+
+      int[] count = (int[])_counts.get(code);
+
+      if (count == null)
+        _counts.put(code,count = new int[1]);
+
+      if (++count[0] >= _threshold)
+        {
+          _counts.remove(code);
+          compile(code);
+        }
+    }
+
+  /**
+   * Forgets the compiled code and entry count of the specified code array, whose
+   * contents have been modified, so that it is interpreted until it is entered
+   * again as many times as the threshold.
+   */
+  public final void codeChanged (Instruction[] code)
+    {
+      int recent = System.identityHashCode(code) & (RECENT_COUNT-1);
+
+      if (_recentCode[recent] == code)
+        {
+          _recentCode[recent] = null;
+          _recentCompiled[recent] = null;
+        }
+
+      _compiled.remove(code);
+      _counts.remove(code);
+    }
+
+  /**
+   * Returns the compiled code of the specified code array, or <tt>null</tt> if
+   * it has not been compiled.
+   */
+  final CompiledCode compiled (Instruction[] code)
+    {
+      int recent = System.identityHashCode(code) & (RECENT_COUNT-1);
+
+      if (_recentCode[recent] == code)
+        return _recentCompiled[recent];
+
+      Object compiled = _compiled.get(code);
+
+      if (compiled == _NOT_COMPILABLE)
+        return null;
+
+      return (CompiledCode)compiled;
+    }
+
+  /**
+   * Compiles the specified code array unless it has already been, and returns
+   * its compiled code, or <tt>null</tt> if it cannot be compiled (because it is
+   * too long, or if the JVM does not support defining hidden classes). A
+   * <tt>VerifyError</tt> denotes a bug in the generated bytecode and is thrown
+   * back; other linkage errors are recorded as the {@link #lastFailure}.
+   */
+  public final CompiledCode compile (Instruction[] code)
+    {
+      Object compiled = _compiled.get(code);
+
+      if (compiled == null)
+        {
+          compiled = _NOT_COMPILABLE;
+
+          if (code.length <= MAX_CODE_LENGTH)
+            try
+              {
+                compiled = _define(new CodeGenerator(code).generate());
+                _compiledCount++;
+              }
+            catch (VerifyError e)
+              {
+                throw e;
+              }
+            catch (LinkageError e)
+              {
+                _lastFailure = e;
+              }
+            catch (ReflectiveOperationException | IllegalArgumentException | IOException e)
+              {
+                // the code array is left to the interpreter
+              }
+
+          _compiled.put(code,compiled);
+        }
+
+      return compiled == _NOT_COMPILABLE ? null : (CompiledCode)compiled;
+    }
+
+  /**
+   * Defines the specified class file as a hidden class in this package, and
+   * returns an instance of it.
+   */
+  private static final CompiledCode _define (byte[] bytes) throws ReflectiveOperationException
+    {
+      Class compiledClass = MethodHandles.lookup().defineHiddenClass(bytes,true).lookupClass();
+      return (CompiledCode)compiledClass.getDeclaredConstructor().newInstance();
+    }
+
+  ////////////////////////////////////////////////////////////////////
+
+  /**
+   * The internal names and descriptors used by the generated code.
+   */
+  private static final String _COMPILED_CODE = _internalName(CompiledCode.class);
+  private static final String _RUNTIME = _internalName(Runtime.class);
+  private static final String _INSTRUCTION = _internalName(Instruction.class);
+  private static final String _EXECUTE = "(L" + _RUNTIME + ";)V";
+  private static final String _EXECUTE_CODE = "(L" + _RUNTIME + ";Z)Z";
+  private static final String _CHUNK = "(L" + _RUNTIME + ";Z[L" + _INSTRUCTION + ";)Z";
+
+  private static final String _internalName (Class c)
+    {
+      return c.getName().replace('.','/');
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the <tt>execute</tt> method of the specified
+   * instruction class may be called directly from the generated code; <i>i.e.</i>,
+   * if the class is public, and is the one seen by name from this package.
+   */
+  private static final boolean _isDirectlyCallable (Class c)
+    {
+      if (c.isHidden() || c.isAnonymousClass() || !Modifier.isPublic(c.getModifiers()))
+        return false;
+
+      for (Class outer = c.getEnclosingClass(); outer != null; outer = outer.getEnclosingClass())
+        if (!Modifier.isPublic(outer.getModifiers()))
+          return false;
+
+      try
+        {
+          return Class.forName(c.getName(),false,CodeCompiler.class.getClassLoader()) == c;
+        }
+      catch (ClassNotFoundException e)
+        {
+          return false;
+        }
+    }
+
+  /**
+   * A <tt>CodeGenerator</tt> writes the class file of the compiled code of one
+   * code array. The class extends <tt>CompiledCode</tt>. In order to let HotSpot
+   * inline the instructions of each method it compiles, the code array is split into
+   * chunks of <tt>CHUNK_SIZE</tt> instructions, each executed by a method of its
+   * own, as follows (local 3 holds the code array, and local 4 the current
+   * instruction):
+   *
+   * <pre>
+   * LOOP:   if (runtime.code() != code) return false;
+   *         if (!body &amp;&amp; runtime.isTerminated()) return false;
+   *         switch (runtime.ip())
+   *           {
+   *           case i:                        // for each instruction i of class Ti in the chunk
+   *             if (body) return true;       // only if instruction i is a return
+   *             instruction = code[i];
+   *             if (!(instruction instanceof Ti))
+   *               {
+   *                 instruction.execute(runtime);
+   *                 goto LOOP;
+   *               }
+   *             ((Ti)instruction).execute(runtime);
+   *             if (runtime.ip() != i+1) goto LOOP;
+   *             if (runtime.code() != code) return false;
+   *             if (!body &amp;&amp; runtime.isTerminated()) return false;
+   *             // fall through to case i+1
+   *           default:                       // the instruction is in another chunk
+   *             return false;
+   *           }
+   * </pre>
+   *
+   * The <tt>execute</tt> method has the same loop head, and then calls the chunk
+   * of the current instruction, returning <tt>true</tt> if it does. The class file
+   * has version 49, so that it needs no stack map frames.
+   */
+  private static final class CodeGenerator
+    {
+      private static final int CLASS_VERSION = 49;
+
+      /**
+       * This is the number of instructions per chunk method. It is kept small
+       * so that a chunk and the instructions it calls fit within the amount of
+       * bytecode that HotSpot inlines into one compiled method; larger chunks
+       * leave most calls out of line and run slower than the interpreter.
+       */
+      private static final int CHUNK_SIZE = 16;
+
+      private static final byte CONSTANT_Utf8               = 1;
+      private static final byte CONSTANT_Class              = 7;
+      private static final byte CONSTANT_Methodref          = 10;
+      private static final byte CONSTANT_InterfaceMethodref = 11;
+      private static final byte CONSTANT_NameAndType        = 12;
+
+      private static final int ALOAD_0       = 0x2a;
+      private static final int ALOAD_1       = 0x2b;
+      private static final int ALOAD_3       = 0x2d;
+      private static final int ALOAD         = 0x19;
+      private static final int ASTORE_3      = 0x4e;
+      private static final int ASTORE        = 0x3a;
+      private static final int ILOAD_2       = 0x1c;
+      private static final int ICONST_0      = 0x03;
+      private static final int ICONST_1      = 0x04;
+      private static final int BIPUSH        = 0x10;
+      private static final int SIPUSH        = 0x11;
+      private static final int AALOAD        = 0x32;
+      private static final int IFEQ          = 0x99;
+      private static final int IFNE          = 0x9a;
+      private static final int IF_ICMPNE     = 0xa0;
+      private static final int IF_ACMPEQ     = 0xa5;
+      private static final int TABLESWITCH   = 0xaa;
+      private static final int IRETURN       = 0xac;
+      private static final int RETURN        = 0xb1;
+      private static final int INVOKEVIRTUAL = 0xb6;
+      private static final int INVOKESPECIAL = 0xb7;
+      private static final int INVOKEINTERFACE = 0xb9;
+      private static final int CHECKCAST     = 0xc0;
+      private static final int INSTANCEOF    = 0xc1;
+      private static final int IDIV          = 0x6c;
+      private static final int GOTO          = 0xa7;
+      private static final int GOTO_W        = 0xc8;
+
+      private final Instruction[] _code;
+
+      /**
+       * The constant pool, and the indices of its entries keyed by their contents.
+       */
+      private final ByteArrayOutputStream _poolBytes = new ByteArrayOutputStream();
+      private final DataOutputStream _pool = new DataOutputStream(_poolBytes);
+      private final HashMap _poolIndices = new HashMap();
+      private int _poolCount = 1;
+
+      /**
+       * The bytecode of the method being generated.
+       */
+      private byte[] _bytes = new byte[1024];
+      private int _length;
+
+      CodeGenerator (Instruction[] code)
+        {
+          _code = code;
+        }
+
+      /**
+       * Returns the class file of the compiled code.
+       */
+      final byte[] generate () throws IOException
+        {
+          int thisClass = _classConstant(_COMPILED_CODE + "$Compiled");
+          int superClass = _classConstant(_COMPILED_CODE);
+          int chunkCount = (_code.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+          int codeName = _utf8("Code");
+          int initName = _utf8("<init>");
+          int initType = _utf8("()V");
+          int executeName = _utf8("execute");
+          int executeType = _utf8(_EXECUTE_CODE);
+
+          int[] chunkNames = new int[chunkCount];
+          int[] chunkMethods = new int[chunkCount];
+          for (int k = 0; k < chunkCount; k++)
+            {
+              chunkNames[k] = _utf8("chunk" + k);
+              chunkMethods[k] = _methodConstant(CONSTANT_Methodref,thisClass,"chunk"+k,_CHUNK);
+            }
+
+          byte[] init = _generateInit(superClass);
+          byte[] execute = _generateExecute(chunkMethods);
+          byte[][] chunks = new byte[chunkCount][];
+          for (int k = 0; k < chunkCount; k++)
+            chunks[k] = _generateChunk(k);
+
+          int chunkType = _utf8(_CHUNK);
+
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          DataOutputStream out = new DataOutputStream(bytes);
+
+          out.writeInt(0xCAFEBABE);
+          out.writeShort(0);
+          out.writeShort(CLASS_VERSION);
+          out.writeShort(_poolCount);
+          _pool.flush();
+          _poolBytes.writeTo(out);
+
+          out.writeShort(Modifier.FINAL | 0x0020);  // ACC_SUPER
+          out.writeShort(thisClass);
+          out.writeShort(superClass);
+          out.writeShort(0);                        // interfaces
+          out.writeShort(0);                        // fields
+          out.writeShort(2 + chunkCount);           // methods
+
+          _writeMethod(out,Modifier.PUBLIC,initName,initType,codeName,1,1,init);
+          _writeMethod(out,Modifier.PUBLIC,executeName,executeType,codeName,4,4,execute);
+          for (int k = 0; k < chunkCount; k++)
+            _writeMethod(out,Modifier.PRIVATE|Modifier.FINAL,chunkNames[k],chunkType,codeName,4,5,chunks[k]);
+
+          out.writeShort(0);                        // attributes
+          out.flush();
+
+          return bytes.toByteArray();
+        }
+
+      private final void _writeMethod (DataOutputStream out, int access, int name, int type,
+                                       int codeName, int maxStack, int maxLocals, byte[] code)
+        throws IOException
+        {
+          out.writeShort(access);
+          out.writeShort(name);
+          out.writeShort(type);
+          out.writeShort(1);                        // attributes
+          out.writeShort(codeName);
+          out.writeInt(12 + code.length);
+          out.writeShort(maxStack);
+          out.writeShort(maxLocals);
+          out.writeInt(code.length);
+          out.write(code);
+          out.writeShort(0);                        // exception table
+          out.writeShort(0);                        // attributes
+        }
+
+      /**
+       * Generates the constructor, which just calls that of <tt>CompiledCode</tt>.
+       */
+      private final byte[] _generateInit (int superClass) throws IOException
+        {
+          int superInit = _methodConstant(CONSTANT_Methodref,superClass,"<init>","()V");
+
+          _length = 0;
+          _op(ALOAD_0);
+          _op(INVOKESPECIAL); _u2(superInit);
+          _op(RETURN);
+
+          return _method();
+        }
+
+      /**
+       * Generates the code that returns <tt>false</tt> if the runtime's code array
+       * has changed, or if it is terminated when not executing a body, as the head
+       * of the loops of <tt>execute</tt> and of the chunks.
+       */
+      private final void _generateLoopHead () throws IOException
+        {
+          int runtimeClass = _classConstant(_RUNTIME);
+          int codeMethod = _methodConstant(CONSTANT_Methodref,runtimeClass,"code",
+                                           "()[L" + _INSTRUCTION + ";");
+          int isTerminatedMethod = _methodConstant(CONSTANT_Methodref,runtimeClass,
+                                                   "isTerminated","()Z");
+
+          // if (runtime.code() != code) return false;
+          _op(ALOAD_1);
+          _op(INVOKEVIRTUAL); _u2(codeMethod);
+          _op(ALOAD_3);
+          _op(IF_ACMPEQ); _u2(5);
+          _op(ICONST_0);
+          _op(IRETURN);
+
+          // if (!body && runtime.isTerminated()) return false;
+          _op(ILOAD_2);
+          _op(IFNE); _u2(12);
+          _op(ALOAD_1);
+          _op(INVOKEVIRTUAL); _u2(isTerminatedMethod);
+          _op(IFEQ); _u2(5);
+          _op(ICONST_0);
+          _op(IRETURN);
+        }
+
+      /**
+       * Generates the code that executes the current instruction through
+       * <tt>Instruction.execute</tt> and loops back.
+       */
+      private final void _generateGenericStep (int loop) throws IOException
+        {
+          _op(ALOAD_3);
+          _op(ALOAD_1);
+          _op(INVOKEVIRTUAL); _u2(_ipMethod());
+          _op(AALOAD);
+          _op(ALOAD_1);
+          _invoke(Instruction.class.isInterface(),_genericExecute());
+          _goto(loop);
+        }
+
+      /**
+       * Generates the <tt>execute</tt> method, which dispatches to the chunk of
+       * the current instruction until a chunk returns <tt>true</tt>.
+       */
+      private final byte[] _generateExecute (int[] chunkMethods) throws IOException
+        {
+          int runtimeClass = _classConstant(_RUNTIME);
+          int codeMethod = _methodConstant(CONSTANT_Methodref,runtimeClass,"code",
+                                           "()[L" + _INSTRUCTION + ";");
+          int count = chunkMethods.length;
+
+          _length = 0;
+
+          // code = runtime.code();
+          _op(ALOAD_1);
+          _op(INVOKEVIRTUAL); _u2(codeMethod);
+          _op(ASTORE_3);
+
+          int loop = _length;
+          _generateLoopHead();
+
+          // switch (runtime.ip() / CHUNK_SIZE)
+          _op(ALOAD_1);
+          _op(INVOKEVIRTUAL); _u2(_ipMethod());
+          _push(CHUNK_SIZE);
+          _op(IDIV);
+
+          int[] cases = _tableSwitch(0,count);
+
+          for (int k = 0; k < count; k++)
+            {
+              // if (this.chunkk(runtime,body,code)) return true; goto LOOP;
+              _patchCase(cases,k);
+              _op(ALOAD_0);
+              _op(ALOAD_1);
+              _op(ILOAD_2);
+              _op(ALOAD_3);
+              _op(INVOKESPECIAL); _u2(chunkMethods[k]);
+              _op(IFEQ); _u2(5);
+              _op(ICONST_1);
+              _op(IRETURN);
+              _goto(loop);
+            }
+
+          // default: code[runtime.ip()].execute(runtime); goto LOOP;
+          _patchDefault(cases);
+          _generateGenericStep(loop);
+
+          return _method();
+        }
+
+      /**
+       * Generates the method executing the specified chunk of the code array
+       * (see above).
+       */
+      private final byte[] _generateChunk (int chunk) throws IOException
+        {
+          boolean isInterface = Instruction.class.isInterface();
+          int start = chunk * CHUNK_SIZE;
+          int end = Math.min(_code.length,start + CHUNK_SIZE);
+
+          _length = 0;
+
+          int loop = _length;
+          _generateLoopHead();
+
+          // switch (runtime.ip())
+          _op(ALOAD_1);
+          _op(INVOKEVIRTUAL); _u2(_ipMethod());
+
+          int[] cases = _tableSwitch(start,end-start);
+          int[] nullCases = new int[end-start];
+          int nullCount = 0;
+
+          for (int i = start; i < end; i++)
+            {
+              Instruction instruction = _code[i];
+
+              if (instruction == null)
+                {
+                  nullCases[nullCount++] = i-start;
+                  continue;
+                }
+
+              _patchCase(cases,i-start);
+
+              if (instruction.isReturn())
+                {
+                  // if (body) return true;
+                  _op(ILOAD_2);
+                  _op(IFEQ); _u2(5);
+                  _op(ICONST_1);
+                  _op(IRETURN);
+                }
+
+              // instruction = code[i];
+              _op(ALOAD_3);
+              _push(i);
+              _op(AALOAD);
+              _op(ASTORE); _op(4);
+
+              Class instructionType = instruction.getClass();
+
+              if (_isDirectlyCallable(instructionType))
+                {
+                  int specificClass = _classConstant(_internalName(instructionType));
+                  int specificExecute = _methodConstant(CONSTANT_Methodref,specificClass,"execute",_EXECUTE);
+
+                  // if (!(instruction instanceof Ti)) { instruction.execute(runtime); goto LOOP; }
+                  _op(ALOAD); _op(4);
+                  _op(INSTANCEOF); _u2(specificClass);
+                  int test = _length;
+                  _op(IFNE); _u2(0);
+                  _op(ALOAD); _op(4);
+                  _op(ALOAD_1);
+                  _invoke(isInterface,_genericExecute());
+                  _goto(loop);
+                  _patch2(test+1,_length-test);
+
+                  // ((Ti)instruction).execute(runtime);
+                  _op(ALOAD); _op(4);
+                  _op(CHECKCAST); _u2(specificClass);
+                  _op(ALOAD_1);
+                  _op(INVOKEVIRTUAL); _u2(specificExecute);
+                }
+              else
+                {
+                  // instruction.execute(runtime);
+                  _op(ALOAD); _op(4);
+                  _op(ALOAD_1);
+                  _invoke(isInterface,_genericExecute());
+                }
+
+              if (i+1 < end && _code[i+1] != null)
+                {
+                  // if (runtime.ip() != i+1) goto LOOP; otherwise, fall through to case i+1
+                  _op(ALOAD_1);
+                  _op(INVOKEVIRTUAL); _u2(_ipMethod());
+                  _push(i+1);
+                  _op(IF_ICMPNE); _u2(loop-_length+1);
+                  _generateLoopHead();
+                }
+              else
+                _goto(loop);
+            }
+
+          // case of a null instruction: code[runtime.ip()].execute(runtime); goto LOOP;
+          if (nullCount > 0)
+            {
+              for (int j = 0; j < nullCount; j++)
+                _patchCase(cases,nullCases[j]);
+              _generateGenericStep(loop);
+            }
+
+          // default: return false;
+          _patchDefault(cases);
+          _op(ICONST_0);
+          _op(IRETURN);
+
+          return _method();
+        }
+
+      /**
+       * Generates a <tt>tableswitch</tt> on the specified number of values from
+       * <tt>low</tt>, and returns an array recording the position of the switch
+       * (at index 0), and of its default and case offsets, which are patched as
+       * the code of the cases is generated.
+       */
+      private final int[] _tableSwitch (int low, int count)
+        {
+          int[] positions = new int[count+2];
+
+          positions[0] = _length;
+          _op(TABLESWITCH);
+          while (_length % 4 != 0) _op(0);
+          positions[1] = _length;
+          _u4(0);
+          _u4(low);
+          _u4(low+count-1);
+          for (int i = 0; i < count; i++)
+            {
+              positions[i+2] = _length;
+              _u4(0);
+            }
+
+          return positions;
+        }
+
+      /**
+       * Sets the target of the specified case of a switch to the current position.
+       */
+      private final void _patchCase (int[] positions, int index)
+        {
+          _patch4(positions[index+2],_length-positions[0]);
+        }
+
+      /**
+       * Sets the default target of a switch to the current position.
+       */
+      private final void _patchDefault (int[] positions)
+        {
+          _patch4(positions[1],_length-positions[0]);
+        }
+
+      private final int _ipMethod () throws IOException
+        {
+          return _methodConstant(CONSTANT_Methodref,_classConstant(_RUNTIME),"ip","()I");
+        }
+
+      private final int _genericExecute () throws IOException
+        {
+          boolean isInterface = Instruction.class.isInterface();
+          return _methodConstant(isInterface ? CONSTANT_InterfaceMethodref : CONSTANT_Methodref,
+                                 _classConstant(_INSTRUCTION),"execute",_EXECUTE);
+        }
+
+      private final void _invoke (boolean isInterface, int method)
+        {
+          if (isInterface)
+            {
+              _op(INVOKEINTERFACE); _u2(method); _op(2); _op(0);
+            }
+          else
+            {
+              _op(INVOKEVIRTUAL); _u2(method);
+            }
+        }
+
+      private final void _goto (int target)
+        {
+          int offset = target - _length;
+
+          if (offset >= Short.MIN_VALUE)
+            {
+              _op(GOTO); _u2(offset);
+            }
+          else
+            {
+              _op(GOTO_W); _u4(offset);
+            }
+        }
+
+      private final void _push (int value)
+        {
+          if (value <= 5)
+            _op(ICONST_0 + value);
+          else
+            if (value <= Byte.MAX_VALUE)
+              {
+                _op(BIPUSH); _op(value);
+              }
+            else
+              {
+                _op(SIPUSH); _u2(value);
+              }
+        }
+
+      private final void _op (int b)
+        {
+          if (_length == _bytes.length)
+            {
+              byte[] bytes = new byte[2*_length];
+              System.arraycopy(_bytes,0,bytes,0,_length);
+              _bytes = bytes;
+            }
+
+          _bytes[_length++] = (byte)b;
+        }
+
+      private final void _u2 (int value)
+        {
+          _op(value >> 8);
+          _op(value);
+        }
+
+      private final void _u4 (int value)
+        {
+          _u2(value >> 16);
+          _u2(value);
+        }
+
+      private final void _patch2 (int position, int value)
+        {
+          _bytes[position]   = (byte)(value >> 8);
+          _bytes[position+1] = (byte)value;
+        }
+
+      private final void _patch4 (int position, int value)
+        {
+          _bytes[position]   = (byte)(value >> 24);
+          _bytes[position+1] = (byte)(value >> 16);
+          _bytes[position+2] = (byte)(value >> 8);
+          _bytes[position+3] = (byte)value;
+        }
+
+      private final byte[] _method ()
+        {
+          byte[] method = new byte[_length];
+          System.arraycopy(_bytes,0,method,0,_length);
+          return method;
+        }
+
+      private final int _utf8 (String value) throws IOException
+        {
+          String key = "U" + value;
+          Integer index = (Integer)_poolIndices.get(key);
+
+          if (index == null)
+            {
+              _pool.writeByte(CONSTANT_Utf8);
+              _pool.writeUTF(value);
+              _poolIndices.put(key,index = Integer.valueOf(_poolCount++));
+            }
+
+          return index.intValue();
+        }
+
+      private final int _classConstant (String name) throws IOException
+        {
+          String key = "C" + name;
+          Integer index = (Integer)_poolIndices.get(key);
+
+          if (index == null)
+            {
+              int nameIndex = _utf8(name);
+              _pool.writeByte(CONSTANT_Class);
+              _pool.writeShort(nameIndex);
+              _poolIndices.put(key,index = Integer.valueOf(_poolCount++));
+            }
+
+          return index.intValue();
+        }
+
+      private final int _methodConstant (byte tag, int classIndex, String name, String type)
+        throws IOException
+        {
+          String key = "M" + tag + ":" + classIndex + "." + name + type;
+          Integer index = (Integer)_poolIndices.get(key);
+
+          if (index == null)
+            {
+              int nameIndex = _utf8(name);
+              int typeIndex = _utf8(type);
+              int nameAndType = _poolCount++;
+              _pool.writeByte(CONSTANT_NameAndType);
+              _pool.writeShort(nameIndex);
+              _pool.writeShort(typeIndex);
+              _pool.writeByte(tag);
+              _pool.writeShort(classIndex);
+              _pool.writeShort(nameAndType);
+              _poolIndices.put(key,index = Integer.valueOf(_poolCount++));
+            }
+
+          return index.intValue();
+        }
+    }
+}
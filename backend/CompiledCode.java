@@ -0,0 +1,34 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 16:02:31 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+/**
+ * This is the class of the code generated by a <a href="CodeCompiler.html">
+ * <tt>CodeCompiler</tt></a> for a code array. A compiled code executes the
+ * instructions of its code array in place of a runtime's interpretive loop,
+ * dispatching on the runtime's instruction pointer to a call site specific
+ * to each instruction, and proceeds as long as the runtime's code array is
+ * the one it was compiled for.
+ */
+public abstract class CompiledCode
+{
+  /**
+   * Executes the code of the specified runtime, which must be the code array
+   * this was compiled for, starting at its current instruction pointer. When
+   * <tt>body</tt> is <tt>false</tt>, this proceeds as long as the runtime's code
+   * array is unchanged and the runtime is not terminated, and returns <tt>false</tt>.
+   * When <tt>body</tt> is <tt>true</tt>, this executes a block's body as does
+   * <tt>Runtime.runBody(Block)</tt>: it does not test the termination flag, and
+   * returns <tt>true</tt> as soon as the current instruction is a return
+   * instruction, or <tt>false</tt> if the code array has changed.
+   */
+  public abstract boolean execute (Runtime runtime, boolean body) throws Exception;
+}
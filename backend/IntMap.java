@@ -5,7 +5,7 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 22:31:40 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
@@ -24,6 +24,12 @@ public class IntMap extends RuntimeMap
 {
   private int[] _array;
 
+  /**
+   * This is <tt>true</tt> when <tt>_array</tt> may be shared with a copy of this
+   * map, in which case it is copied before this map modifies it or gives it out.
+   */
+  private boolean _isShared;
+
   public IntMap (int[] array, Indexable indexable)
     {
       _array = array;
@@ -32,17 +38,25 @@ public class IntMap extends RuntimeMap
 
   public final int[] array ()
     {
+      if (_isShared)
+        {
+          _array = Runtime.copy(_array);
+          _isShared = false;
+        }
+
       return _array;
     }
 
   public final RuntimeMap copy ()
     {
-      return new IntMap(Runtime.copy(_array),_indexable);
+      IntMap copy = new IntMap(_array,_indexable);
+      _isShared = copy._isShared = true;
+      return copy;
     }
 
   public final Object extractArray ()
     {
-      return _array;
+      return array();
     }
 
   public final int[] toArray ()
@@ -54,6 +68,7 @@ public class IntMap extends RuntimeMap
   public final RuntimeMap setArray (Object array)
     {
       _array = (int[])array;
+      _isShared = false;
       return this;
     }
 
@@ -74,17 +89,17 @@ public class IntMap extends RuntimeMap
 
   public final int set (int index, int value)
     {
-      return _array[_indexable.getIndex(index)] = value;
+      return array()[_indexable.getIndex(index)] = value;
     }
 
   public final int set (double index, int value)
     {
-      return _array[_indexable.getIndex(index)] = value;
+      return array()[_indexable.getIndex(index)] = value;
     }
 
   public final int set (Object index, int value)
     {
-      return _array[_indexable.getIndex(index)] = value;
+      return array()[_indexable.getIndex(index)] = value;
     }
 
   public final boolean equals (Object object)
@@ -95,8 +110,20 @@ public class IntMap extends RuntimeMap
       if (!(object instanceof IntMap))
         return false;
 
-      return _array == ((IntMap)object).array()
-          && _indexable.equals(((IntMap)object).indexable());
+      IntMap map = (IntMap)object;
+
+      // a copy shares its original's array until either one writes, but is
+      // not equal to it, just as when copy() used to duplicate the array:
+      return _array == map._array && !(_isShared && map._isShared)
+          && _indexable.equals(map.indexable());
+    }
+
+  /**
+   * Consistent with <tt>equals</tt>, which requires the very same array.
+   */
+  public final int hashCode ()
+    {
+      return System.identityHashCode(_array);
     }
 
   public final String toString ()
@@ -5,12 +5,13 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 22:29:29 2012 by hak
+ * @version     Last modified on Sat Oct 17 23:12:40 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
 
 import java.util.Iterator;
+import java.util.Arrays;
 
 import hlt.language.util.IntIterator;
 import hlt.language.util.DoubleIterator;
@@ -18,18 +19,42 @@ import hlt.language.util.ToIntMap;
 import hlt.language.util.IntToIntMap;
 
 /**
- * This is a runtime representation for sets of (unboxed) ints.
+ * This is a runtime representation for sets of (unboxed) ints. The
+ * elements and their indices are kept in one of four representations,
+ * switched automatically as the set evolves:
+ * <ul>
+ * <li>an inline array for sets of at most <tt>SMALL_CAPACITY</tt> elements;
+ * <li>the <tt>[min,max]</tt> range itself when the elements are contiguous
+ *     and were inserted in increasing order;
+ * <li>a bitmap when the elements were inserted in increasing order and are
+ *     dense enough (at most <tt>BITMAP_DENSITY</tt> bits per element);
+ * <li>a hash table mapping each element to its index otherwise.
+ * </ul>
+ * In the first three, indices never have holes: the index of an element is
+ * its position in the array, or its rank in the range or bitmap.
  * @see <a href="RuntimeSet.html"><tt>RuntimeSet</tt></a>
  */
 public class IntSet extends RuntimeSet
 {
   /**
-   * The hash table containing the elements and their indices.
+   * The maximum number of elements kept in an inline array.
    */
-  private IntToIntMap _map = new IntToIntMap();
+  public static final int SMALL_CAPACITY = 8;
 
   /**
-   * This array reflects the inverse relation of <tt>_map</tt>.
+   * The maximum number of bits per element a set may take when it becomes
+   * a bitmap. It is switched to a hash table when adding an element makes it
+   * twice as sparse, and when removing elements makes it four times as sparse.
+   */
+  public static final int BITMAP_DENSITY = 32;
+
+  /**
+   * The current representation of the elements and their indices.
+   */
+  private Store _store;
+
+  /**
+   * This array caches the elements in index order.
    */
   private int[] _array;
 
@@ -53,22 +78,47 @@ public class IntSet extends RuntimeSet
    */
   public IntSet ()
     {
+      _store = new SmallStore();
     }
 
   /**
-   * Constructs a new set with the elements of the specified map.
+   * Constructs a new set with the elements of the specified set.
    */
-  private IntSet (IntToIntMap map)
+  private IntSet (IntSet set)
     {
-      _map.include(map);
+      _store = set._store.copy(this);
+      _min = set._min;
+      _max = set._max;
+      _contentHash = set._contentHash;
     }
 
   /**
-   * Returns the underlying index map representing the set.
+   * Returns the underlying index map representing the set, switching this
+   * set to a hash table if it was using a more compact representation.
    */
   final ToIntMap map ()
     {
-      return _map;
+      if (!(_store instanceof HashStore))
+        _store = new HashStore(_store.toArray(),_store.size());
+
+      ((HashStore)_store)._unshare();
+      return ((HashStore)_store)._map;
+    }
+
+  /**
+   * Returns the number of elements in this set.
+   */
+  public final int size ()
+    {
+      return _store.size();
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this set is empty.
+   */
+  public final boolean isEmpty ()
+    {
+      return _store.size() == 0;
     }
 
   /**
@@ -76,25 +126,23 @@ public class IntSet extends RuntimeSet
    */
   public final int[] array ()
     {
-      if (_map.size() > 0 && (_array == null || _hasHoles))
+      if (size() > 0 && (_array == null || _hasHoles))
         {
-          _array = new int[_map.size()];
+          RuntimeEvents.ArrayRebuild event = new RuntimeEvents.ArrayRebuild();
+          event.begin();
+
+          boolean hadHoles = _hasHoles;
+          _array = _store.toArray();
 
-          if (_hasHoles)
+          event.end();
+
+          if (event.shouldCommit())
             {
-              ToIntMap.Entry[] entries = _resetIndices();
-              for (int i = _array.length; i-->0;)
-                {
-                  IntToIntMap.Entry entry = (IntToIntMap.Entry)entries[i];
-                  _array[entry.value()] = entry.key();
-                }
+              event.setClass = getClass().getName();
+              event.size = _array.length;
+              event.hadHoles = hadHoles;
+              event.commit();
             }
-          else
-            for (Iterator i = _map.iterator(); i.hasNext();)
-              {
-                IntToIntMap.Entry entry = (IntToIntMap.Entry)i.next();
-                _array[entry.value()] = entry.key();
-              }
         }
 
       return _array;
@@ -109,7 +157,7 @@ public class IntSet extends RuntimeSet
       if (size() == 0)
         throw new NoSuchElementException("first element of an empty set");
 
-      return array()[0];
+      return _store.elementAt(0);
     }
     
   /**
@@ -127,7 +175,7 @@ public class IntSet extends RuntimeSet
    */
   public final Object firstObject () throws NoSuchElementException
     {
-      return new RuntimeInt(firstInt());
+      return Runtime.newInt(firstInt());
     }
     
 
@@ -140,7 +188,7 @@ public class IntSet extends RuntimeSet
       if (size() == 0)
         throw new NoSuchElementException("last element of an empty set");
 
-      return array()[size()-1];
+      return _store.elementAt(size()-1);
     }
     
   /**
@@ -158,7 +206,7 @@ public class IntSet extends RuntimeSet
    */
   public final Object lastObject () throws NoSuchElementException
     {
-      return new RuntimeInt(lastInt());
+      return Runtime.newInt(lastInt());
     }
     
 
@@ -168,13 +216,11 @@ public class IntSet extends RuntimeSet
    */
   public final int ord (int element) throws NoSuchElementException
     {
-      if (_hasHoles) _resetIndices();
-
       int index = getIndex(element);
       if (index == -1)
         throw new NoSuchElementException(element+" doesn't belong to this set");
 
-      return index;       
+      return _position(index);
     }
     
   /**
@@ -207,7 +253,7 @@ public class IntSet extends RuntimeSet
       if (index == size())
         throw new NoSuchElementException(element+" has no successor in this set");
 
-      return array()[index];        
+      return _store.elementAt(index);        
     }
     
   /**
@@ -225,7 +271,7 @@ public class IntSet extends RuntimeSet
    */
   public final Object next (Object element) throws NoSuchElementException
     {
-      return new RuntimeInt(next(((RuntimeInt)element).value()));
+      return Runtime.newInt(next(((RuntimeInt)element).value()));
     }
     
 
@@ -240,7 +286,7 @@ public class IntSet extends RuntimeSet
       if (index == -1)
         throw new NoSuchElementException(element+" has no predecessor in this set");
 
-      return array()[index];        
+      return _store.elementAt(index);        
     }
     
   /**
@@ -258,7 +304,7 @@ public class IntSet extends RuntimeSet
    */
   public final Object prev (Object element) throws NoSuchElementException
     {
-      return new RuntimeInt(prev(((RuntimeInt)element).value()));
+      return Runtime.newInt(prev(((RuntimeInt)element).value()));
     }
     
 
@@ -269,7 +315,7 @@ public class IntSet extends RuntimeSet
    */
   public final int nextc (int element) throws NoSuchElementException
     {
-      return array()[(ord(element)+1) % size()];
+      return _store.elementAt((ord(element)+1) % size());
     }
     
   /**
@@ -289,7 +335,7 @@ public class IntSet extends RuntimeSet
    */
   public final Object nextc (Object element) throws NoSuchElementException
     {
-      return new RuntimeInt(next(((RuntimeInt)element).value()));
+      return Runtime.newInt(next(((RuntimeInt)element).value()));
     }
     
 
@@ -300,7 +346,7 @@ public class IntSet extends RuntimeSet
    */
   public final int prevc (int element) throws NoSuchElementException
     {
-      return array()[(ord(element)+size()-1) % size()];
+      return _store.elementAt((ord(element)+size()-1) % size());
     }
     
   /**
@@ -320,15 +366,16 @@ public class IntSet extends RuntimeSet
    */
   public final Object prevc (Object element) throws NoSuchElementException
     {
-      return new RuntimeInt(prevc(((RuntimeInt)element).value()));
+      return Runtime.newInt(prevc(((RuntimeInt)element).value()));
     }
     
   /**
-   * Returns a copy of this set.
+   * Returns a copy of this set, which shares its elements with this set until
+   * either is modified.
    */
   public final RuntimeSet copy ()
     {
-      return new IntSet(_map)._setHasHoles(_hasHoles)._setMaxIndex(_maxIndex);
+      return _copyIndices(new IntSet(this));
     }      
 
   /**
@@ -337,10 +384,7 @@ public class IntSet extends RuntimeSet
    */
   public final int getIndex (int element)
     {
-      int index = _map.get(element);
-      return index == _map.NOT_FOUND_VALUE && !_map.containsKey(element)
-           ? -1
-           : index;
+      return _store.indexOf(element);
     }
 
   /**
@@ -399,11 +443,13 @@ public class IntSet extends RuntimeSet
    */
   protected final RuntimeSet _add (int element)
     {
-      if (!_map.containsKey(element))
+      if (!_store.contains(element))
         {
-          _map.put(element,_maxIndex++);
-          int min = size() == 1 ? element : Math.min(_min,element);
-          int max = size() == 1 ? element : Math.max(_max,element);
+          boolean isFirst = _store.size() == 0;
+          _store = _store.add(element);
+          _contentHash += _elementHash(element);
+          int min = isFirst ? element : Math.min(_min,element);
+          int max = isFirst ? element : Math.max(_max,element);
           if (min != _min || max != _max) _intRange = null;
           _array = null;
           _min = min;
@@ -436,11 +482,24 @@ public class IntSet extends RuntimeSet
    */
   protected final RuntimeSet _remove (int element)
     {
-      if (_hasHoles |= (_map.remove(element) >= 0))
+      if (_store.contains(element))
         {
+          _store = _store.remove(element);
+          _contentHash -= _elementHash(element);
+          _array = null;
+
+          if (_store.size() == 0)
+            {
+              _store = new SmallStore();
+              _clearIndices();
+              _min = Integer.MAX_VALUE;
+              _max = Integer.MIN_VALUE;
+              _intRange = null;
+              return this;
+            }
+
           if (element == _min) _recomputeMin();
           if (element == _max) _recomputeMax();
-          _array = null;
         }
 
       return this;
@@ -468,7 +527,7 @@ public class IntSet extends RuntimeSet
    */
   public final boolean contains (int element)
     {
-      return _map.containsKey(element);
+      return _store.contains(element);
     }
 
   /**
@@ -476,7 +535,7 @@ public class IntSet extends RuntimeSet
    */
   public final boolean contains (double element)
     {
-      return _map.containsKey((int)element);
+      return _store.contains((int)element);
     }
 
   /**
@@ -484,7 +543,7 @@ public class IntSet extends RuntimeSet
    */
   public final boolean contains (Object element)
     {
-      return _map.containsKey(((RuntimeInt)element).value());
+      return _store.contains(((RuntimeInt)element).value());
     }
 
   /**
@@ -500,11 +559,16 @@ public class IntSet extends RuntimeSet
 
   /**
    * Returns this set modified to contain the union of this and the specified set.
+   * Since nothing is removed, the new elements are simply added in the order of
+   * the specified set.
    */
   protected final RuntimeSet _union (RuntimeSet set)
     {
-      for (IntIterator i = set.intIterator(true); i.hasNext();)
-        _add(i.next());
+      int[] others = SetAlgebra.ints(set,true);
+      boolean[] members = _members(others);
+
+      for (int i = 0; i < others.length; i++)
+        if (!members[i]) _add(others[i]);
 
       return this;
     }
@@ -514,14 +578,19 @@ public class IntSet extends RuntimeSet
    */
   public final RuntimeSet _intersection (RuntimeSet set)
     {
-      for (IntIterator i = intIterator(false); i.hasNext();)
+      int[] elements = SetAlgebra.ints(this,true);
+      boolean[] members;
+
+      if (set instanceof IntSet)
+        members = ((IntSet)set)._members(elements);
+      else
         {
-          int element = i.next();
-          if (!set.contains(element))
-            _remove(element);
+          members = new boolean[elements.length];
+          for (int i = 0; i < elements.length; i++)
+            members[i] = set.contains(elements[i]);
         }
 
-      return this;
+      return _keep(elements,members,true,null,null);
     }
 
   /**
@@ -529,10 +598,12 @@ public class IntSet extends RuntimeSet
    */
   public final RuntimeSet _minus (RuntimeSet set) 
     {
-      for (IntIterator i = set.intIterator(false); i.hasNext();)
-        _remove(i.next());
+      int[] elements = SetAlgebra.ints(this,true);
+      boolean[] members = set instanceof IntSet
+                        ? ((IntSet)set)._members(elements)
+                        : SetAlgebra.members(elements,SetAlgebra.ints(set,false));
 
-      return this;
+      return _keep(elements,members,false,null,null);
     }
 
   /**
@@ -540,15 +611,94 @@ public class IntSet extends RuntimeSet
    */
   public final RuntimeSet _exclusion (RuntimeSet set)
     {
-      for (IntIterator i = set.intIterator(true); i.hasNext();)
+      int[] elements = SetAlgebra.ints(this,true);
+      int[] others = SetAlgebra.ints(set,true);
+
+      boolean[] members = set instanceof IntSet
+                        ? ((IntSet)set)._members(elements)
+                        : SetAlgebra.members(elements,others);
+
+      return _keep(elements,members,false,others,_members(others));
+    }
+
+  /**
+   * Returns an array of flags telling, for each of the specified ints, whether it
+   * belongs to this set. A hash table is snapshotted for the bulk kernel, while the
+   * compact representations answer each probe directly without a snapshot.
+   */
+  private final boolean[] _members (int[] elements)
+    {
+      if (_store instanceof HashStore)
+        return SetAlgebra.members(elements,SetAlgebra.ints(this,false));
+
+      boolean[] members = new boolean[elements.length];
+      for (int i = 0; i < elements.length; i++)
+        members[i] = _store.contains(elements[i]);
+
+      return members;
+    }
+
+  /**
+   * Makes this set contain, in this order, those of the specified elements whose
+   * membership flag is equal to the specified boolean, followed by those of the
+   * specified others (if any) whose membership flag is <tt>false</tt>. The elements
+   * are this set's in index order. This set is left untouched when nothing changes,
+   * and otherwise rebuilt in one pass, without holes, except for a persistent index,
+   * which is updated element by element so as to keep sharing its structure.
+   */
+  private final RuntimeSet _keep (int[] elements, boolean[] members, boolean keep,
+                                  int[] others, boolean[] otherMembers)
+    {
+      int added = others == null ? 0 : SetAlgebra.countMissing(otherMembers);
+      int[] result = new int[elements.length + added];
+      int count = 0;
+
+      for (int i = 0; i < elements.length; i++)
+        if (members[i] == keep) result[count++] = elements[i];
+
+      if (count == elements.length && added == 0)
+        return this;
+
+      if (_store instanceof PersistentStore)
         {
-          int element = i.next();
-          if (contains(element))
-            _remove(element);
-          else
-            _add(element);             
+          for (int i = 0; i < elements.length; i++)
+            if (members[i] != keep)
+              {
+                _store = _store.remove(elements[i]);
+                _contentHash -= _elementHash(elements[i]);
+              }
+
+          for (int i = 0; added > 0 && i < others.length; i++)
+            if (!otherMembers[i])
+              {
+                _store = _store.add(others[i]);
+                _contentHash += _elementHash(others[i]);
+              }
+
+          _array = null;
+          _recomputeMin();
+          _recomputeMax();
+          return this;
         }
 
+      for (int i = 0; added > 0 && i < others.length; i++)
+        if (!otherMembers[i]) result[count++] = others[i];
+
+      _clearIndices();
+      _array = null;
+      _intRange = null;
+      _min = Integer.MAX_VALUE;
+      _max = Integer.MIN_VALUE;
+      _contentHash = 0;
+
+      for (int i = 0; i < count; i++)
+        {
+          _min = Math.min(_min,result[i]);
+          _max = Math.max(_max,result[i]);
+          _contentHash += _elementHash(result[i]);
+        }
+
+      _store = count == 0 ? new SmallStore() : _storeFor(result,count);
       return this;
     }
 
@@ -557,9 +707,7 @@ public class IntSet extends RuntimeSet
    */
   public final void _recomputeMin ()
     {
-      _min = Integer.MAX_VALUE;
-      for (IntIterator i = intIterator(false); i.hasNext();)
-        _min = Math.min(_min,i.next());
+      _min = isEmpty() ? Integer.MAX_VALUE : _store.min();
       _intRange = null;
     }
 
@@ -568,9 +716,7 @@ public class IntSet extends RuntimeSet
    */
   public final void _recomputeMax ()
     {
-      _max = Integer.MIN_VALUE;
-      for (IntIterator i = intIterator(false); i.hasNext();)
-        _max = Math.max(_max,i.next());
+      _max = isEmpty() ? Integer.MIN_VALUE : _store.max();
       _intRange = null;
     }
 
@@ -598,11 +744,13 @@ public class IntSet extends RuntimeSet
    * the specified boolean is <tt>true</tt>, iteration will be respecting the
    * index order of the elements; otherwise, order of iteration is unpredictable.
    * The former is less efficient than the latter and should be used only when it
-   * is mandatory to do ordered iteration.
+   * is mandatory to do ordered iteration. Only a hashed set needs its inverse
+   * array for ordered iteration: the other representations enumerate their
+   * elements in index order anyway.
    */
   public final IntIterator intIterator (boolean ordered)
     {
-      return ordered ? (IntIterator)orderedIterator() : _map.keys();
+      return ordered && _store instanceof HashStore ? orderedIterator() : _store.keys();
     }
 
   /**
@@ -688,7 +836,7 @@ public class IntSet extends RuntimeSet
    */
   public final IntIterator indexIterator ()
     {
-      return _map.values();
+      return _store.indices();
     }
 
   /**
@@ -705,7 +853,8 @@ public class IntSet extends RuntimeSet
 
       IndexableContainer other = (IndexableContainer)object;
 
-      if (size() != other.size())
+      if (size() != other.size()
+          || other instanceof RuntimeSet && hashCode() != other.hashCode())
         return false;
 
       for (IntIterator i = intIterator(false); i.hasNext();)
@@ -732,16 +881,21 @@ public class IntSet extends RuntimeSet
 
       Indexable other = (Indexable)object;
 
-      if (size() != other.size())
+      if (size() != other.size()
+          || other instanceof RuntimeSet && hashCode() != other.hashCode())
         return false;
 
-     for (Iterator i = _map.iterator(); i.hasNext();)
-       {
-         IntToIntMap.Entry entry = (IntToIntMap.Entry)i.next();
-         int index = other.getIndex(entry.key());
-         if (index == -1) return false;
-         permutation[index] = entry.value();
-       }
+      if (isEmpty())
+        return true;
+
+      int[] elements = array();
+
+      for (int i = 0; i < elements.length; i++)
+        {
+          int index = other.getIndex(elements[i]);
+          if (index == -1) return false;
+          permutation[index] = i;
+        }
 
       return true;
     }
@@ -758,6 +912,738 @@ public class IntSet extends RuntimeSet
       return buf.append("}").toString();
     }
 
+  /**
+   * Renumbers the elements from <tt>0</tt> in index order. Only a hash table
+   * may have holes.
+   */
+  protected final void _compactIndices ()
+    {
+      if (_store instanceof HashStore)
+        {
+          ((HashStore)_store)._unshare();
+          ((HashStore)_store)._compact();
+        }
+    }
+
+  /**
+   * Returns the most compact representation for the specified distinct
+   * elements, given in index order. A range gets its bounds from <tt>_min</tt>
+   * and <tt>_max</tt>, which the caller makes match the elements.
+   */
+  private final Store _storeFor (int[] elements, int count)
+    {
+      if (count <= SMALL_CAPACITY)
+        return new SmallStore(elements,count);
+
+      boolean isIncreasing = true;
+      for (int i = 1; isIncreasing && i < count; i++)
+        isIncreasing = elements[i-1] < elements[i];
+
+      if (isIncreasing)
+        {
+          long span = (long)elements[count-1] - elements[0] + 1;
+
+          if (span == count)
+            return new RangeStore();
+
+          if (span <= (long)BITMAP_DENSITY * count)
+            return new BitmapStore(elements,count);
+        }
+
+      return new HashStore(elements,count);
+    }
+
+  /**
+   * This is the common interface of the representations of an int set. The
+   * <tt>add</tt> method is only called on an element that is absent, and
+   * <tt>remove</tt> on one that is present. Both return the representation
+   * to use from then on, which is a new one whenever the current one no
+   * longer fits the elements. Only a hash table uses <tt>_hasHoles</tt> and
+   * <tt>_maxIndex</tt>; a range uses the set's <tt>_min</tt> and <tt>_max</tt>
+   * as its bounds.
+   */
+  private abstract class Store
+    {
+      abstract int size ();
+      abstract boolean contains (int element);
+      abstract int indexOf (int element);
+      abstract int elementAt (int index);
+      abstract Store add (int element);
+      abstract Store remove (int element);
+      abstract int[] toArray ();
+      abstract IntIterator keys ();
+      abstract int min ();
+      abstract int max ();
+      abstract Store copy (IntSet set);
+
+      IntIterator indices ()
+        {
+          return new CountingIterator(0,size());
+        }
+    }
+
+  /**
+   * An inline array of at most <tt>SMALL_CAPACITY</tt> elements in index order.
+   */
+  private final class SmallStore extends Store
+    {
+      private final int[] _elements = new int[SMALL_CAPACITY];
+      private int _size;
+
+      SmallStore ()
+        {
+        }
+
+      SmallStore (int[] elements, int count)
+        {
+          System.arraycopy(elements,0,_elements,0,count);
+          _size = count;
+        }
+
+      final int size ()
+        {
+          return _size;
+        }
+
+      final boolean contains (int element)
+        {
+          return indexOf(element) != -1;
+        }
+
+      final int indexOf (int element)
+        {
+          for (int i = 0; i < _size; i++)
+            if (_elements[i] == element) return i;
+
+          return -1;
+        }
+
+      final int elementAt (int index)
+        {
+          return _elements[index];
+        }
+
+      final Store add (int element)
+        {
+          if (_size < SMALL_CAPACITY)
+            {
+              _elements[_size++] = element;
+              return this;
+            }
+
+          int[] elements = Arrays.copyOf(_elements,_size+1);
+          elements[_size] = element;
+          return _storeFor(elements,_size+1);
+        }
+
+      final Store remove (int element)
+        {
+          int index = indexOf(element);
+          System.arraycopy(_elements,index+1,_elements,index,--_size-index);
+          return this;
+        }
+
+      final int[] toArray ()
+        {
+          return Arrays.copyOf(_elements,_size);
+        }
+
+      final IntIterator keys ()
+        {
+          return new OrderedIterator(toArray());
+        }
+
+      final int min ()
+        {
+          int min = _elements[0];
+          for (int i = 1; i < _size; i++)
+            min = Math.min(min,_elements[i]);
+          return min;
+        }
+
+      final int max ()
+        {
+          int max = _elements[0];
+          for (int i = 1; i < _size; i++)
+            max = Math.max(max,_elements[i]);
+          return max;
+        }
+
+      final Store copy (IntSet set)
+        {
+          return set.new SmallStore(_elements,_size);
+        }
+    }
+
+  /**
+   * The contiguous elements from <tt>_min</tt> to <tt>_max</tt> inserted in
+   * increasing order, so that the index of an element is its offset from
+   * <tt>_min</tt>. It takes no space beyond the set's own bookkeeping.
+   * Removing either bound narrows the range in place.
+   */
+  private final class RangeStore extends Store
+    {
+      final int size ()
+        {
+          return _max - _min + 1;
+        }
+
+      final boolean contains (int element)
+        {
+          return _min <= element && element <= _max;
+        }
+
+      final int indexOf (int element)
+        {
+          return contains(element) ? element - _min : -1;
+        }
+
+      final int elementAt (int index)
+        {
+          return _min + index;
+        }
+
+      final Store add (int element)
+        {
+          if (_max != Integer.MAX_VALUE && element == _max + 1)
+            return this;
+
+          if (element > _max)
+            return new BitmapStore(toArray(),size()).add(element);
+
+          return new HashStore(toArray(),size()).add(element);
+        }
+
+      final Store remove (int element)
+        {
+          if (element == _min)
+            {
+              _min++;
+              _intRange = null;
+              return this;
+            }
+
+          if (element == _max)
+            {
+              _max--;
+              _intRange = null;
+              return this;
+            }
+
+          return new BitmapStore(toArray(),size()).remove(element);
+        }
+
+      final int[] toArray ()
+        {
+          int[] array = new int[size()];
+          for (int i = array.length; i-->0;)
+            array[i] = _min + i;
+          return array;
+        }
+
+      final IntIterator keys ()
+        {
+          return new CountingIterator(_min,size());
+        }
+
+      final int min ()
+        {
+          return _min;
+        }
+
+      final int max ()
+        {
+          return _max;
+        }
+
+      final Store copy (IntSet set)
+        {
+          return set.new RangeStore();
+        }
+    }
+
+  /**
+   * A bitmap of elements inserted in increasing order, so that the index
+   * of an element is its rank. Bit <tt>b</tt> of word <tt>w</tt> stands for
+   * <tt>_base+64*w+b</tt>, where <tt>_base</tt> is a multiple of 64. Ranks
+   * are computed from running counts up to the last non-empty word, rebuilt
+   * lazily after a removal or an append into a new word.
+   */
+  private final class BitmapStore extends Store
+    {
+      private long[] _words;
+      private final int _base;
+      private int _size;
+      private int[] _ranks;
+      private boolean _isShared;
+
+      BitmapStore (int[] elements, int count)
+        {
+          _base = elements[0] & ~63;
+          _words = new long[_wordIndex(elements[count-1])+1];
+          for (int i = 0; i < count; i++)
+            _words[_wordIndex(elements[i])] |= 1L << elements[i];
+          _size = count;
+        }
+
+      BitmapStore (BitmapStore store)
+        {
+          _words = store._words;
+          _base = store._base;
+          _size = store._size;
+          _ranks = store._ranks;
+          _isShared = store._isShared = true;
+        }
+
+      private final void _unshare ()
+        {
+          if (_isShared)
+            {
+              _words = _words.clone();
+              _isShared = false;
+            }
+        }
+
+      private final int _wordIndex (int element)
+        {
+          return (int)(((long)element - _base) >>> 6);
+        }
+
+      private final void _computeRanks ()
+        {
+          int length = _words.length;
+          while (length > 0 && _words[length-1] == 0) length--;
+
+          _ranks = new int[length];
+          for (int w = 0, rank = 0; w < length; w++)
+            {
+              _ranks[w] = rank;
+              rank += Long.bitCount(_words[w]);
+            }
+        }
+
+      final int size ()
+        {
+          return _size;
+        }
+
+      final boolean contains (int element)
+        {
+          if (element < _base)
+            return false;
+
+          int w = _wordIndex(element);
+          return w < _words.length && (_words[w] & (1L << element)) != 0;
+        }
+
+      final int indexOf (int element)
+        {
+          if (!contains(element))
+            return -1;
+
+          if (_ranks == null) _computeRanks();
+
+          int w = _wordIndex(element);
+          return _ranks[w] + Long.bitCount(_words[w] & ((1L << element) - 1));
+        }
+
+      final int elementAt (int index)
+        {
+          if (_ranks == null) _computeRanks();
+
+          int low = 0;
+          int high = _ranks.length - 1;
+          while (low < high)
+            {
+              int middle = (low + high + 1) >>> 1;
+              if (_ranks[middle] <= index)
+                low = middle;
+              else
+                high = middle - 1;
+            }
+
+          long word = _words[low];
+          for (int i = index - _ranks[low]; i-->0;)
+            word &= word - 1;
+
+          return _base + (low << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+      final Store add (int element)
+        {
+          if (element < _max
+              || (long)element - _base >= 2L * BITMAP_DENSITY * (_size + 1))
+            return new HashStore(toArray(),_size).add(element);
+
+          _unshare();
+
+          int w = _wordIndex(element);
+          if (w >= _words.length)
+            _words = Arrays.copyOf(_words,Math.max(w+1,_words.length+(_words.length>>1)));
+
+          if (_ranks != null && w >= _ranks.length)
+            _ranks = null;
+
+          _words[w] |= 1L << element;
+          _size++;
+          return this;
+        }
+
+      final Store remove (int element)
+        {
+          _unshare();
+          _words[_wordIndex(element)] &= ~(1L << element);
+          _size--;
+          _ranks = null;
+
+          if (64L * _words.length <= 4L * BITMAP_DENSITY * _size)
+            return this;
+
+          return _size <= SMALL_CAPACITY ? new SmallStore(toArray(),_size)
+                                         : new HashStore(toArray(),_size);
+        }
+
+      final int[] toArray ()
+        {
+          int[] array = new int[_size];
+
+          for (int w = 0, i = 0; w < _words.length; w++)
+            for (long word = _words[w]; word != 0; word &= word - 1)
+              array[i++] = _base + (w << 6) + Long.numberOfTrailingZeros(word);
+
+          return array;
+        }
+
+      final IntIterator keys ()
+        {
+          return new BitmapIterator(_words,_base);
+        }
+
+      final int min ()
+        {
+          int w = 0;
+          while (_words[w] == 0) w++;
+          return _base + (w << 6) + Long.numberOfTrailingZeros(_words[w]);
+        }
+
+      final int max ()
+        {
+          int w = _words.length - 1;
+          while (_words[w] == 0) w--;
+          return _base + (w << 6) + 63 - Long.numberOfLeadingZeros(_words[w]);
+        }
+
+      final Store copy (IntSet set)
+        {
+          return set.new BitmapStore(this);
+        }
+    }
+
+  /**
+   * The general representation: a hash table mapping each element to its
+   * index, whose indices may have holes after removals, and the elements by
+   * index. The slot of a removed element is dead once the element no longer
+   * maps to it.
+   */
+  private final class HashStore extends Store
+    {
+      private IntToIntMap _map = new IntToIntMap();
+      private int[] _slots;
+      private boolean _isShared;
+
+      HashStore (int[] elements, int count)
+        {
+          _slots = Arrays.copyOf(elements,count+(count>>1)+1);
+
+          for (int i = 0; i < count; i++)
+            _map.put(elements[i],i);
+
+          _clearIndices();
+          _maxIndex = count;
+        }
+
+      HashStore (HashStore store)
+        {
+          _map = store._map;
+          _slots = store._slots;
+          _isShared = store._isShared = true;
+        }
+
+      final void _unshare ()
+        {
+          if (_isShared)
+            {
+              IntToIntMap map = new IntToIntMap();
+              map.include(_map);
+              _map = map;
+              _slots = _slots.clone();
+              _isShared = false;
+            }
+        }
+
+      /**
+       * Returns the representation to update in place of this shared one: a copy
+       * of its elements as a persistent index if there are at least
+       * <tt>PERSISTENT_THRESHOLD</tt> of them and the set is far enough down a
+       * chain of copies (see <tt>PERSISTENT_CHAIN</tt>), so that the copies of
+       * the result share structure even once modified, and otherwise this one
+       * once it has its own copy of them.
+       */
+      private final Store _unshareForUpdate ()
+        {
+          if (_copyChain < PERSISTENT_CHAIN || _map.size() < PERSISTENT_THRESHOLD)
+            {
+              _unshare();
+              return this;
+            }
+
+          int[] elements = new int[_map.size()];
+          int count = 0;
+
+          for (int index = 0; index < _maxIndex; index++)
+            {
+              int element = _slots[index];
+              if (_map.get(element) == index && _map.containsKey(element))
+                elements[count++] = element;
+            }
+
+          _clearIndices();
+          return new PersistentStore(PersistentIntIndex.of(elements,count));
+        }
+
+      final void _compact ()
+        {
+          int count = 0;
+
+          for (int index = 0; index < _maxIndex; index++)
+            {
+              int element = _slots[index];
+              if (_map.get(element) == index)
+                {
+                  _map.put(element,count);
+                  _slots[count++] = element;
+                }
+            }
+        }
+
+      final int size ()
+        {
+          return _map.size();
+        }
+
+      final boolean contains (int element)
+        {
+          return _map.containsKey(element);
+        }
+
+      final int indexOf (int element)
+        {
+          int index = _map.get(element);
+          return index == IntToIntMap.NOT_FOUND_VALUE && !_map.containsKey(element)
+               ? -1
+               : index;
+        }
+
+      final int elementAt (int position)
+        {
+          return _slots[_index(position)];
+        }
+
+      final Store add (int element)
+        {
+          if (_isShared)
+            return _unshareForUpdate().add(element);
+
+          int index = _newIndex();
+
+          if (index == _slots.length)
+            _slots = Arrays.copyOf(_slots,index+(index>>1)+1);
+
+          _slots[index] = element;
+          _map.put(element,index);
+          return this;
+        }
+
+      final Store remove (int element)
+        {
+          if (_isShared)
+            return _unshareForUpdate().remove(element);
+
+          _removeIndex(_map.remove(element));
+          return this;
+        }
+
+      final int[] toArray ()
+        {
+          if (_hasHoles) _resetIndices();
+          return Arrays.copyOf(_slots,_map.size());
+        }
+
+      final IntIterator keys ()
+        {
+          return _map.keys();
+        }
+
+      final IntIterator indices ()
+        {
+          return _map.values();
+        }
+
+      final int min ()
+        {
+          int min = Integer.MAX_VALUE;
+          for (IntIterator i = _map.keys(); i.hasNext();)
+            min = Math.min(min,i.next());
+          return min;
+        }
+
+      final int max ()
+        {
+          int max = Integer.MIN_VALUE;
+          for (IntIterator i = _map.keys(); i.hasNext();)
+            max = Math.max(max,i.next());
+          return max;
+        }
+
+      final Store copy (IntSet set)
+        {
+          return set.new HashStore(this);
+        }
+    }
+
+  /**
+   * A persistent index of the elements, shared with the copies of the set and
+   * updated by replacing it with a new version. Its indices are positions,
+   * without holes. Once it has fewer than half <tt>PERSISTENT_THRESHOLD</tt>
+   * elements, a removal switches the set back to a hash table.
+   */
+  private final class PersistentStore extends Store
+    {
+      private PersistentIntIndex _index;
+
+      PersistentStore (PersistentIntIndex index)
+        {
+          _index = index;
+        }
+
+      final int size ()
+        {
+          return _index.size();
+        }
+
+      final boolean contains (int element)
+        {
+          return _index.contains(element);
+        }
+
+      final int indexOf (int element)
+        {
+          return _index.position(element);
+        }
+
+      final int elementAt (int position)
+        {
+          return _index.elementAt(position);
+        }
+
+      final Store add (int element)
+        {
+          _index = _index.add(element);
+          return this;
+        }
+
+      final Store remove (int element)
+        {
+          _index = _index.remove(element);
+
+          if (2 * _index.size() >= PERSISTENT_THRESHOLD)
+            return this;
+
+          return new HashStore(_index.toArray(),_index.size());
+        }
+
+      final int[] toArray ()
+        {
+          return _index.toArray();
+        }
+
+      final IntIterator keys ()
+        {
+          return _index.iterator();
+        }
+
+      final int min ()
+        {
+          return _index.min();
+        }
+
+      final int max ()
+        {
+          return _index.max();
+        }
+
+      final Store copy (IntSet set)
+        {
+          return set.new PersistentStore(_index);
+        }
+    }
+
+  private static class CountingIterator implements IntIterator
+    {
+      private int _next;
+      private int _count;
+
+      CountingIterator (int first, int count)
+        {
+          _next = first;
+          _count = count;
+        }
+
+      public final boolean hasNext ()
+        {
+          return _count > 0;
+        }
+
+      public final int next ()
+        {
+          _count--;
+          return _next++;
+        }
+    }
+
+  private static class BitmapIterator implements IntIterator
+    {
+      private long[] _words;
+      private int _base;
+      private int _index = -1;
+      private long _word;
+
+      BitmapIterator (long[] words, int base)
+        {
+          _words = words;
+          _base = base;
+          _advance();
+        }
+
+      private final void _advance ()
+        {
+          while (++_index < _words.length)
+            if ((_word = _words[_index]) != 0) return;
+        }
+
+      public final boolean hasNext ()
+        {
+          return _index < _words.length;
+        }
+
+      public final int next ()
+        {
+          int element = _base + (_index << 6) + Long.numberOfTrailingZeros(_word);
+          if ((_word &= _word - 1) == 0) _advance();
+          return element;
+        }
+    }
+
   private static class BoxedIntIterator implements Iterator
     {
       private IntIterator _iterator;
@@ -774,7 +1660,7 @@ public class IntSet extends RuntimeSet
 
       public final Object next ()
         {
-          return new RuntimeInt(_iterator.next());
+          return Runtime.newInt(_iterator.next());
         }
 
       public final void remove ()
@@ -82,16 +82,15 @@ public class ObjectInstance implements RuntimeObject
 
   final public String toString ()
     {
-      _clearTags();
-      return _toTaggedString();
+      return _toTaggedString(new HashMap());
     }
 
-  private final String _toTaggedString ()
+  private final String _toTaggedString (HashMap tags)
     {
-      String tag = _getTag();
+      String tag = _getTag(tags);
       boolean dejaVu = (tag != null);
 
-      if (!dejaVu) tag = _putTag();
+      if (!dejaVu) tag = _putTag(tags);
 
       StringBuilder buf = new StringBuilder(_type.name()+tag);
 
@@ -103,7 +102,7 @@ public class ObjectInstance implements RuntimeObject
 
           if (fields.length == 0) return buf+"}";
           for (int i=0; i<fields.length; i++)
-            buf.append(fields[i].symbol()+" = "+_fieldStringValueOf(fields[i])
+            buf.append(fields[i].symbol()+" = "+_fieldStringValueOf(fields[i],tags)
                        +(i == fields.length-1?"}":", "));
         }
 
@@ -111,40 +110,35 @@ public class ObjectInstance implements RuntimeObject
     }
 
   /**
-   * The following table is used to keep a record of tags labelling objects that have
-   * already been displayed and thus need not be redisplayed beyond their tag.
-   * This allows printing circular objects, and saves on the display form of objects
-   * that are shared. A tag is of the form <tt>Classname#n</tt>, where <tt>Classname</tt>
-   * is the name of the class of the tagged object and <tt>n</tt> is a number. Therefore,
-   * the table <tt>_tags</tt> is a table of tables: it maps a classname to a table that
-   * maps a number to the object it designates.
+   * The tag table passed along the following methods is used to keep a record of
+   * tags labelling objects that have already been displayed and thus need not be
+   * redisplayed beyond their tag. This allows printing circular objects, and saves
+   * on the display form of objects that are shared. A tag is of the form
+   * <tt>Classname#n</tt>, where <tt>Classname</tt> is the name of the class of the
+   * tagged object and <tt>n</tt> is a number. Therefore, the tag table is a table of
+   * tables: it maps a classname to a table that maps a number to the object it
+   * designates. A new table is created by each call to <tt>toString()</tt>, which
+   * thus may be safely called concurrently.
    */
-  private final static HashMap _tags = new HashMap();
-
-  private static void _clearTags ()
-    {
-      _tags.clear();
-    }
-
-  private String _getTag ()
+  private String _getTag (HashMap tags)
     {
-      HashMap typeTags = (HashMap)_tags.get(_type);
+      HashMap typeTags = (HashMap)tags.get(_type);
 
       if (typeTags == null)
         {
-          _tags.put(_type,typeTags = new HashMap());
+          tags.put(_type,typeTags = new HashMap());
           return null;
         }
 
       return (String)typeTags.get(this);
     }
 
-  private String _putTag ()
+  private String _putTag (HashMap tags)
     {
-      HashMap typeTags = (HashMap)_tags.get(_type);
+      HashMap typeTags = (HashMap)tags.get(_type);
 
       if (typeTags == null)
-        _tags.put(_type,typeTags = new HashMap());
+        tags.put(_type,typeTags = new HashMap());
 
       String tag = "#"+typeTags.size();
       typeTags.put(this,tag);
@@ -152,7 +146,7 @@ public class ObjectInstance implements RuntimeObject
       return tag;
     }
 
-  private final String _fieldStringValueOf (DefinedEntry entry)
+  private final String _fieldStringValueOf (DefinedEntry entry, HashMap tags)
     {
       switch (entry.fieldSort())
         {
@@ -172,7 +166,7 @@ public class ObjectInstance implements RuntimeObject
       if (object == null) return "null";
 
       if (object instanceof ObjectInstance)
-        return ((ObjectInstance)object)._toTaggedString();
+        return ((ObjectInstance)object)._toTaggedString(tags);
 
       String fieldString = object.toString();
 
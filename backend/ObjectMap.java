@@ -5,7 +5,7 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 22:31:40 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
@@ -96,10 +96,18 @@ public class ObjectMap extends RuntimeMap
       if (!(object instanceof ObjectMap))
         return false;
 
-      return _array == ((ObjectMap)object).array()
+      return _array == ((ObjectMap)object)._array
           && _indexable.equals(((ObjectMap)object).indexable());
     }
 
+  /**
+   * Consistent with <tt>equals</tt>, which requires the very same array.
+   */
+  public final int hashCode ()
+    {
+      return System.identityHashCode(_array);
+    }
+
   public final String toString ()
     {
       StringBuilder buf = new StringBuilder("#[");
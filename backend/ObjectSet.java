@@ -5,19 +5,24 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 23:12:40 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Arrays;
 
 
 import hlt.language.util.IntIterator;
 import hlt.language.util.DoubleIterator;
 import hlt.language.util.ToIntMap;
 import hlt.language.util.ObjectToIntMap;
+import hlt.language.util.IntToIntMap;
+import hlt.language.util.DoubleToIntMap;
+
+import hlt.language.design.types.Type;
 
 import hlt.language.tools.Misc;
 
@@ -27,16 +32,69 @@ import hlt.language.tools.Misc;
  */
 public class ObjectSet extends RuntimeSet implements Sliceable
 {
+  /**
+   * The maximum number of slice indexes a set keeps.
+   */
+  public static final int MAX_SLICE_INDEXES =
+    Math.max(1,Integer.getInteger("hlt.runtime.slice.indexes",4).intValue());
+
+  /**
+   * The number of tuples that the slice indexes of a set may hold altogether (each
+   * holds all the tuples of the set) before the least recently used ones are
+   * evicted to make room for a new one, which is always kept. This budget is per
+   * set: the slices of a set are sets of their own, each with its own budget, so
+   * the indexes of nested slices (see <tt>sliceIterator</tt>) do not count
+   * against the budget of the set they were sliced from.
+   */
+  public static final int SLICE_INDEX_BUDGET =
+    Integer.getInteger("hlt.runtime.slice.index.budget",1 << 22).intValue();
+
   /**
    * The hash table containing the elements and their indices.
    */
   private ObjectToIntMap _map = new ObjectToIntMap();
 
   /**
-   * This array reflects the inverse relation of <tt>_map</tt>.
+   * The elements by index. The slot of a removed element is dead once the
+   * element no longer maps to it.
+   */
+  private Object[] _slots = new Object[8];
+
+  /**
+   * This is <tt>true</tt> when <tt>_map</tt> and <tt>_slots</tt>, or
+   * <tt>_columns</tt>, may be shared with a copy of this set, in which case they
+   * are copied before this set is first modified.
+   */
+  private boolean _isShared;
+
+  /**
+   * When not <tt>null</tt>, the persistent index holding the elements in place of
+   * <tt>_map</tt> and <tt>_slots</tt>, which are then <tt>null</tt>. It may be
+   * shared with copies of this set, and its indices are positions, without holes.
+   * The set goes back to a hash table once it has fewer than half
+   * <tt>PERSISTENT_THRESHOLD</tt> elements.
+   */
+  private PersistentIndex _persistent;
+
+  /**
+   * When not <tt>null</tt>, the columns holding the elements, which are then tuples
+   * of the same shape, in place of <tt>_map</tt> and <tt>_slots</tt>, which are then
+   * <tt>null</tt> (see <tt>makeColumnar</tt>). Its slots are the indices.
+   */
+  private TupleColumns _columns;
+
+  /**
+   * This array caches the elements in index order.
    */
   private Object[] _array;
 
+  /**
+   * The boxes used to look up an int or a double in this set without allocating
+   * (see <tt>_probe</tt>).
+   */
+  private RuntimeInt _intProbe;
+  private RuntimeReal _realProbe;
+
   /**
    * Constructs a new empty set.
    */
@@ -50,40 +108,227 @@ public class ObjectSet extends RuntimeSet implements Sliceable
   public ObjectSet (ObjectToIntMap map)
     {
       _map.include(map);
+
+      for (Iterator i = _map.iterator(); i.hasNext();)
+        _maxIndex = Math.max(_maxIndex,((ToIntMap.Entry)i.next()).value()+1);
+
+      _slots = new Object[_maxIndex+1];
+      for (Iterator i = _map.iterator(); i.hasNext();)
+        {
+          ObjectToIntMap.Entry entry = (ObjectToIntMap.Entry)i.next();
+          _slots[entry.value()] = entry.key();
+          _contentHash += _elementHash(entry.key());
+        }
+
+      _compactIndices();
+      _maxIndex = _map.size();
     }
 
   /**
-   * Returns the underlying index map representing the set.
+   * Constructs a new set with the elements and indices of the specified set.
+   */
+  private ObjectSet (ObjectSet set)
+    {
+      _contentHash = set._contentHash;
+
+      if (set._columns != null)
+        {
+          _columns = set._columns;
+          _map = null;
+          _slots = null;
+          _isShared = set._isShared = true;
+          return;
+        }
+
+      if (set._persistent == null)
+        {
+          _map = set._map;
+          _slots = set._slots;
+          _isShared = set._isShared = true;
+        }
+      else
+        {
+          _persistent = set._persistent;
+          _map = null;
+          _slots = null;
+        }
+    }
+
+  /**
+   * Returns the underlying index map representing the set, switching this set
+   * back to a hash table if it was using a persistent index or columns.
    */
   final ToIntMap map ()
     {
+      if (_persistent != null || _columns != null)
+        {
+          Object[] elements = _persistent != null ? _persistent.toArray() : _columnElements();
+          _persistent = null;
+          _columns = null;
+          _map = new ObjectToIntMap();
+          _slots = Arrays.copyOf(elements,elements.length+(elements.length>>1)+1);
+          _isShared = false;
+          _clearIndices();
+
+          for (int i = 0; i < elements.length; i++)
+            _map.put(elements[i],_newIndex());
+        }
+
+      _unshare();
       return _map;
     }
 
+  /**
+   * Returns new tuples equal to those in the columns of this set, in index order.
+   */
+  private final Object[] _columnElements ()
+    {
+      if (_hasHoles) _resetIndices();
+      return _columns.toArray();
+    }
+
+  /**
+   * Switches this set to holding its elements as columns, provided they are all
+   * tuples of the same shape, and returns <tt>true</tt> iff it does so, or already
+   * did. An empty set takes the shape of the first tuple added. This makes a set
+   * of many tuples much smaller, and scanning it faster, since it keeps their
+   * components rather than the tuples themselves. It does mean that the tuples
+   * that the set hands out are built afresh: they are equal to those that were
+   * added, not identical to them, and frozen. Adding an element that does not fit the columns
+   * switches the set back to a hash table.
+   */
+  public final boolean makeColumnar ()
+    {
+      if (_columns != null)
+        return true;
+
+      Object[] elements = _elements();
+      TupleColumns columns = new TupleColumns();
+
+      for (int i = 0; i < elements.length; i++)
+        {
+          if (!columns.fits(elements[i]))
+            return false;
+
+          columns.put((RuntimeTuple)elements[i],i);
+        }
+
+      _columns = columns;
+      _persistent = null;
+      _map = null;
+      _slots = null;
+      _isShared = false;
+      _array = null;
+      _clearIndices();
+      _maxIndex = elements.length;
+      _clearSliceIndexes();
+      return true;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this set holds its elements as columns.
+   */
+  public final boolean isColumnar ()
+    {
+      return _columns != null;
+    }
+
+  /**
+   * Gives this set its own copy of its elements if it may share them.
+   */
+  private final void _unshare ()
+    {
+      if (_isShared)
+        {
+          if (_columns != null)
+            _columns = _columns.copy();
+          else
+            {
+              ObjectToIntMap map = new ObjectToIntMap();
+              map.include(_map);
+              _map = map;
+              _slots = _slots.clone();
+            }
+          _isShared = false;
+        }
+    }
+
+  /**
+   * Gives this set its own copy of its elements, before an update, if it may
+   * share them. A set of at least <tt>PERSISTENT_THRESHOLD</tt> elements that is
+   * far enough down a chain of copies (see <tt>PERSISTENT_CHAIN</tt>) takes them
+   * as a persistent index, so that its own copies share structure even once
+   * modified, unless it holds them as columns.
+   */
+  private final void _unshareForUpdate ()
+    {
+      if (_columns != null || _copyChain < PERSISTENT_CHAIN || _map.size() < PERSISTENT_THRESHOLD)
+        {
+          _unshare();
+          return;
+        }
+
+      Object[] elements = new Object[_map.size()];
+      int count = 0;
+
+      for (int index = 0; index < _maxIndex; index++)
+        {
+          Object element = _slots[index];
+          if (element != null && _map.get(element) == index)
+            elements[count++] = element;
+        }
+
+      _persistent = PersistentIndex.of(elements,count);
+      _map = null;
+      _slots = null;
+      _isShared = false;
+      _clearIndices();
+    }
+
+  /**
+   * Returns the number of elements in this set.
+   */
+  public final int size ()
+    {
+      if (_columns != null)
+        return _columns.size();
+
+      return _persistent == null ? _map.size() : _persistent.size();
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this set is empty.
+   */
+  public final boolean isEmpty ()
+    {
+      return size() == 0;
+    }
+
   /**
    * Returns the inverse relation of the index map as an array.
    */
   public final Object[] array ()
     {
-      if (_map.size() > 0 && (_array == null || _hasHoles))
+      if (size() > 0 && (_array == null || _hasHoles))
         {
-          _array = new Object[_map.size()];
+          RuntimeEvents.ArrayRebuild event = new RuntimeEvents.ArrayRebuild();
+          event.begin();
+
+          boolean hadHoles = _hasHoles;
+          if (_hasHoles) _resetIndices();
+          _array = _columns != null ? _columns.toArray()
+                 : _persistent == null ? Arrays.copyOf(_slots,_map.size())
+                                       : _persistent.toArray();
 
-          if (_hasHoles)
+          event.end();
+
+          if (event.shouldCommit())
             {
-              ToIntMap.Entry[] entries = _resetIndices();
-              for (int i = _array.length; i-->0;)
-                {
-                  ObjectToIntMap.Entry entry = (ObjectToIntMap.Entry)entries[i];
-                  _array[entry.value()] = entry.key();
-                }
+              event.setClass = getClass().getName();
+              event.size = _array.length;
+              event.hadHoles = hadHoles;
+              event.commit();
             }
-          else
-            for (Iterator i = _map.iterator(); i.hasNext();)
-              {
-                ObjectToIntMap.Entry entry = (ObjectToIntMap.Entry)i.next();
-                _array[entry.value()] = entry.key();
-              }
         }
 
       return _array;
@@ -116,7 +361,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
       if (size() == 0)
         throw new NoSuchElementException("first element of an empty set");
 
-      return array()[0];
+      return _elementAt(0);
     }
     
 
@@ -147,7 +392,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
       if (size() == 0)
         throw new NoSuchElementException("last element of an empty set");
 
-      return array()[size()-1];
+      return _elementAt(size()-1);
     }
     
 
@@ -157,7 +402,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int ord (int element) throws NoSuchElementException
     {
-      return ord(new RuntimeInt(element));
+      return ord(_probe(element));
     }
     
   /**
@@ -166,7 +411,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int ord (double element) throws NoSuchElementException
     {
-      return ord(new RuntimeReal(element));
+      return ord(_probe(element));
     }
     
   /**
@@ -175,13 +420,11 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int ord (Object element) throws NoSuchElementException
     {
-      if (_hasHoles) _resetIndices();
-
       int index = getIndex(element);
       if (index == -1)
         throw new NoSuchElementException(element+" doesn't belong to this set");
 
-      return index;
+      return _position(index);
     }
     
 
@@ -191,7 +434,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int next (int element) throws NoSuchElementException
     {
-      return ((RuntimeInt)next(new RuntimeInt(element))).value();
+      return ((RuntimeInt)next(_probe(element))).value();
     }
     
   /**
@@ -200,7 +443,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final double next (double element) throws NoSuchElementException
     {
-      return ((RuntimeReal)next(new RuntimeReal(element))).value();
+      return ((RuntimeReal)next(_probe(element))).value();
     }
     
   /**
@@ -214,7 +457,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
       if (index == size())
         throw new NoSuchElementException(element+" has no successor in this set");
 
-      return array()[index];
+      return _elementAt(index);
     }
     
 
@@ -224,7 +467,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int prev (int element) throws NoSuchElementException
     {
-      return ((RuntimeInt)prev(new RuntimeInt(element))).value();
+      return ((RuntimeInt)prev(_probe(element))).value();
     }
     
   /**
@@ -233,7 +476,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final double prev (double element) throws NoSuchElementException
     {
-      return ((RuntimeReal)prev(new RuntimeReal(element))).value();
+      return ((RuntimeReal)prev(_probe(element))).value();
     }
     
   /**
@@ -247,7 +490,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
       if (index == -1)
         throw new NoSuchElementException(element+" has no predecessor in this set");
 
-      return array()[index];
+      return _elementAt(index);
     }
     
 
@@ -258,7 +501,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int nextc (int element) throws NoSuchElementException
     {
-      return ((RuntimeInt)nextc(new RuntimeInt(element))).value();
+      return ((RuntimeInt)nextc(_probe(element))).value();
     }
     
   /**
@@ -268,7 +511,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final double nextc (double element) throws NoSuchElementException
     {
-      return ((RuntimeReal)nextc(new RuntimeReal(element))).value();
+      return ((RuntimeReal)nextc(_probe(element))).value();
     }
     
   /**
@@ -278,7 +521,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final Object nextc (Object element) throws NoSuchElementException
     {
-      return array()[(ord(element)+1) % size()];
+      return _elementAt((ord(element)+1) % size());
     }
     
 
@@ -289,7 +532,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int prevc (int element) throws NoSuchElementException
     {
-      return ((RuntimeInt)prevc(new RuntimeInt(element))).value();
+      return ((RuntimeInt)prevc(_probe(element))).value();
     }
     
   /**
@@ -299,7 +542,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final double prevc (double element) throws NoSuchElementException
     {
-      return ((RuntimeReal)prevc(new RuntimeReal(element))).value();
+      return ((RuntimeReal)prevc(_probe(element))).value();
     }
     
   /**
@@ -309,16 +552,86 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final Object prevc (Object element) throws NoSuchElementException
     {
-      return array()[(ord(element)+size()-1) % size()];
+      return _elementAt((ord(element)+size()-1) % size());
+    }
+
+
+  /**
+   * Returns a box equal to a boxed wrapper of the specified int, for looking it up
+   * in this set without allocating. The box is reused by the next lookup, so it
+   * is only passed to methods that look up an element, and never added to the set.
+   */
+  private final RuntimeInt _probe (int element)
+    {
+      if (_intProbe == null)
+        return _intProbe = new RuntimeInt(element);
+
+      return _intProbe._setProbeValue(element);
     }
 
+  /**
+   * Returns a box equal to a boxed wrapper of the specified double, for looking it
+   * up in this set without allocating (see <tt>_probe(int)</tt>).
+   */
+  private final RuntimeReal _probe (double element)
+    {
+      if (_realProbe == null)
+        return _realProbe = new RuntimeReal(element);
+
+      return _realProbe._setProbeValue(element);
+    }
+
+  /**
+   * Returns the element at the specified position in this set.
+   */
+  private final Object _elementAt (int position)
+    {
+      if (_columns != null)
+        return _columns.tupleAt(_index(position));
+
+      return _persistent == null ? _slots[_index(position)]
+                                 : _persistent.elementAt(position);
+    }
+
+  /**
+   * Renumbers the elements from <tt>0</tt> in index order. A persistent index
+   * has no holes.
+   */
+  protected final void _compactIndices ()
+    {
+      if (_persistent != null)
+        return;
+
+      _unshare();
+
+      if (_columns != null)
+        {
+          _columns.compact();
+          return;
+        }
+
+      int count = 0;
+
+      for (int index = 0; index < _maxIndex; index++)
+        {
+          Object element = _slots[index];
+          if (element != null && _map.get(element) == index)
+            {
+              _map.put(element,count);
+              _slots[count++] = element;
+            }
+        }
+
+      Arrays.fill(_slots,count,_maxIndex,null);
+    }
 
   /**
-   * Returns a copy of this set.
+   * Returns a copy of this set, which shares its elements with this set until
+   * either is modified.
    */
   public final RuntimeSet copy ()
     {
-      return new ObjectSet(_map)._setHasHoles(_hasHoles)._setMaxIndex(_maxIndex);
+      return _copyIndices(new ObjectSet(this));
     }      
 
   /**
@@ -327,8 +640,14 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int getIndex (Object element)
     {
+      if (_persistent != null)
+        return _persistent.position(element);
+
+      if (_columns != null)
+        return _columns.find(element);
+
       int index = _map.get(element);
-      return index == _map.NOT_FOUND_VALUE && !_map.containsKey(element)
+      return index == ObjectToIntMap.NOT_FOUND_VALUE && !_map.containsKey(element)
            ? -1
            : index;
     }
@@ -339,7 +658,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int getIndex (int element)
     {
-      return getIndex(new RuntimeInt(element));
+      return getIndex(_probe(element));
     }
 
   /**
@@ -348,7 +667,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final int getIndex (double element)
     {
-      return getIndex(new RuntimeReal(element));
+      return getIndex(_probe(element));
     }
 
   /**
@@ -365,10 +684,51 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _add (Object element)
     {
+      if (_isShared && !contains(element))
+        _unshareForUpdate();
+
+      if (_persistent != null)
+        {
+          PersistentIndex persistent = _persistent.add(element);
+          if (persistent != _persistent)
+            {
+              _contentHash += _elementHash(element);
+              _array = null;
+              if (_sliceIndexCount > 0) _sliceAdded(element);
+            }
+          _persistent = persistent;
+          return this;
+        }
+
+      if (_columns != null)
+        {
+          if (!_columns.fits(element))
+            map();
+          else
+            {
+              if (_columns.find(element) == -1)
+                {
+                  _columns.put((RuntimeTuple)element,_newIndex());
+                  _contentHash += _elementHash(element);
+                  _array = null;
+                  if (_sliceIndexCount > 0) _sliceAdded(element);
+                }
+              return this;
+            }
+        }
+
       if (!_map.containsKey(element))
         {
-          _map.put(element,_maxIndex++);
+          int index = _newIndex();
+
+          if (index == _slots.length)
+            _slots = Arrays.copyOf(_slots,index+(index>>1)+1);
+
+          _slots[index] = element;
+          _map.put(element,index);
+          _contentHash += _elementHash(element);
           _array = null;
+          if (_sliceIndexCount > 0) _sliceAdded(element);
         }
 
       return this;
@@ -380,7 +740,10 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _add (int element)
     {
-      return _add(new RuntimeInt(element));
+      if (contains(_probe(element)))
+        return this;
+
+      return _add(Runtime.newInt(element));
     }
 
   /**
@@ -389,7 +752,10 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _add (double element)
     {
-      return _add(new RuntimeReal(element));
+      if (contains(_probe(element)))
+        return this;
+
+      return _add(Runtime.newReal(element));
     }
 
   /**
@@ -397,8 +763,49 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _remove (Object element)
     {
-      if (_hasHoles |= (_map.remove(element) >= 0))
-        _array = null;
+      if (_isShared && contains(element))
+        _unshareForUpdate();
+
+      if (_persistent != null)
+        {
+          PersistentIndex persistent = _persistent.remove(element);
+          if (persistent != _persistent)
+            {
+              _contentHash -= _elementHash(element);
+              _array = null;
+              if (_sliceIndexCount > 0) _sliceRemoved(element);
+            }
+          _persistent = persistent;
+          if (2 * _persistent.size() < PERSISTENT_THRESHOLD) map();
+          return this;
+        }
+
+      if (_columns != null)
+        {
+          int index = _columns.remove(element);
+
+          if (index >= 0)
+            {
+              _removeIndex(index);
+              _contentHash -= _elementHash(element);
+              if (_sliceIndexCount > 0) _sliceRemoved(element);
+              _array = null;
+            }
+
+          return this;
+        }
+
+      int index = _map.remove(element);
+
+      if (index >= 0)
+        {
+          _slots[index] = null;
+          _removeIndex(index);
+          _contentHash -= _elementHash(element);
+          if (_sliceIndexCount > 0) _sliceRemoved(element);
+          _array = null;
+        }
+
       return this;
     }
 
@@ -408,7 +815,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _remove (int element)
     {
-      return _remove(new RuntimeInt(element));
+      return _remove(_probe(element));
     }
 
   /**
@@ -417,7 +824,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _remove (double element)
     {
-      return _remove(new RuntimeReal(element));
+      return _remove(_probe(element));
     }
 
   /**
@@ -425,7 +832,10 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final boolean contains (Object element)
     {
-      return _map.containsKey(element);
+      if (_columns != null)
+        return _columns.find(element) != -1;
+
+      return _persistent == null ? _map.containsKey(element) : _persistent.contains(element);
     }
 
   /**
@@ -434,7 +844,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final boolean contains (int element)
     {
-      return _map.containsKey(new RuntimeInt(element));
+      return contains(_probe(element));
     }
 
   /**
@@ -443,7 +853,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final boolean contains (double element)
     {
-      return _map.containsKey(new RuntimeReal(element));
+      return contains(_probe(element));
     }
 
   /**
@@ -462,6 +872,17 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   protected final RuntimeSet _union (RuntimeSet set)
     {
+      if (set instanceof ObjectSet)
+        {
+          Object[] others = ((ObjectSet)set)._elements();
+          boolean[] members = SetAlgebra.members(others,this);
+
+          for (int i = 0; i < others.length; i++)
+            if (!members[i]) _add(others[i]);
+
+          return this;
+        }
+
       for (Iterator i = set.iterator(true); i.hasNext();)
         _add(i.next());
 
@@ -473,6 +894,12 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final RuntimeSet _intersection (RuntimeSet set)
     {
+      if (set instanceof ObjectSet)
+        {
+          Object[] elements = _elements();
+          return _keep(elements,SetAlgebra.members(elements,set),true,null,null);
+        }
+
       for (Iterator i = iterator(false); i.hasNext();)
         {
           Object element = i.next();
@@ -488,6 +915,12 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final RuntimeSet _minus (RuntimeSet set) 
     {
+      if (set instanceof ObjectSet)
+        {
+          Object[] elements = _elements();
+          return _keep(elements,SetAlgebra.members(elements,set),false,null,null);
+        }
+
       for (Iterator i = set.iterator(false); i.hasNext();)
         _remove(i.next());
 
@@ -499,6 +932,15 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final RuntimeSet _exclusion (RuntimeSet set)
     {
+      if (set instanceof ObjectSet)
+        {
+          Object[] elements = _elements();
+          Object[] others = ((ObjectSet)set)._elements();
+
+          return _keep(elements,SetAlgebra.members(elements,set),false,
+                       others,SetAlgebra.members(others,this));
+        }
+
       for (Iterator i = set.iterator(true); i.hasNext();)
         {
           Object element = i.next();
@@ -511,6 +953,113 @@ public class ObjectSet extends RuntimeSet implements Sliceable
       return this;
     }
 
+  private static final Object[] _NO_ELEMENTS = new Object[0];
+
+  /**
+   * Returns the elements of this set in index order. The returned array must not
+   * be modified. The tuples of columns are built afresh rather than cached in the
+   * array of this set, so that they are dropped once used.
+   */
+  private final Object[] _elements ()
+    {
+      if (isEmpty())
+        return _NO_ELEMENTS;
+
+      return _columns != null && _array == null ? _columnElements() : array();
+    }
+
+  /**
+   * Makes this set contain, in this order, those of the specified elements whose
+   * membership flag is equal to the specified boolean, followed by those of the
+   * specified others (if any) whose membership flag is <tt>false</tt>. The elements
+   * are this set's in index order. This set is left untouched when nothing changes,
+   * and otherwise rebuilt in one pass, without holes (as columns if it was held as
+   * columns and they still fit), except for a persistent index, which is updated
+   * element by element so as to keep sharing its structure. Only operands that are object
+   * sets are combined this way, so that the flags computed by each operand's
+   * <tt>contains</tt> agree with the element-wise operations.
+   */
+  private final RuntimeSet _keep (Object[] elements, boolean[] members, boolean keep,
+                                  Object[] others, boolean[] otherMembers)
+    {
+      int added = others == null ? 0 : SetAlgebra.countMissing(otherMembers);
+      Object[] result = new Object[elements.length + added];
+      int count = 0;
+
+      for (int i = 0; i < elements.length; i++)
+        if (members[i] == keep) result[count++] = elements[i];
+
+      if (count == elements.length && added == 0)
+        return this;
+
+      if (_persistent != null)
+        {
+          for (int i = 0; i < elements.length; i++)
+            if (members[i] != keep)
+              {
+                _persistent = _persistent.remove(elements[i]);
+                _contentHash -= _elementHash(elements[i]);
+              }
+
+          for (int i = 0; added > 0 && i < others.length; i++)
+            if (!otherMembers[i])
+              {
+                _persistent = _persistent.add(others[i]);
+                _contentHash += _elementHash(others[i]);
+              }
+
+          _array = null;
+          _clearSliceIndexes();
+          if (2 * _persistent.size() < PERSISTENT_THRESHOLD) map();
+          return this;
+        }
+
+      for (int i = 0; added > 0 && i < others.length; i++)
+        if (!otherMembers[i]) result[count++] = others[i];
+
+      _clearIndices();
+      _array = null;
+      _clearSliceIndexes();
+      _contentHash = 0;
+
+      if (_columns != null)
+        {
+          TupleColumns columns = new TupleColumns();
+
+          for (int i = 0; columns != null && i < count; i++)
+            if (columns.fits(result[i]))
+              columns.put((RuntimeTuple)result[i],i);
+            else
+              columns = null;
+
+          if (columns != null)
+            {
+              _columns = columns;
+              _isShared = false;
+              _maxIndex = count;
+
+              for (int i = 0; i < count; i++)
+                _contentHash += _elementHash(result[i]);
+
+              return this;
+            }
+
+          _columns = null;
+        }
+
+      _map = new ObjectToIntMap();
+      _slots = result;
+      _isShared = false;
+
+      for (int i = 0; i < count; i++)
+        {
+          _map.put(result[i],_newIndex());
+          _contentHash += _elementHash(result[i]);
+        }
+
+      return this;
+    }
+
   /**
    * Returns an iterator for this set such that whenever the specified boolean is
    * <tt>true</tt>, iteration will be respecting the index order of the elements;
@@ -520,7 +1069,10 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final Iterator iterator (boolean ordered)
     {
-      return ordered ? orderedIterator() : _map.keys();
+      if (_columns != null)
+        return orderedIterator();
+
+      return ordered || _persistent != null ? orderedIterator() : _map.keys();
     }
 
   /**
@@ -577,10 +1129,14 @@ public class ObjectSet extends RuntimeSet implements Sliceable
 
   /**
    * Returns an iterator of ints over the elements of this set in the order of
-   * its indices.
+   * its indices. The tuples of columns are built as they are iterated, unless
+   * they already were for the array of this set.
    */
   public final Iterator orderedIterator ()
     {
+      if (_columns != null && _array == null)
+        return isEmpty() ? Misc.EMPTY_ITERATOR : _columns.iterator();
+
       return new OrderedIterator(array());
     }
 
@@ -590,7 +1146,7 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final Iterator backwardIterator ()
     {
-      return new BackwardIterator(array());
+      return new BackwardIterator(_elements());
     }
 
   /**
@@ -616,33 +1172,111 @@ public class ObjectSet extends RuntimeSet implements Sliceable
    */
   public final IntIterator indexIterator ()
     {
+      if (_persistent != null)
+        return new IntRange(0,size()-1).intIterator(true);
+
+      if (_columns != null)
+        return _columns.liveSlots();
+
       return _map.values();
     }
 
-  private int[] _slice;
-  private HashMap _sliceMap;
+  /**
+   * The slice indexes of this set, from least to most recently used.
+   */
+  private SliceIndex[] _sliceIndexes;
+  private int _sliceIndexCount;
+
+  /**
+   * The slice index selected by the latest call to <tt>slice</tt>.
+   */
+  private SliceIndex _slice;
 
+  /**
+   * Selects the index of this set's tuples by the specified slice, building it
+   * unless it is among the ones kept. Building an index may evict the least
+   * recently used ones (see <tt>MAX_SLICE_INDEXES</tt>).
+   */
   public final void slice (int[] slice)
     {
-      if (_slice == null || !Misc.equal(_slice,slice))
-        _slice = slice;
-      else
-        return;
+      if (_slice != null && (_slice.spec == slice || Misc.equal(_slice.spec,slice)))
+        {
+          _useSliceIndex(_slice);
+          return;
+        }
 
-      if (_sliceMap == null)
-        _sliceMap = new HashMap();
-      else
-        _sliceMap.clear();
+      for (int i = _sliceIndexCount; i-->0;)
+        if (Misc.equal(_sliceIndexes[i].spec,slice))
+          {
+            _useSliceIndex(_sliceIndexes[i]);
+            return;
+          }
+
+      if (_sliceIndexes == null)
+        _sliceIndexes = new SliceIndex[MAX_SLICE_INDEXES];
+
+      int count = _sliceIndexCount;
+      while (count > 0
+             && (count == MAX_SLICE_INDEXES || (long)(count + 1) * size() > SLICE_INDEX_BUDGET))
+        count--;
 
+      int evicted = _sliceIndexCount - count;
+      System.arraycopy(_sliceIndexes,evicted,_sliceIndexes,0,count);
+      Arrays.fill(_sliceIndexes,count,_sliceIndexCount,null);
+
+      _slice = new SliceIndex(slice,_columns != null);
       for (Iterator i = orderedIterator(); i.hasNext();)
-        {
-          RuntimeTuple tuple = (RuntimeTuple)i.next();
-          Object slicer = tuple.getSlicer(slice);
-          ObjectSet set = (ObjectSet)_sliceMap.get(slicer);
-          if (set == null)
-            _sliceMap.put(slicer,set = new ObjectSet());
-          set.add(tuple);
-        }
+        _slice.add((RuntimeTuple)i.next());
+
+      _sliceIndexes[count] = _slice;
+      _sliceIndexCount = count + 1;
+    }
+
+  /**
+   * Selects the specified slice index and makes it the most recently used one, if
+   * it is among the ones this set keeps; otherwise, returns <tt>false</tt>.
+   */
+  private final boolean _useSliceIndex (SliceIndex index)
+    {
+      for (int i = _sliceIndexCount; i-->0;)
+        if (_sliceIndexes[i] == index)
+          {
+            System.arraycopy(_sliceIndexes,i+1,_sliceIndexes,i,_sliceIndexCount-i-1);
+            _sliceIndexes[_sliceIndexCount-1] = _slice = index;
+            return true;
+          }
+
+      return false;
+    }
+
+  /**
+   * Records the addition of the specified element to this set in its slice indexes.
+   */
+  private final void _sliceAdded (Object element)
+    {
+      for (int i = _sliceIndexCount; i-->0;)
+        _sliceIndexes[i].add((RuntimeTuple)element);
+    }
+
+  /**
+   * Records the removal of the specified element from this set in its slice indexes.
+   */
+  private final void _sliceRemoved (Object element)
+    {
+      for (int i = _sliceIndexCount; i-->0;)
+        _sliceIndexes[i].remove((RuntimeTuple)element);
+    }
+
+  /**
+   * Drops the slice indexes of this set.
+   */
+  private final void _clearSliceIndexes ()
+    {
+      if (_sliceIndexCount > 0)
+        Arrays.fill(_sliceIndexes,0,_sliceIndexCount,null);
+
+      _sliceIndexCount = 0;
+      _slice = null;
     }
 
   public final Iterator sliceIterator (int[][] slices, Object[] slicers)
@@ -660,7 +1294,82 @@ public class ObjectSet extends RuntimeSet implements Sliceable
 
   public final ObjectSet getSlice (Object slicer)
     {
-      return (ObjectSet)_sliceMap.get(slicer);
+      return _slice.get(slicer);
+    }
+
+  /**
+   * Returns the slice of this set for a boxed wrapper of the specified int, as
+   * per the latest call to <tt>slice</tt>, without boxing it when the slicers are
+   * ints.
+   */
+  public final ObjectSet getSlice (int slicer)
+    {
+      return _slice.get(slicer);
+    }
+
+  /**
+   * Returns the slice of this set for a boxed wrapper of the specified double, as
+   * per the latest call to <tt>slice</tt>, without boxing it when the slicers are
+   * reals.
+   */
+  public final ObjectSet getSlice (double slicer)
+    {
+      return _slice.get(slicer);
+    }
+
+  /**
+   * Returns an iterator over the equijoin of this set of tuples with the specified
+   * one, on the specified slice of this set's tuples and the specified slice of the
+   * other's. Each result is a tuple of two object components: a tuple of this set
+   * and a tuple of the other one having the same slicer. Results come in the order
+   * of this set's tuples, and then of the other's. The other set's slice index
+   * serves as the hash table, so that it is built once and kept up to date along
+   * with the set, and the results are computed as they are iterated; the slice
+   * selected in the other set is left unchanged. Neither set may be modified
+   * during the iteration.
+   */
+  public final Iterator joinIterator (int[] slice, ObjectSet other, int[] otherSlice)
+    {
+      if (isEmpty() || other.isEmpty())
+        return Misc.EMPTY_ITERATOR;
+
+      return new JoinIterator(orderedIterator(),slice,other._sliceIndex(otherSlice),false);
+    }
+
+  /**
+   * Returns an iterator over the tuples of this set that have a matching tuple in
+   * the specified set, as per the specified slices (see <tt>joinIterator</tt>), in
+   * the order of this set.
+   */
+  public final Iterator semiJoinIterator (int[] slice, ObjectSet other, int[] otherSlice)
+    {
+      if (isEmpty() || other.isEmpty())
+        return Misc.EMPTY_ITERATOR;
+
+      return new JoinIterator(orderedIterator(),slice,other._sliceIndex(otherSlice),true);
+    }
+
+  /**
+   * Returns the index of this set's tuples by the specified slice, leaving the
+   * index selected by <tt>slice</tt> as it was. Should building the index evict
+   * the selected one, the latter is rebuilt.
+   */
+  private final SliceIndex _sliceIndex (int[] slice)
+    {
+      SliceIndex selected = _slice;
+
+      slice(slice);
+      SliceIndex index = _slice;
+
+      if (selected == null || selected == index)
+        return index;
+
+      if (_useSliceIndex(selected))
+        return index;
+
+      _slice = null;
+      slice(selected.spec);
+      return index;
     }
 
   /**
@@ -677,7 +1386,8 @@ public class ObjectSet extends RuntimeSet implements Sliceable
 
       IndexableContainer other = (IndexableContainer)object;
 
-      if (size() != other.size())
+      if (size() != other.size()
+          || other instanceof RuntimeSet && hashCode() != other.hashCode())
         return false;
 
       for (Iterator i = iterator(false); i.hasNext();)
@@ -704,9 +1414,34 @@ public class ObjectSet extends RuntimeSet implements Sliceable
 
       Indexable other = (Indexable)object;
 
-      if (size() != other.size())
+      if (size() != other.size()
+          || other instanceof RuntimeSet && hashCode() != other.hashCode())
         return false;
 
+      if (_persistent != null)
+        {
+          Object[] elements = _elements();
+          for (int i = 0; i < elements.length; i++)
+            {
+              int index = other.getIndex(elements[i]);
+              if (index == -1) return false;
+              permutation[index] = i;
+            }
+          return true;
+        }
+
+      if (_columns != null)
+        {
+          for (IntIterator i = _columns.liveSlots(); i.hasNext();)
+            {
+              int slot = i.next();
+              int index = other.getIndex(_columns.tupleAt(slot));
+              if (index == -1) return false;
+              permutation[index] = slot;
+            }
+          return true;
+        }
+
      for (Iterator i = _map.iterator(); i.hasNext();)
        {
          ObjectToIntMap.Entry entry = (ObjectToIntMap.Entry)i.next();
@@ -730,6 +1465,281 @@ public class ObjectSet extends RuntimeSet implements Sliceable
       return buf.append("}").toString();
     }
 
+  /**
+   * An index of the tuples of a set by the slicer each has for a slice: it maps
+   * each slicer to the set of the tuples having it, in the order of their set.
+   * The sets of the index of a set held as columns are held as columns as well.
+   * Int and real slicers are not boxed: they are the keys of a primitive map to
+   * the slot of their set in an array, where the last set takes the place of one
+   * that becomes empty. Other slicers are the keys of a hash map to their set.
+   */
+  private static class SliceIndex
+    {
+      final int[] spec;
+      final boolean isColumnar;
+
+      /**
+       * The sort of the slicers.
+       */
+      private final int _sort;
+
+      private HashMap _objectSets;
+
+      private IntToIntMap _intSlots;
+      private DoubleToIntMap _realSlots;
+      private int[] _intKeys;
+      private double[] _realKeys;
+      private ObjectSet[] _sets;
+      private int _count;
+
+      SliceIndex (int[] spec, boolean isColumnar)
+        {
+          this.spec = spec;
+          this.isColumnar = isColumnar;
+          _sort = spec[spec.length-1];
+
+          switch (_sort)
+            {
+            case Type.INT_SORT:
+              _intSlots = new IntToIntMap();
+              _intKeys = new int[8];
+              _sets = new ObjectSet[8];
+              return;
+            case Type.REAL_SORT:
+              _realSlots = new DoubleToIntMap();
+              _realKeys = new double[8];
+              _sets = new ObjectSet[8];
+              return;
+            }
+
+          _objectSets = new HashMap();
+        }
+
+      /**
+       * Returns the set of the tuples having the specified slicer, or <tt>null</tt>
+       * if there is none.
+       */
+      final ObjectSet get (Object slicer)
+        {
+          switch (_sort)
+            {
+            case Type.INT_SORT:
+              return slicer instanceof RuntimeInt ? get(((RuntimeInt)slicer).value()) : null;
+            case Type.REAL_SORT:
+              return slicer instanceof RuntimeReal ? get(((RuntimeReal)slicer).value()) : null;
+            }
+
+          return (ObjectSet)_objectSets.get(slicer);
+        }
+
+      /**
+       * Returns the set of the tuples having a boxed wrapper of the specified int
+       * as slicer, or <tt>null</tt> if there is none.
+       */
+      final ObjectSet get (int slicer)
+        {
+          if (_sort != Type.INT_SORT)
+            return get(Runtime.newInt(slicer));
+
+          int slot = _intSlots.get(slicer);
+          return slot == IntToIntMap.NOT_FOUND_VALUE && !_intSlots.containsKey(slicer)
+               ? null
+               : _sets[slot];
+        }
+
+      /**
+       * Returns the set of the tuples having a boxed wrapper of the specified double
+       * as slicer, or <tt>null</tt> if there is none.
+       */
+      final ObjectSet get (double slicer)
+        {
+          if (_sort != Type.REAL_SORT)
+            return get(Runtime.newReal(slicer));
+
+          int slot = _realSlots.get(slicer);
+          return slot == DoubleToIntMap.NOT_FOUND_VALUE && !_realSlots.containsKey(slicer)
+               ? null
+               : _sets[slot];
+        }
+
+      /**
+       * Returns the set of the tuples having the slicer that the specified tuple has
+       * for the specified slice, or <tt>null</tt> if there is none.
+       */
+      final ObjectSet get (RuntimeTuple tuple, int[] slice)
+        {
+          switch (slice[slice.length-1])
+            {
+            case Type.INT_SORT:
+              return get(tuple.getIntSlicer(slice));
+            case Type.REAL_SORT:
+              return get(tuple.getRealSlicer(slice));
+            }
+
+          return get(tuple.getSlicer(slice));
+        }
+
+      final void add (RuntimeTuple tuple)
+        {
+          ObjectSet set = get(tuple,spec);
+          if (set == null)
+            {
+              set = new ObjectSet();
+              if (isColumnar) set.makeColumnar();
+              _put(tuple,set);
+            }
+          set._add(tuple);
+        }
+
+      final void remove (RuntimeTuple tuple)
+        {
+          ObjectSet set = get(tuple,spec);
+          if (set == null)
+            return;
+
+          set._remove(tuple);
+          if (set.isEmpty())
+            _drop(tuple);
+        }
+
+      /**
+       * Enters the specified set as that of the slicer of the specified tuple.
+       */
+      private final void _put (RuntimeTuple tuple, ObjectSet set)
+        {
+          if (_sets != null && _count == _sets.length)
+            {
+              int capacity = _count + (_count >> 1) + 1;
+              _sets = Arrays.copyOf(_sets,capacity);
+              if (_intKeys != null) _intKeys = Arrays.copyOf(_intKeys,capacity);
+              if (_realKeys != null) _realKeys = Arrays.copyOf(_realKeys,capacity);
+            }
+
+          switch (_sort)
+            {
+            case Type.INT_SORT:
+              _intKeys[_count] = tuple.getIntSlicer(spec);
+              _intSlots.put(_intKeys[_count],_count);
+              _sets[_count++] = set;
+              return;
+            case Type.REAL_SORT:
+              _realKeys[_count] = tuple.getRealSlicer(spec);
+              _realSlots.put(_realKeys[_count],_count);
+              _sets[_count++] = set;
+              return;
+            }
+
+          _objectSets.put(tuple.getSlicer(spec),set);
+        }
+
+      /**
+       * Removes the set of the slicer of the specified tuple.
+       */
+      private final void _drop (RuntimeTuple tuple)
+        {
+          switch (_sort)
+            {
+            case Type.INT_SORT:
+              {
+                int slot = _intSlots.remove(tuple.getIntSlicer(spec));
+                if (slot != --_count)
+                  {
+                    _intKeys[slot] = _intKeys[_count];
+                    _intSlots.put(_intKeys[slot],slot);
+                    _sets[slot] = _sets[_count];
+                  }
+                _sets[_count] = null;
+                return;
+              }
+            case Type.REAL_SORT:
+              {
+                int slot = _realSlots.remove(tuple.getRealSlicer(spec));
+                if (slot != --_count)
+                  {
+                    _realKeys[slot] = _realKeys[_count];
+                    _realSlots.put(_realKeys[slot],slot);
+                    _sets[slot] = _sets[_count];
+                  }
+                _sets[_count] = null;
+                return;
+              }
+            }
+
+          _objectSets.remove(tuple.getSlicer(spec));
+        }
+    }
+
+  /**
+   * This is an iterator over the (semi-)join of an iteration of tuples with the tuples
+   * of a slice index. For each outer tuple, the matching inner tuples are those of
+   * the index's set for the outer tuple's slicer.
+   */
+  private static class JoinIterator implements Iterator
+    {
+      private final Iterator _outer;
+      private final int[] _slice;
+      private final SliceIndex _index;
+      private final boolean _isSemiJoin;
+
+      private RuntimeTuple _tuple;
+      private Iterator _matches;
+
+      JoinIterator (Iterator outer, int[] slice, SliceIndex index, boolean isSemiJoin)
+        {
+          _outer = outer;
+          _slice = slice;
+          _index = index;
+          _isSemiJoin = isSemiJoin;
+          _advance();
+        }
+
+      /**
+       * Moves on to the next outer tuple that has matches, if any.
+       */
+      private final void _advance ()
+        {
+          _matches = null;
+
+          while (_outer.hasNext())
+            {
+              _tuple = (RuntimeTuple)_outer.next();
+              ObjectSet matches = _index.get(_tuple,_slice);
+              if (matches != null)
+                {
+                  _matches = matches.orderedIterator();
+                  return;
+                }
+            }
+        }
+
+      public final boolean hasNext ()
+        {
+          return _matches != null;
+        }
+
+      public final Object next ()
+        {
+          if (_matches == null)
+            throw new java.util.NoSuchElementException();
+
+          if (_isSemiJoin)
+            {
+              RuntimeTuple tuple = _tuple;
+              _advance();
+              return tuple;
+            }
+
+          RuntimeTuple pair = new RuntimeTuple(null,null,new Object[] { _tuple, _matches.next() });
+          if (!_matches.hasNext()) _advance();
+          return pair;
+        }
+
+      public final void remove ()
+        {
+          throw new UnsupportedOperationException();
+        }
+    }
+
   private static class UnboxedIntIterator implements IntIterator
     {
       private Iterator _iterator;
@@ -0,0 +1,154 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 15:06:27 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import java.util.Arrays;
+
+/**
+ * An <tt>OrderIndex</tt> keeps the order statistics of the indices of a
+ * <a href="RuntimeSet.html"><tt>RuntimeSet</tt></a> that has holes. Each
+ * index ever handed out is a <i>slot</i>, either live (its element is still
+ * in the set) or dead (its element was removed). The position of a live
+ * slot is the number of live slots before it, which is the index that the
+ * element would get if the indices were reset. This is a Fenwick tree
+ * over the slots, so that appending a slot, killing one, and translating
+ * between slots and positions all take <tt>O(log n)</tt> time.
+ */
+public class OrderIndex
+{
+  /**
+   * The Fenwick tree: <tt>_tree[i]</tt> is the number of live slots among
+   * slots <tt>i-(i&amp;-i)</tt> to <tt>i-1</tt>; <tt>_tree[0]</tt> is unused.
+   */
+  private int[] _tree;
+
+  /**
+   * The number of slots.
+   */
+  private int _slots;
+
+  /**
+   * The number of live slots.
+   */
+  private int _size;
+
+  /**
+   * Constructs an order index with the specified number of slots, all live.
+   */
+  public OrderIndex (int slots)
+    {
+      _tree = new int[Math.max(slots,8)+1];
+      _slots = _size = slots;
+
+      for (int i = 1; i <= slots; i++)
+        {
+          _tree[i]++;
+          int parent = i + (i & -i);
+          if (parent <= slots) _tree[parent] += _tree[i];
+        }
+    }
+
+  /**
+   * Constructs a copy of the specified order index.
+   */
+  private OrderIndex (OrderIndex index)
+    {
+      _tree = index._tree.clone();
+      _slots = index._slots;
+      _size = index._size;
+    }
+
+  /**
+   * Returns a copy of this order index.
+   */
+  public final OrderIndex copy ()
+    {
+      return new OrderIndex(this);
+    }
+
+  /**
+   * Returns the number of slots.
+   */
+  public final int slots ()
+    {
+      return _slots;
+    }
+
+  /**
+   * Returns the number of live slots.
+   */
+  public final int size ()
+    {
+      return _size;
+    }
+
+  /**
+   * Adds a live slot after all others, and returns it.
+   */
+  public final int append ()
+    {
+      int i = ++_slots;
+
+      if (i == _tree.length)
+        _tree = Arrays.copyOf(_tree,_tree.length << 1);
+
+      int count = 1;
+      for (int child = i-1, stop = i - (i & -i); child > stop; child -= child & -child)
+        count += _tree[child];
+
+      _tree[i] = count;
+      _size++;
+      return i-1;
+    }
+
+  /**
+   * Makes the specified live slot dead.
+   */
+  public final void remove (int slot)
+    {
+      for (int i = slot+1; i <= _slots; i += i & -i)
+        _tree[i]--;
+
+      _size--;
+    }
+
+  /**
+   * Returns the position of the specified slot, <i>i.e.</i>, the number of live
+   * slots before it.
+   */
+  public final int rank (int slot)
+    {
+      int rank = 0;
+
+      for (int i = slot; i > 0; i -= i & -i)
+        rank += _tree[i];
+
+      return rank;
+    }
+
+  /**
+   * Returns the live slot at the specified position, which must be less than
+   * <tt>size()</tt>.
+   */
+  public final int select (int position)
+    {
+      int slot = 0;
+
+      for (int step = Integer.highestOneBit(_slots); step > 0; step >>= 1)
+        if (slot + step <= _slots && _tree[slot+step] <= position)
+          {
+            slot += step;
+            position -= _tree[slot];
+          }
+
+      return slot;
+    }
+}
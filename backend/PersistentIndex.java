@@ -0,0 +1,628 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 23:12:40 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+/**
+ * A <tt>PersistentIndex</tt> is an immutable indexed set of objects: it maps
+ * each element to its position in insertion order, and back. Adding or removing
+ * an element returns a new index that shares all but <tt>O(log n)</tt> of its
+ * nodes with the old one, which is left unchanged. Copying an index is thus
+ * just sharing it, and sets built from one another by a few updates share most
+ * of their structure.
+ *
+ * <p>
+ *
+ * It consists of two tries:
+ * <ul>
+ * <li>a hash array mapped trie from each element to its <i>slot</i> (the
+ *     number of elements added before it), 32-way on 5 bits of hash per level;
+ * <li>a 32-way trie of slots, each leaf holding 32 elements with a bit mask
+ *     of the live ones, and each branch the number of live slots under each
+ *     child. The position of an element is the number of live slots before
+ *     its own, computed on the way down, and the element at a position is
+ *     found by going down along those counts.
+ * </ul>
+ * Removing an element kills its slot. Once dead slots outnumber the elements
+ * by more than <tt>MIN_DEAD_SLOTS</tt>, the next removal rebuilds the index.
+ */
+public class PersistentIndex
+{
+  /**
+   * The empty index.
+   */
+  public static final PersistentIndex EMPTY = new PersistentIndex(null,null,0,0,0);
+
+  /**
+   * A removal rebuilds the index once dead slots exceed both this number and
+   * the number of elements.
+   */
+  public static final int MIN_DEAD_SLOTS = 64;
+
+  private static final int _BITS = 5;
+  private static final int _WIDTH = 1 << _BITS;
+  private static final int _MASK = _WIDTH - 1;
+
+  /**
+   * The root of the element-to-slot trie: a <tt>KeyNode</tt>, or <tt>null</tt>.
+   */
+  private final KeyNode _keys;
+
+  /**
+   * The root of the slot trie: a <tt>Leaf</tt>, a <tt>Branch</tt>, or <tt>null</tt>.
+   */
+  private final Object _slots;
+
+  /**
+   * The number of slots covered by a child of the root of the slot trie, as a
+   * shift: <tt>0</tt> when the root is a leaf.
+   */
+  private final int _shift;
+
+  /**
+   * The number of slots, live or dead.
+   */
+  private final int _slotCount;
+
+  /**
+   * The number of elements (<i>i.e.</i>, of live slots).
+   */
+  private final int _size;
+
+  private PersistentIndex (KeyNode keys, Object slots, int shift, int slotCount, int size)
+    {
+      _keys = keys;
+      _slots = slots;
+      _shift = shift;
+      _slotCount = slotCount;
+      _size = size;
+    }
+
+  /**
+   * Returns an index of the specified distinct elements, in this order. Both
+   * tries are built bottom up, in linear time and without copying any node.
+   */
+  public static final PersistentIndex of (Object[] elements, int count)
+    {
+      if (count == 0)
+        return EMPTY;
+
+      int[] hashes = new int[count];
+      int[] slots = new int[count];
+      for (int i = 0; i < count; i++)
+        {
+          hashes[i] = _hash(elements[i]);
+          slots[i] = i;
+        }
+
+      KeyNode keys = _build(elements,hashes,slots,new int[count],0,count,0);
+
+      Object[] nodes = new Object[(count + _MASK) >>> _BITS];
+      for (int i = 0; i < nodes.length; i++)
+        {
+          int start = i << _BITS;
+          int length = Math.min(_WIDTH,count-start);
+          Object[] leaf = new Object[_WIDTH];
+          System.arraycopy(elements,start,leaf,0,length);
+          nodes[i] = new Leaf(leaf,length == _WIDTH ? -1 : (1 << length) - 1);
+        }
+
+      int shift = 0;
+      for (; nodes.length > 1; shift += _BITS)
+        {
+          int width = _WIDTH << shift;
+          Object[] branches = new Object[(nodes.length + _MASK) >>> _BITS];
+
+          for (int i = 0; i < branches.length; i++)
+            {
+              Branch branch = new Branch(new Object[_WIDTH],new int[_WIDTH]);
+              for (int j = 0, child = i << _BITS; j < _WIDTH && child < nodes.length; j++, child++)
+                {
+                  branch.children[j] = nodes[child];
+                  branch.counts[j] = Math.min(width,count-child*width);
+                }
+              branches[i] = branch;
+            }
+
+          nodes = branches;
+        }
+
+      return new PersistentIndex(keys,nodes[0],shift,count,count);
+    }
+
+  /**
+   * Returns the number of elements of this index.
+   */
+  public final int size ()
+    {
+      return _size;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the specified element belongs to this index.
+   */
+  public final boolean contains (Object element)
+    {
+      return _slot(element) >= 0;
+    }
+
+  /**
+   * Returns the position of the specified element, or <tt>-1</tt> if it does not
+   * belong to this index.
+   */
+  public final int position (Object element)
+    {
+      int slot = _slot(element);
+      return slot < 0 ? -1 : _rank(slot);
+    }
+
+  /**
+   * Returns the element at the specified position, which must be less than
+   * <tt>size()</tt>.
+   */
+  public final Object elementAt (int position)
+    {
+      Object node = _slots;
+
+      for (int shift = _shift; shift > 0; shift -= _BITS)
+        {
+          Branch branch = (Branch)node;
+          int child = 0;
+          while (position >= branch.counts[child])
+            position -= branch.counts[child++];
+          node = branch.children[child];
+        }
+
+      Leaf leaf = (Leaf)node;
+      int live = leaf.live;
+      for (; position > 0; position--)
+        live &= live - 1;
+
+      return leaf.elements[Integer.numberOfTrailingZeros(live)];
+    }
+
+  /**
+   * Returns an index with the elements of this one followed by the specified
+   * element, or this index if it already contains it.
+   */
+  public final PersistentIndex add (Object element)
+    {
+      return contains(element) ? this : _append(element);
+    }
+
+  /**
+   * Returns an index with the elements of this one but the specified element, in
+   * the same order, or this index if it does not contain it.
+   */
+  public final PersistentIndex remove (Object element)
+    {
+      int hash = _hash(element);
+      int slot = _find(_keys,element,hash,0);
+
+      if (slot < 0)
+        return this;
+
+      if (_size == 1)
+        return EMPTY;
+
+      PersistentIndex index = new PersistentIndex(_dissoc(_keys,element,hash,0),
+                                                  _kill(_slots,_shift,slot),
+                                                  _shift,_slotCount,_size-1);
+
+      int dead = index._slotCount - index._size;
+      if (dead > MIN_DEAD_SLOTS && dead > index._size)
+        return of(index.toArray(),index._size);
+
+      return index;
+    }
+
+  /**
+   * Returns the elements of this index in order.
+   */
+  public final Object[] toArray ()
+    {
+      Object[] array = new Object[_size];
+      if (_slots != null) _collect(_slots,_shift,array,0);
+      return array;
+    }
+
+  private final PersistentIndex _append (Object element)
+    {
+      int slot = _slotCount;
+      KeyNode keys = _assoc(_keys,element,_hash(element),0,slot);
+
+      if (_slots == null)
+        return new PersistentIndex(keys,_leaf(null,slot,element),0,1,1);
+
+      if (slot == _WIDTH << _shift)
+        {
+          Branch root = new Branch(new Object[_WIDTH],new int[_WIDTH]);
+          root.children[0] = _slots;
+          root.counts[0] = _size;
+          root.children[1] = _path(_shift,slot,element);
+          root.counts[1] = 1;
+          return new PersistentIndex(keys,root,_shift+_BITS,slot+1,_size+1);
+        }
+
+      return new PersistentIndex(keys,_push(_slots,_shift,slot,element),_shift,slot+1,_size+1);
+    }
+
+  private final int _slot (Object element)
+    {
+      return _find(_keys,element,_hash(element),0);
+    }
+
+  private final int _rank (int slot)
+    {
+      int rank = 0;
+      Object node = _slots;
+
+      for (int shift = _shift; shift > 0; shift -= _BITS)
+        {
+          Branch branch = (Branch)node;
+          int child = (slot >>> shift) & _MASK;
+          for (int i = 0; i < child; i++)
+            rank += branch.counts[i];
+          node = branch.children[child];
+        }
+
+      return rank + Integer.bitCount(((Leaf)node).live & ((1 << (slot & _MASK)) - 1));
+    }
+
+  private static final int _hash (Object element)
+    {
+      int hash = element.hashCode();
+      return hash ^ (hash >>> 16);
+    }
+
+  /* ************************************************************************ */
+  /*                            The slot trie                                 */
+  /* ************************************************************************ */
+
+  /**
+   * A leaf of the slot trie: the elements of 32 consecutive slots, and the mask of
+   * those that are live.
+   */
+  private static final class Leaf
+    {
+      final Object[] elements;
+      final int live;
+
+      Leaf (Object[] elements, int live)
+        {
+          this.elements = elements;
+          this.live = live;
+        }
+    }
+
+  /**
+   * A branch of the slot trie, with the number of live slots under each child.
+   */
+  private static final class Branch
+    {
+      final Object[] children;
+      final int[] counts;
+
+      Branch (Object[] children, int[] counts)
+        {
+          this.children = children;
+          this.counts = counts;
+        }
+    }
+
+  private static final Leaf _leaf (Leaf leaf, int slot, Object element)
+    {
+      Object[] elements = leaf == null ? new Object[_WIDTH] : leaf.elements.clone();
+      elements[slot & _MASK] = element;
+      return new Leaf(elements,(leaf == null ? 0 : leaf.live) | 1 << (slot & _MASK));
+    }
+
+  /**
+   * Returns a new path down to a leaf holding only the specified element.
+   */
+  private static final Object _path (int shift, int slot, Object element)
+    {
+      if (shift == 0)
+        return _leaf(null,slot,element);
+
+      Branch branch = new Branch(new Object[_WIDTH],new int[_WIDTH]);
+      branch.children[(slot >>> shift) & _MASK] = _path(shift-_BITS,slot,element);
+      branch.counts[(slot >>> shift) & _MASK] = 1;
+      return branch;
+    }
+
+  /**
+   * Returns a copy of the specified node with the specified element in the
+   * specified new slot, which the node covers.
+   */
+  private static final Object _push (Object node, int shift, int slot, Object element)
+    {
+      if (shift == 0)
+        return _leaf((Leaf)node,slot,element);
+
+      Branch branch = (Branch)node;
+      int child = (slot >>> shift) & _MASK;
+      Object[] children = branch.children.clone();
+      int[] counts = branch.counts.clone();
+
+      children[child] = children[child] == null
+                      ? _path(shift-_BITS,slot,element)
+                      : _push(children[child],shift-_BITS,slot,element);
+      counts[child]++;
+      return new Branch(children,counts);
+    }
+
+  /**
+   * Returns a copy of the specified node where the specified slot is dead.
+   */
+  private static final Object _kill (Object node, int shift, int slot)
+    {
+      if (shift == 0)
+        {
+          Leaf leaf = (Leaf)node;
+          Object[] elements = leaf.elements.clone();
+          elements[slot & _MASK] = null;
+          return new Leaf(elements,leaf.live & ~(1 << (slot & _MASK)));
+        }
+
+      Branch branch = (Branch)node;
+      int child = (slot >>> shift) & _MASK;
+      Object[] children = branch.children.clone();
+      int[] counts = branch.counts.clone();
+
+      children[child] = _kill(children[child],shift-_BITS,slot);
+      counts[child]--;
+      return new Branch(children,counts);
+    }
+
+  private static final int _collect (Object node, int shift, Object[] array, int count)
+    {
+      if (shift == 0)
+        {
+          Leaf leaf = (Leaf)node;
+          for (int live = leaf.live; live != 0; live &= live - 1)
+            array[count++] = leaf.elements[Integer.numberOfTrailingZeros(live)];
+          return count;
+        }
+
+      Branch branch = (Branch)node;
+      for (int i = 0; i < _WIDTH; i++)
+        if (branch.counts[i] > 0)
+          count = _collect(branch.children[i],shift-_BITS,array,count);
+
+      return count;
+    }
+
+  /* ************************************************************************ */
+  /*                        The element-to-slot trie                          */
+  /* ************************************************************************ */
+
+  /**
+   * A node of the hash array mapped trie. The <tt>bitmap</tt> tells which of
+   * the 32 hash digits at this level are present; each present digit has an
+   * entry in <tt>entries</tt>, either an element, whose slot is in <tt>slots</tt>,
+   * or a subnode. Past the last level, a node holds colliding elements in no
+   * particular order and has no bitmap.
+   */
+  private static final class KeyNode
+    {
+      final int bitmap;
+      final Object[] entries;
+      final int[] slots;
+
+      KeyNode (int bitmap, Object[] entries, int[] slots)
+        {
+          this.bitmap = bitmap;
+          this.entries = entries;
+          this.slots = slots;
+        }
+    }
+
+  private static final boolean _isCollisionLevel (int shift)
+    {
+      return shift >= 32;
+    }
+
+  private static final int _find (KeyNode node, Object element, int hash, int shift)
+    {
+      while (node != null)
+        {
+          if (_isCollisionLevel(shift))
+            {
+              for (int i = node.entries.length; i-->0;)
+                if (node.entries[i].equals(element)) return node.slots[i];
+              return -1;
+            }
+
+          int bit = 1 << ((hash >>> shift) & _MASK);
+          if ((node.bitmap & bit) == 0)
+            return -1;
+
+          int i = Integer.bitCount(node.bitmap & (bit - 1));
+          Object entry = node.entries[i];
+
+          if (!(entry instanceof KeyNode))
+            return entry.equals(element) ? node.slots[i] : -1;
+
+          node = (KeyNode)entry;
+          shift += _BITS;
+        }
+
+      return -1;
+    }
+
+  /**
+   * Returns a node for the distinct elements of the specified slots, from
+   * <tt>from</tt> to <tt>to</tt>, whose hash digits below the specified shift are
+   * all the same. The slots are reordered by hash digit at this level, going
+   * through the specified scratch array.
+   */
+  private static final KeyNode _build (Object[] elements, int[] hashes, int[] slots, int[] scratch,
+                                       int from, int to, int shift)
+    {
+      if (_isCollisionLevel(shift))
+        {
+          Object[] entries = new Object[to-from];
+          int[] entrySlots = new int[to-from];
+          for (int i = from; i < to; i++)
+            {
+              entries[i-from] = elements[slots[i]];
+              entrySlots[i-from] = slots[i];
+            }
+          return new KeyNode(0,entries,entrySlots);
+        }
+
+      int[] starts = new int[_WIDTH+1];
+      for (int i = from; i < to; i++)
+        starts[((hashes[slots[i]] >>> shift) & _MASK)+1]++;
+
+      int bitmap = 0;
+      for (int digit = 0; digit < _WIDTH; digit++)
+        {
+          if (starts[digit+1] > 0)
+            bitmap |= 1 << digit;
+          starts[digit+1] += starts[digit];
+        }
+
+      int[] next = starts.clone();
+      for (int i = from; i < to; i++)
+        scratch[from + next[(hashes[slots[i]] >>> shift) & _MASK]++] = slots[i];
+      System.arraycopy(scratch,from,slots,from,to-from);
+
+      Object[] entries = new Object[Integer.bitCount(bitmap)];
+      int[] entrySlots = new int[entries.length];
+
+      for (int digit = 0, k = 0; digit < _WIDTH; digit++)
+        {
+          int start = from + starts[digit];
+          int end = from + starts[digit+1];
+
+          if (end - start == 1)
+            {
+              entries[k] = elements[slots[start]];
+              entrySlots[k++] = slots[start];
+            }
+          else
+            if (end - start > 1)
+              entries[k++] = _build(elements,hashes,slots,scratch,start,end,shift+_BITS);
+        }
+
+      return new KeyNode(bitmap,entries,entrySlots);
+    }
+
+  /**
+   * Returns a copy of the specified node (which may be <tt>null</tt>) with the
+   * specified absent element mapped to the specified slot.
+   */
+  private static final KeyNode _assoc (KeyNode node, Object element, int hash, int shift, int slot)
+    {
+      if (_isCollisionLevel(shift))
+        {
+          int length = node == null ? 0 : node.entries.length;
+          Object[] entries = new Object[length+1];
+          int[] slots = new int[length+1];
+          if (node != null)
+            {
+              System.arraycopy(node.entries,0,entries,0,length);
+              System.arraycopy(node.slots,0,slots,0,length);
+            }
+          entries[length] = element;
+          slots[length] = slot;
+          return new KeyNode(0,entries,slots);
+        }
+
+      if (node == null)
+        return new KeyNode(1 << ((hash >>> shift) & _MASK),new Object[] { element },new int[] { slot });
+
+      int bit = 1 << ((hash >>> shift) & _MASK);
+      int i = Integer.bitCount(node.bitmap & (bit - 1));
+
+      if ((node.bitmap & bit) == 0)
+        {
+          int length = node.entries.length;
+          Object[] entries = new Object[length+1];
+          int[] slots = new int[length+1];
+          System.arraycopy(node.entries,0,entries,0,i);
+          System.arraycopy(node.slots,0,slots,0,i);
+          entries[i] = element;
+          slots[i] = slot;
+          System.arraycopy(node.entries,i,entries,i+1,length-i);
+          System.arraycopy(node.slots,i,slots,i+1,length-i);
+          return new KeyNode(node.bitmap | bit,entries,slots);
+        }
+
+      Object entry = node.entries[i];
+      Object[] entries = node.entries.clone();
+      int[] slots = node.slots.clone();
+
+      if (entry instanceof KeyNode)
+        entries[i] = _assoc((KeyNode)entry,element,hash,shift+_BITS,slot);
+      else
+        {
+          KeyNode child = _assoc(null,entry,_hash(entry),shift+_BITS,node.slots[i]);
+          entries[i] = _assoc(child,element,hash,shift+_BITS,slot);
+          slots[i] = 0;
+        }
+
+      return new KeyNode(node.bitmap,entries,slots);
+    }
+
+  /**
+   * Returns a copy of the specified node without the specified present element,
+   * or <tt>null</tt> if that leaves it empty.
+   */
+  private static final KeyNode _dissoc (KeyNode node, Object element, int hash, int shift)
+    {
+      if (_isCollisionLevel(shift))
+        {
+          int length = node.entries.length;
+          if (length == 1)
+            return null;
+
+          int i = length;
+          while (!node.entries[--i].equals(element));
+
+          Object[] entries = new Object[length-1];
+          int[] slots = new int[length-1];
+          System.arraycopy(node.entries,0,entries,0,i);
+          System.arraycopy(node.slots,0,slots,0,i);
+          System.arraycopy(node.entries,i+1,entries,i,length-i-1);
+          System.arraycopy(node.slots,i+1,slots,i,length-i-1);
+          return new KeyNode(0,entries,slots);
+        }
+
+      int bit = 1 << ((hash >>> shift) & _MASK);
+      int i = Integer.bitCount(node.bitmap & (bit - 1));
+      Object entry = node.entries[i];
+
+      if (entry instanceof KeyNode)
+        {
+          KeyNode child = _dissoc((KeyNode)entry,element,hash,shift+_BITS);
+          if (child != null)
+            {
+              Object[] entries = node.entries.clone();
+              entries[i] = child;
+              return new KeyNode(node.bitmap,entries,node.slots);
+            }
+        }
+
+      int length = node.entries.length;
+      if (length == 1)
+        return null;
+
+      Object[] entries = new Object[length-1];
+      int[] slots = new int[length-1];
+      System.arraycopy(node.entries,0,entries,0,i);
+      System.arraycopy(node.slots,0,slots,0,i);
+      System.arraycopy(node.entries,i+1,entries,i,length-i-1);
+      System.arraycopy(node.slots,i+1,slots,i,length-i-1);
+      return new KeyNode(node.bitmap & ~bit,entries,slots);
+    }
+}
@@ -0,0 +1,682 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 23:12:40 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import hlt.language.util.IntIterator;
+
+/**
+ * A <tt>PersistentIntIndex</tt> is a <a href="PersistentIndex.html">
+ * <tt>PersistentIndex</tt></a> of unboxed ints: an immutable indexed set of
+ * ints that maps each element to its position in insertion order, and back,
+ * and whose updates return a new index sharing all but <tt>O(log n)</tt> of
+ * its nodes with the old one, which is left unchanged.
+ *
+ * <p>
+ *
+ * It has the two tries of a <tt>PersistentIndex</tt>, with ints in place of
+ * objects in the keys and in the leaves. Since the hash of an int is a
+ * one-to-one function of it, two elements always part at some level of the
+ * element-to-slot trie, which thus needs no collision nodes; each of its nodes
+ * keeps its elements and its subnodes apart, with a bitmap for each.
+ */
+public class PersistentIntIndex
+{
+  /**
+   * The empty index.
+   */
+  public static final PersistentIntIndex EMPTY = new PersistentIntIndex(null,null,0,0,0);
+
+  private static final int _BITS = 5;
+  private static final int _WIDTH = 1 << _BITS;
+  private static final int _MASK = _WIDTH - 1;
+
+  private static final KeyNode[] _NO_NODES = new KeyNode[0];
+
+  /**
+   * The root of the element-to-slot trie: a <tt>KeyNode</tt>, or <tt>null</tt>.
+   */
+  private final KeyNode _keys;
+
+  /**
+   * The root of the slot trie: a <tt>Leaf</tt>, a <tt>Branch</tt>, or <tt>null</tt>.
+   */
+  private final Object _slots;
+
+  /**
+   * The number of slots covered by a child of the root of the slot trie, as a
+   * shift: <tt>0</tt> when the root is a leaf.
+   */
+  private final int _shift;
+
+  /**
+   * The number of slots, live or dead.
+   */
+  private final int _slotCount;
+
+  /**
+   * The number of elements (<i>i.e.</i>, of live slots).
+   */
+  private final int _size;
+
+  private PersistentIntIndex (KeyNode keys, Object slots, int shift, int slotCount, int size)
+    {
+      _keys = keys;
+      _slots = slots;
+      _shift = shift;
+      _slotCount = slotCount;
+      _size = size;
+    }
+
+  /**
+   * Returns an index of the specified distinct elements, in this order. Both
+   * tries are built bottom up, in linear time and without copying any node.
+   */
+  public static final PersistentIntIndex of (int[] elements, int count)
+    {
+      if (count == 0)
+        return EMPTY;
+
+      int[] slots = new int[count];
+      for (int i = 0; i < count; i++)
+        slots[i] = i;
+
+      KeyNode keys = _build(elements,slots,new int[count],0,count,0);
+
+      Object[] nodes = new Object[(count + _MASK) >>> _BITS];
+      for (int i = 0; i < nodes.length; i++)
+        {
+          int start = i << _BITS;
+          int length = Math.min(_WIDTH,count-start);
+          int[] leaf = new int[_WIDTH];
+          System.arraycopy(elements,start,leaf,0,length);
+          nodes[i] = new Leaf(leaf,length == _WIDTH ? -1 : (1 << length) - 1);
+        }
+
+      int shift = 0;
+      for (; nodes.length > 1; shift += _BITS)
+        {
+          int width = _WIDTH << shift;
+          Object[] branches = new Object[(nodes.length + _MASK) >>> _BITS];
+
+          for (int i = 0; i < branches.length; i++)
+            {
+              Branch branch = new Branch(new Object[_WIDTH],new int[_WIDTH]);
+              for (int j = 0, child = i << _BITS; j < _WIDTH && child < nodes.length; j++, child++)
+                {
+                  branch.children[j] = nodes[child];
+                  branch.counts[j] = Math.min(width,count-child*width);
+                }
+              branches[i] = branch;
+            }
+
+          nodes = branches;
+        }
+
+      return new PersistentIntIndex(keys,nodes[0],shift,count,count);
+    }
+
+  /**
+   * Returns the number of elements of this index.
+   */
+  public final int size ()
+    {
+      return _size;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the specified element belongs to this index.
+   */
+  public final boolean contains (int element)
+    {
+      return _slot(element) >= 0;
+    }
+
+  /**
+   * Returns the position of the specified element, or <tt>-1</tt> if it does not
+   * belong to this index.
+   */
+  public final int position (int element)
+    {
+      int slot = _slot(element);
+      return slot < 0 ? -1 : _rank(slot);
+    }
+
+  /**
+   * Returns the element at the specified position, which must be less than
+   * <tt>size()</tt>.
+   */
+  public final int elementAt (int position)
+    {
+      Object node = _slots;
+
+      for (int shift = _shift; shift > 0; shift -= _BITS)
+        {
+          Branch branch = (Branch)node;
+          int child = 0;
+          while (position >= branch.counts[child])
+            position -= branch.counts[child++];
+          node = branch.children[child];
+        }
+
+      Leaf leaf = (Leaf)node;
+      int live = leaf.live;
+      for (; position > 0; position--)
+        live &= live - 1;
+
+      return leaf.elements[Integer.numberOfTrailingZeros(live)];
+    }
+
+  /**
+   * Returns an index with the elements of this one followed by the specified
+   * element, or this index if it already contains it.
+   */
+  public final PersistentIntIndex add (int element)
+    {
+      return contains(element) ? this : _append(element);
+    }
+
+  /**
+   * Returns an index with the elements of this one but the specified element, in
+   * the same order, or this index if it does not contain it.
+   */
+  public final PersistentIntIndex remove (int element)
+    {
+      int slot = _slot(element);
+
+      if (slot < 0)
+        return this;
+
+      if (_size == 1)
+        return EMPTY;
+
+      PersistentIntIndex index = new PersistentIntIndex(_dissoc(_keys,element,_hash(element),0),
+                                                        _kill(_slots,_shift,slot),
+                                                        _shift,_slotCount,_size-1);
+
+      int dead = index._slotCount - index._size;
+      if (dead > PersistentIndex.MIN_DEAD_SLOTS && dead > index._size)
+        return of(index.toArray(),index._size);
+
+      return index;
+    }
+
+  /**
+   * Returns the elements of this index in order.
+   */
+  public final int[] toArray ()
+    {
+      int[] array = new int[_size];
+      if (_slots != null) _collect(_slots,_shift,array,0);
+      return array;
+    }
+
+  /**
+   * Returns an iterator over the elements of this index in order.
+   */
+  public final IntIterator iterator ()
+    {
+      return new ElementIterator(this);
+    }
+
+  /**
+   * Returns the least element of this index, which must not be empty, in linear
+   * time.
+   */
+  public final int min ()
+    {
+      int min = Integer.MAX_VALUE;
+      for (IntIterator i = iterator(); i.hasNext();)
+        min = Math.min(min,i.next());
+      return min;
+    }
+
+  /**
+   * Returns the greatest element of this index, which must not be empty, in
+   * linear time.
+   */
+  public final int max ()
+    {
+      int max = Integer.MIN_VALUE;
+      for (IntIterator i = iterator(); i.hasNext();)
+        max = Math.max(max,i.next());
+      return max;
+    }
+
+  private final PersistentIntIndex _append (int element)
+    {
+      int slot = _slotCount;
+      KeyNode keys = _assoc(_keys,element,_hash(element),0,slot);
+
+      if (_slots == null)
+        return new PersistentIntIndex(keys,_leaf(null,slot,element),0,1,1);
+
+      if (slot == _WIDTH << _shift)
+        {
+          Branch root = new Branch(new Object[_WIDTH],new int[_WIDTH]);
+          root.children[0] = _slots;
+          root.counts[0] = _size;
+          root.children[1] = _path(_shift,slot,element);
+          root.counts[1] = 1;
+          return new PersistentIntIndex(keys,root,_shift+_BITS,slot+1,_size+1);
+        }
+
+      return new PersistentIntIndex(keys,_push(_slots,_shift,slot,element),_shift,slot+1,_size+1);
+    }
+
+  private final int _rank (int slot)
+    {
+      int rank = 0;
+      Object node = _slots;
+
+      for (int shift = _shift; shift > 0; shift -= _BITS)
+        {
+          Branch branch = (Branch)node;
+          int child = (slot >>> shift) & _MASK;
+          for (int i = 0; i < child; i++)
+            rank += branch.counts[i];
+          node = branch.children[child];
+        }
+
+      return rank + Integer.bitCount(((Leaf)node).live & ((1 << (slot & _MASK)) - 1));
+    }
+
+  /**
+   * Returns the leaf covering the specified slot, which must be less than the
+   * number of slots.
+   */
+  private final Leaf _leafAt (int slot)
+    {
+      Object node = _slots;
+
+      for (int shift = _shift; shift > 0; shift -= _BITS)
+        node = ((Branch)node).children[(slot >>> shift) & _MASK];
+
+      return (Leaf)node;
+    }
+
+  /**
+   * Returns a hash of the specified int, which is a one-to-one function of it.
+   */
+  private static final int _hash (int element)
+    {
+      return element ^ (element >>> 16);
+    }
+
+  private static final int _digit (int element, int shift)
+    {
+      return (_hash(element) >>> shift) & _MASK;
+    }
+
+  /* ************************************************************************ */
+  /*                            The slot trie                                 */
+  /* ************************************************************************ */
+
+  /**
+   * A leaf of the slot trie: the elements of 32 consecutive slots, and the mask of
+   * those that are live.
+   */
+  private static final class Leaf
+    {
+      final int[] elements;
+      final int live;
+
+      Leaf (int[] elements, int live)
+        {
+          this.elements = elements;
+          this.live = live;
+        }
+    }
+
+  /**
+   * A branch of the slot trie, with the number of live slots under each child.
+   */
+  private static final class Branch
+    {
+      final Object[] children;
+      final int[] counts;
+
+      Branch (Object[] children, int[] counts)
+        {
+          this.children = children;
+          this.counts = counts;
+        }
+    }
+
+  private static final Leaf _leaf (Leaf leaf, int slot, int element)
+    {
+      int[] elements = leaf == null ? new int[_WIDTH] : leaf.elements.clone();
+      elements[slot & _MASK] = element;
+      return new Leaf(elements,(leaf == null ? 0 : leaf.live) | 1 << (slot & _MASK));
+    }
+
+  /**
+   * Returns a new path down to a leaf holding only the specified element.
+   */
+  private static final Object _path (int shift, int slot, int element)
+    {
+      if (shift == 0)
+        return _leaf(null,slot,element);
+
+      Branch branch = new Branch(new Object[_WIDTH],new int[_WIDTH]);
+      branch.children[(slot >>> shift) & _MASK] = _path(shift-_BITS,slot,element);
+      branch.counts[(slot >>> shift) & _MASK] = 1;
+      return branch;
+    }
+
+  /**
+   * Returns a copy of the specified node with the specified element in the
+   * specified new slot, which the node covers.
+   */
+  private static final Object _push (Object node, int shift, int slot, int element)
+    {
+      if (shift == 0)
+        return _leaf((Leaf)node,slot,element);
+
+      Branch branch = (Branch)node;
+      int child = (slot >>> shift) & _MASK;
+      Object[] children = branch.children.clone();
+      int[] counts = branch.counts.clone();
+
+      children[child] = children[child] == null
+                      ? _path(shift-_BITS,slot,element)
+                      : _push(children[child],shift-_BITS,slot,element);
+      counts[child]++;
+      return new Branch(children,counts);
+    }
+
+  /**
+   * Returns a copy of the specified node where the specified slot is dead. A
+   * leaf keeps sharing its elements, since the element of a dead slot is never
+   * read.
+   */
+  private static final Object _kill (Object node, int shift, int slot)
+    {
+      if (shift == 0)
+        {
+          Leaf leaf = (Leaf)node;
+          return new Leaf(leaf.elements,leaf.live & ~(1 << (slot & _MASK)));
+        }
+
+      Branch branch = (Branch)node;
+      int child = (slot >>> shift) & _MASK;
+      Object[] children = branch.children.clone();
+      int[] counts = branch.counts.clone();
+
+      children[child] = _kill(children[child],shift-_BITS,slot);
+      counts[child]--;
+      return new Branch(children,counts);
+    }
+
+  private static final int _collect (Object node, int shift, int[] array, int count)
+    {
+      if (shift == 0)
+        {
+          Leaf leaf = (Leaf)node;
+          for (int live = leaf.live; live != 0; live &= live - 1)
+            array[count++] = leaf.elements[Integer.numberOfTrailingZeros(live)];
+          return count;
+        }
+
+      Branch branch = (Branch)node;
+      for (int i = 0; i < _WIDTH; i++)
+        if (branch.counts[i] > 0)
+          count = _collect(branch.children[i],shift-_BITS,array,count);
+
+      return count;
+    }
+
+  /* ************************************************************************ */
+  /*                        The element-to-slot trie                          */
+  /* ************************************************************************ */
+
+  /**
+   * A node of the hash array mapped trie. The <tt>datamap</tt> tells which of the
+   * 32 hash digits at this level have an element, which is in <tt>keys</tt> with
+   * its slot in <tt>slots</tt>, and the <tt>nodemap</tt> which ones have a subnode,
+   * which is in <tt>nodes</tt>.
+   */
+  private static final class KeyNode
+    {
+      final int datamap;
+      final int[] keys;
+      final int[] slots;
+      final int nodemap;
+      final KeyNode[] nodes;
+
+      KeyNode (int datamap, int[] keys, int[] slots, int nodemap, KeyNode[] nodes)
+        {
+          this.datamap = datamap;
+          this.keys = keys;
+          this.slots = slots;
+          this.nodemap = nodemap;
+          this.nodes = nodes;
+        }
+    }
+
+  private final int _slot (int element)
+    {
+      int hash = _hash(element);
+      KeyNode node = _keys;
+
+      for (int shift = 0; node != null; shift += _BITS)
+        {
+          int bit = 1 << ((hash >>> shift) & _MASK);
+
+          if ((node.datamap & bit) != 0)
+            {
+              int i = Integer.bitCount(node.datamap & (bit - 1));
+              return node.keys[i] == element ? node.slots[i] : -1;
+            }
+
+          if ((node.nodemap & bit) == 0)
+            return -1;
+
+          node = node.nodes[Integer.bitCount(node.nodemap & (bit - 1))];
+        }
+
+      return -1;
+    }
+
+  /**
+   * Returns a node for the distinct elements of the specified slots, from
+   * <tt>from</tt> to <tt>to</tt>, whose hash digits below the specified shift are
+   * all the same. The slots are reordered by hash digit at this level, going
+   * through the specified scratch array.
+   */
+  private static final KeyNode _build (int[] elements, int[] slots, int[] scratch,
+                                       int from, int to, int shift)
+    {
+      int[] starts = new int[_WIDTH+1];
+      for (int i = from; i < to; i++)
+        starts[_digit(elements[slots[i]],shift)+1]++;
+
+      int datamap = 0;
+      int nodemap = 0;
+
+      for (int digit = 0; digit < _WIDTH; digit++)
+        {
+          int count = starts[digit+1];
+
+          if (count == 1)
+            datamap |= 1 << digit;
+          else
+            if (count > 1)
+              nodemap |= 1 << digit;
+
+          starts[digit+1] += starts[digit];
+        }
+
+      int[] next = starts.clone();
+      for (int i = from; i < to; i++)
+        scratch[from + next[_digit(elements[slots[i]],shift)]++] = slots[i];
+      System.arraycopy(scratch,from,slots,from,to-from);
+
+      int[] keys = new int[Integer.bitCount(datamap)];
+      int[] keySlots = new int[keys.length];
+      KeyNode[] nodes = nodemap == 0 ? _NO_NODES : new KeyNode[Integer.bitCount(nodemap)];
+
+      for (int digit = 0, k = 0, n = 0; digit < _WIDTH; digit++)
+        {
+          int start = from + starts[digit];
+          int end = from + starts[digit+1];
+
+          if (end - start == 1)
+            {
+              keySlots[k] = slots[start];
+              keys[k++] = elements[slots[start]];
+            }
+          else
+            if (end - start > 1)
+              nodes[n++] = _build(elements,slots,scratch,start,end,shift+_BITS);
+        }
+
+      return new KeyNode(datamap,keys,keySlots,nodemap,nodes);
+    }
+
+  /**
+   * Returns a copy of the specified node (which may be <tt>null</tt>) with the
+   * specified absent element mapped to the specified slot.
+   */
+  private static final KeyNode _assoc (KeyNode node, int element, int hash, int shift, int slot)
+    {
+      int bit = 1 << ((hash >>> shift) & _MASK);
+
+      if (node == null)
+        return new KeyNode(bit,new int[] { element },new int[] { slot },0,_NO_NODES);
+
+      if ((node.nodemap & bit) != 0)
+        {
+          int j = Integer.bitCount(node.nodemap & (bit - 1));
+          KeyNode[] nodes = node.nodes.clone();
+          nodes[j] = _assoc(nodes[j],element,hash,shift+_BITS,slot);
+          return new KeyNode(node.datamap,node.keys,node.slots,node.nodemap,nodes);
+        }
+
+      int i = Integer.bitCount(node.datamap & (bit - 1));
+
+      if ((node.datamap & bit) == 0)
+        return new KeyNode(node.datamap | bit,_insert(node.keys,i,element),
+                           _insert(node.slots,i,slot),node.nodemap,node.nodes);
+
+      int key = node.keys[i];
+      KeyNode child = _assoc(_assoc(null,key,_hash(key),shift+_BITS,node.slots[i]),
+                             element,hash,shift+_BITS,slot);
+
+      int j = Integer.bitCount(node.nodemap & (bit - 1));
+      KeyNode[] nodes = new KeyNode[node.nodes.length+1];
+      System.arraycopy(node.nodes,0,nodes,0,j);
+      nodes[j] = child;
+      System.arraycopy(node.nodes,j,nodes,j+1,node.nodes.length-j);
+
+      return new KeyNode(node.datamap & ~bit,_delete(node.keys,i),_delete(node.slots,i),
+                         node.nodemap | bit,nodes);
+    }
+
+  /**
+   * Returns a copy of the specified node without the specified present element,
+   * or <tt>null</tt> if that leaves it empty.
+   */
+  private static final KeyNode _dissoc (KeyNode node, int element, int hash, int shift)
+    {
+      int bit = 1 << ((hash >>> shift) & _MASK);
+
+      if ((node.datamap & bit) != 0)
+        {
+          if (node.keys.length == 1 && node.nodes.length == 0)
+            return null;
+
+          int i = Integer.bitCount(node.datamap & (bit - 1));
+          return new KeyNode(node.datamap & ~bit,_delete(node.keys,i),_delete(node.slots,i),
+                             node.nodemap,node.nodes);
+        }
+
+      int j = Integer.bitCount(node.nodemap & (bit - 1));
+      KeyNode child = _dissoc(node.nodes[j],element,hash,shift+_BITS);
+      KeyNode[] nodes;
+
+      if (child != null)
+        {
+          nodes = node.nodes.clone();
+          nodes[j] = child;
+          return new KeyNode(node.datamap,node.keys,node.slots,node.nodemap,nodes);
+        }
+
+      if (node.keys.length == 0 && node.nodes.length == 1)
+        return null;
+
+      nodes = new KeyNode[node.nodes.length-1];
+      System.arraycopy(node.nodes,0,nodes,0,j);
+      System.arraycopy(node.nodes,j+1,nodes,j,nodes.length-j);
+      return new KeyNode(node.datamap,node.keys,node.slots,node.nodemap & ~bit,nodes);
+    }
+
+  /**
+   * Returns a copy of the specified array with the specified int inserted at the
+   * specified index.
+   */
+  private static final int[] _insert (int[] array, int index, int value)
+    {
+      int[] result = new int[array.length+1];
+      System.arraycopy(array,0,result,0,index);
+      result[index] = value;
+      System.arraycopy(array,index,result,index+1,array.length-index);
+      return result;
+    }
+
+  /**
+   * Returns a copy of the specified array without the int at the specified index.
+   */
+  private static final int[] _delete (int[] array, int index)
+    {
+      int[] result = new int[array.length-1];
+      System.arraycopy(array,0,result,0,index);
+      System.arraycopy(array,index+1,result,index,result.length-index);
+      return result;
+    }
+
+  /**
+   * This is an iterator over the elements of an index, in order, which goes down
+   * the slot trie once per leaf.
+   */
+  private static class ElementIterator implements IntIterator
+    {
+      private final PersistentIntIndex _index;
+      private int _nextLeaf;
+      private int[] _elements;
+      private int _live;
+
+      ElementIterator (PersistentIntIndex index)
+        {
+          _index = index;
+        }
+
+      public final boolean hasNext ()
+        {
+          while (_live == 0 && _nextLeaf < _index._slotCount)
+            {
+              Leaf leaf = _index._leafAt(_nextLeaf);
+              _elements = leaf.elements;
+              _live = leaf.live;
+              _nextLeaf += _WIDTH;
+            }
+
+          return _live != 0;
+        }
+
+      public final int next ()
+        {
+          hasNext();
+          int element = _elements[Integer.numberOfTrailingZeros(_live)];
+          _live &= _live - 1;
+          return element;
+        }
+    }
+}
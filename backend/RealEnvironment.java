@@ -0,0 +1,301 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 21:53:37 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import java.util.Arrays;
+
+/**
+ * This is the floating-point number environment stack of a <a href="Runtime.html"><tt>Runtime</tt></a>.
+ * It behaves as a stack of doubles, except that the frame of a closure being applied
+ * may be pushed on it as a whole without copying its elements: unless it is small,
+ * the frame is <i>spliced</i> into the stack as a segment that shares the frame's
+ * array. Reading a slot of such a segment reads the frame's array; writing it first
+ * copies the segment's elements into the stack's own storage (copy-on-write), since
+ * a frame may be shared by many closures and must never be modified. Conversely,
+ * copying the top of the stack into an array to build a closure returns the frame
+ * of a segment as is when it is exactly that segment.
+ *
+ * <p>
+ *
+ * Each slot of the stack has a place in the own storage, whether it is used or not,
+ * so that the index of a slot does not depend on the segments; and segments are
+ * recorded in a stack of their own, so that finding the segment of a slot that is
+ * near the top of the stack, as most accessed slots are, takes only a few steps.
+ */
+public final class RealEnvironment
+{
+  /**
+   * This is the size of the largest frame whose elements are copied rather than
+   * shared when the frame is pushed.
+   */
+  public static final int MAX_COPIED_FRAME_SIZE = 8;
+
+  /**
+   * The own storage of this stack.
+   */
+  private double[] _values;
+
+  /**
+   * The size of this stack.
+   */
+  private int _size;
+
+  /**
+   * The segments of this stack, as parallel arrays of their frames, start
+   * indices, and lengths (which may be less than their frames' lengths when
+   * the stack was truncated within a segment), in increasing start order.
+   */
+  private double[][] _frames = new double[4][];
+  private int[] _starts = new int[4];
+  private int[] _lengths = new int[4];
+
+  /**
+   * The number of segments of this stack.
+   */
+  private int _segmentCount;
+
+  /**
+   * Constructs an empty environment stack with a default capacity.
+   */
+  public RealEnvironment ()
+    {
+      this(Runtime.DEFAULT_STACK_CAPACITY);
+    }
+
+  /**
+   * Constructs an empty environment stack with the specified capacity.
+   */
+  public RealEnvironment (int capacity)
+    {
+      _values = new double[Math.max(1,capacity)];
+    }
+
+  /**
+   * Returns the size of this stack.
+   */
+  public final int size ()
+    {
+      return _size;
+    }
+
+  /**
+   * Returns the capacity of this stack's own storage.
+   */
+  public final int capacity ()
+    {
+      return _values.length;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this stack is empty.
+   */
+  public final boolean isEmpty ()
+    {
+      return _size == 0;
+    }
+
+  /**
+   * Pushes the specified value on this stack.
+   */
+  public final void push (double value)
+    {
+      if (_size == _values.length)
+        _ensureCapacity(_size+1);
+
+      _values[_size++] = value;
+    }
+
+  /**
+   * Pushes all the elements of the specified frame on this stack, which shares
+   * the frame's array unless it is small.
+   */
+  public final void pushFrame (double[] frame)
+    {
+      int length = frame.length;
+
+      if (length == 0)
+        return;
+
+      if (_size + length > _values.length)
+        _ensureCapacity(_size+length);
+
+      if (length <= MAX_COPIED_FRAME_SIZE)
+        System.arraycopy(frame,0,_values,_size,length);
+      else
+        {
+          if (_segmentCount == _frames.length)
+            _growSegments();
+
+          _frames[_segmentCount] = frame;
+          _starts[_segmentCount] = _size;
+          _lengths[_segmentCount] = length;
+          _segmentCount++;
+        }
+
+      _size += length;
+    }
+
+  /**
+   * Returns the value in the slot at the specified index from the bottom of this stack.
+   */
+  public final double get (int index)
+    {
+      int segment = _segmentOf(index);
+
+      if (segment < 0)
+        return _values[index];
+
+      return _frames[segment][index-_starts[segment]];
+    }
+
+  /**
+   * Returns the value at offset <tt>n</tt> from the top of this stack.
+   */
+  public final double peek (int n)
+    {
+      return get(_size-1-n);
+    }
+
+  /**
+   * Sets the slot at offset <tt>n</tt> from the top of this stack to the specified value.
+   */
+  public final void replace (int n, double value)
+    {
+      int index = _size-1-n;
+      int segment = _segmentOf(index);
+
+      if (segment >= 0)
+        _unshare(segment);
+
+      _values[index] = value;
+    }
+
+  /**
+   * Sets the topmost slot of this stack to the specified value.
+   */
+  public final void setLast (double value)
+    {
+      replace(0,value);
+    }
+
+  /**
+   * Truncates this stack to the specified size, which must not be greater
+   * than its current size.
+   */
+  public final void setSize (int size)
+    {
+      while (_segmentCount > 0 && _starts[_segmentCount-1] >= size)
+        _frames[--_segmentCount] = null;
+
+      if (_segmentCount > 0)
+        {
+          int top = _segmentCount-1;
+          _lengths[top] = Math.min(_lengths[top],size-_starts[top]);
+        }
+
+      _size = size;
+    }
+
+  /**
+   * Empties this stack.
+   */
+  public final void clear ()
+    {
+      setSize(0);
+    }
+
+  /**
+   * Returns an array containing the topmost <tt>size</tt> values of this stack,
+   * in stack order. If these values are exactly those of a whole segment, this
+   * is the segment's frame.
+   */
+  public final double[] copy (int size)
+    {
+      int depth = _size-size;
+
+      if (_segmentCount > 0)
+        {
+          int top = _segmentCount-1;
+          if (_starts[top] == depth
+              && _lengths[top] == size
+              && _frames[top].length == size)
+            return _frames[top];
+        }
+
+      double[] copy = new double[size];
+      System.arraycopy(_values,depth,copy,0,size);
+
+      for (int k = _segmentCount; k-->0;)
+        {
+          int start = _starts[k];
+          int end = start + _lengths[k];
+
+          if (end <= depth)
+            break;
+
+          int from = Math.max(start,depth);
+          System.arraycopy(_frames[k],from-start,copy,from-depth,end-from);
+        }
+
+      return copy;
+    }
+
+  /**
+   * Returns the index of the segment containing the slot at the specified index,
+   * or -1 if this slot is in the own storage.
+   */
+  private final int _segmentOf (int index)
+    {
+      for (int k = _segmentCount; k-->0;)
+        {
+          int start = _starts[k];
+
+          if (index >= start)
+            return index < start + _lengths[k] ? k : -1;
+        }
+
+      return -1;
+    }
+
+  /**
+   * Copies the elements of the specified segment into the own storage, and
+   * removes the segment.
+   */
+  private final void _unshare (int segment)
+    {
+      System.arraycopy(_frames[segment],0,_values,_starts[segment],_lengths[segment]);
+
+      int moved = _segmentCount - segment - 1;
+      System.arraycopy(_frames,segment+1,_frames,segment,moved);
+      System.arraycopy(_starts,segment+1,_starts,segment,moved);
+      System.arraycopy(_lengths,segment+1,_lengths,segment,moved);
+      _frames[--_segmentCount] = null;
+    }
+
+  private final void _ensureCapacity (int capacity)
+    {
+      _values = Arrays.copyOf(_values,Math.max(capacity,2*_values.length));
+    }
+
+  private final void _growSegments ()
+    {
+      int capacity = 2*_segmentCount;
+
+      _frames = Arrays.copyOf(_frames,capacity);
+      _starts = Arrays.copyOf(_starts,capacity);
+      _lengths = Arrays.copyOf(_lengths,capacity);
+    }
+
+  public String toString ()
+    {
+      return Arrays.toString(copy(_size));
+    }
+}
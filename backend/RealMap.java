@@ -5,7 +5,7 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 22:31:40 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
@@ -25,6 +25,12 @@ public class RealMap extends RuntimeMap
 {
   private double[] _array;
 
+  /**
+   * This is <tt>true</tt> when <tt>_array</tt> may be shared with a copy of this
+   * map, in which case it is copied before this map modifies it or gives it out.
+   */
+  private boolean _isShared;
+
   public RealMap (double[] array, Indexable indexable)
     {
       _array = array;
@@ -33,17 +39,25 @@ public class RealMap extends RuntimeMap
 
   public final double[] array ()
     {
+      if (_isShared)
+        {
+          _array = Runtime.copy(_array);
+          _isShared = false;
+        }
+
       return _array;
     }
 
   public final RuntimeMap copy ()
     {
-      return new RealMap(Runtime.copy(_array),_indexable);
+      RealMap copy = new RealMap(_array,_indexable);
+      _isShared = copy._isShared = true;
+      return copy;
     }
 
   public final Object extractArray ()
     {
-      return _array;
+      return array();
     }
 
   public final double[] toArray ()
@@ -55,6 +69,7 @@ public class RealMap extends RuntimeMap
   public final RuntimeMap setArray (Object array)
     {
       _array = (double[])array;
+      _isShared = false;
       return this;
     }
 
@@ -75,17 +90,17 @@ public class RealMap extends RuntimeMap
 
   public final double set (double index, double value)
     {
-      return _array[_indexable.getIndex(index)] = value;
+      return array()[_indexable.getIndex(index)] = value;
     }
 
   public final double set (int index, double value)
     {
-      return _array[_indexable.getIndex(index)] = value;
+      return array()[_indexable.getIndex(index)] = value;
     }
 
   public final double set (Object index, double value)
     {
-      return _array[_indexable.getIndex(index)] = value;
+      return array()[_indexable.getIndex(index)] = value;
     }
 
   public final boolean equals (Object object)
@@ -96,8 +111,20 @@ public class RealMap extends RuntimeMap
       if (!(object instanceof RealMap))
         return false;
 
-      return _array == ((RealMap)object).array()
-          && _indexable.equals(((RealMap)object).indexable());
+      RealMap map = (RealMap)object;
+
+      // a copy shares its original's array until either one writes, but is
+      // not equal to it, just as when copy() used to duplicate the array:
+      return _array == map._array && !(_isShared && map._isShared)
+          && _indexable.equals(map.indexable());
+    }
+
+  /**
+   * Consistent with <tt>equals</tt>, which requires the very same array.
+   */
+  public final int hashCode ()
+    {
+      return System.identityHashCode(_array);
     }
 
   public final String toString ()
@@ -5,12 +5,13 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 20:42:53 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
 
 import java.util.Iterator;
+import java.util.Arrays;
 
 import hlt.language.util.IntIterator;
 import hlt.language.util.DoubleIterator;
@@ -29,7 +30,20 @@ public class RealSet extends RuntimeSet
   private DoubleToIntMap _map = new DoubleToIntMap();
 
   /**
-   * This array reflects the inverse relation of <tt>_map</tt>.
+   * The elements by index. The slot of a removed element is dead once the
+   * element no longer maps to it.
+   */
+  private double[] _slots = new double[8];
+
+  /**
+   * This is <tt>true</tt> when <tt>_map</tt> and <tt>_slots</tt> may be shared
+   * with a copy of this set, in which case they are copied before this set is
+   * first modified.
+   */
+  private boolean _isShared;
+
+  /**
+   * This array caches the elements in index order.
    */
   private double[] _array;
 
@@ -61,6 +75,34 @@ public class RealSet extends RuntimeSet
   public RealSet (DoubleToIntMap map)
     {
       _map.include(map);
+
+      for (Iterator i = _map.iterator(); i.hasNext();)
+        _maxIndex = Math.max(_maxIndex,((ToIntMap.Entry)i.next()).value()+1);
+
+      _slots = new double[_maxIndex+1];
+      for (Iterator i = _map.iterator(); i.hasNext();)
+        {
+          DoubleToIntMap.Entry entry = (DoubleToIntMap.Entry)i.next();
+          _slots[entry.value()] = entry.key();
+          _contentHash += _elementHash(entry.key());
+        }
+
+      _compactIndices();
+      _maxIndex = _map.size();
+    }
+
+  /**
+   * Constructs a new set with the elements and indices of the specified set.
+   */
+  private RealSet (RealSet set)
+    {
+      _map = set._map;
+      _slots = set._slots;
+      _array = set._array;
+      _isShared = set._isShared = true;
+      _contentHash = set._contentHash;
+      _min = set._min;
+      _max = set._max;
     }
 
   /**
@@ -68,9 +110,25 @@ public class RealSet extends RuntimeSet
    */
   final ToIntMap map ()
     {
+      _unshare();
       return _map;
     }
 
+  /**
+   * Gives this set its own copy of its elements if it may share them.
+   */
+  private final void _unshare ()
+    {
+      if (_isShared)
+        {
+          DoubleToIntMap map = new DoubleToIntMap();
+          map.include(_map);
+          _map = map;
+          _slots = _slots.clone();
+          _isShared = false;
+        }
+    }
+
   /**
    * Returns the inverse relation of the index map as an array.
    */
@@ -78,23 +136,22 @@ public class RealSet extends RuntimeSet
     {
       if (_map.size() > 0 && (_array == null || _hasHoles))
         {
-          _array = new double[_map.size()];
+          RuntimeEvents.ArrayRebuild event = new RuntimeEvents.ArrayRebuild();
+          event.begin();
+
+          boolean hadHoles = _hasHoles;
+          if (_hasHoles) _resetIndices();
+          _array = Arrays.copyOf(_slots,_map.size());
 
-          if (_hasHoles)
+          event.end();
+
+          if (event.shouldCommit())
             {
-              ToIntMap.Entry[] entries = _resetIndices();
-              for (int i = _array.length; i-->0;)
-                {
-                  DoubleToIntMap.Entry entry = (DoubleToIntMap.Entry)entries[i];
-                  _array[entry.value()] = entry.key();
-                }
+              event.setClass = getClass().getName();
+              event.size = _array.length;
+              event.hadHoles = hadHoles;
+              event.commit();
             }
-          else
-            for (Iterator i = _map.iterator(); i.hasNext();)
-              {
-                DoubleToIntMap.Entry entry = (DoubleToIntMap.Entry)i.next();
-                _array[entry.value()] = entry.key();
-              }
         }
 
       return _array;
@@ -118,7 +175,7 @@ public class RealSet extends RuntimeSet
       if (size() == 0)
         throw new NoSuchElementException("first element of an empty set");
 
-      return array()[0];
+      return _elementAt(0);
     }
     
   /**
@@ -127,7 +184,7 @@ public class RealSet extends RuntimeSet
    */
   public final Object firstObject () throws NoSuchElementException
     {
-      return new RuntimeReal(firstReal());
+      return Runtime.newReal(firstReal());
     }
     
 
@@ -149,7 +206,7 @@ public class RealSet extends RuntimeSet
       if (size() == 0)
         throw new NoSuchElementException("last element of an empty set");
 
-      return array()[size()-1];
+      return _elementAt(size()-1);
     }
     
   /**
@@ -158,7 +215,7 @@ public class RealSet extends RuntimeSet
    */
   public final Object lastObject () throws NoSuchElementException
     {
-      return new RuntimeReal(lastReal());
+      return Runtime.newReal(lastReal());
     }
     
 
@@ -177,13 +234,11 @@ public class RealSet extends RuntimeSet
    */
   public final int ord (double element) throws NoSuchElementException
     {
-      if (_hasHoles) _resetIndices();
-
       int index = getIndex(element);
       if (index == -1)
         throw new NoSuchElementException(element+" doesn't belong to this set");
 
-      return index;
+      return _position(index);
     }
     
   /**
@@ -216,7 +271,7 @@ public class RealSet extends RuntimeSet
       if (index == size())
         throw new NoSuchElementException(element+" has no successor in this set");
 
-      return array()[index];
+      return _elementAt(index);
     }
     
   /**
@@ -225,7 +280,7 @@ public class RealSet extends RuntimeSet
    */
   public final Object next (Object element) throws NoSuchElementException
     {
-      return new RuntimeReal(next(((RuntimeReal)element).value()));
+      return Runtime.newReal(next(((RuntimeReal)element).value()));
     }
     
 
@@ -249,7 +304,7 @@ public class RealSet extends RuntimeSet
       if (index == -1)
         throw new NoSuchElementException(element+" has no predecessor in this set");
 
-      return array()[index];
+      return _elementAt(index);
     }
     
   /**
@@ -258,7 +313,7 @@ public class RealSet extends RuntimeSet
    */
   public final Object prev (Object element) throws NoSuchElementException
     {
-      return new RuntimeReal(prev(((RuntimeReal)element).value()));
+      return Runtime.newReal(prev(((RuntimeReal)element).value()));
     }
     
 
@@ -279,7 +334,7 @@ public class RealSet extends RuntimeSet
    */
   public final double nextc (double element) throws NoSuchElementException
     {
-      return array()[(ord(element)+1) % size()];
+      return _elementAt((ord(element)+1) % size());
     }
     
   /**
@@ -289,7 +344,7 @@ public class RealSet extends RuntimeSet
    */
   public final Object nextc (Object element) throws NoSuchElementException
     {
-      return new RuntimeReal(next(((RuntimeReal)element).value()));
+      return Runtime.newReal(next(((RuntimeReal)element).value()));
     }
     
 
@@ -310,7 +365,7 @@ public class RealSet extends RuntimeSet
    */
   public final double prevc (double element) throws NoSuchElementException
     {
-      return array()[(ord(element)+size()-1) % size()];
+      return _elementAt((ord(element)+size()-1) % size());
     }
     
   /**
@@ -320,16 +375,44 @@ public class RealSet extends RuntimeSet
    */
   public final Object prevc (Object element) throws NoSuchElementException
     {
-      return new RuntimeReal(prevc(((RuntimeReal)element).value()));
+      return Runtime.newReal(prevc(((RuntimeReal)element).value()));
     }
 
 
+  /**
+   * Returns the element at the specified position in this set.
+   */
+  private final double _elementAt (int position)
+    {
+      return _slots[_index(position)];
+    }
+
+  /**
+   * Renumbers the elements from <tt>0</tt> in index order.
+   */
+  protected final void _compactIndices ()
+    {
+      _unshare();
+
+      int count = 0;
+
+      for (int index = 0; index < _maxIndex; index++)
+        {
+          double element = _slots[index];
+          if (_map.get(element) == index)
+            {
+              _map.put(element,count);
+              _slots[count++] = element;
+            }
+        }
+    }
+
   /**
    * Returns a copy of this set.
    */
   public final RuntimeSet copy ()
     {
-      return new RealSet(_map)._setHasHoles(_hasHoles)._setMaxIndex(_maxIndex);
+      return _copyIndices(new RealSet(this));
     }      
 
   /**
@@ -339,7 +422,7 @@ public class RealSet extends RuntimeSet
   public final int getIndex (double element)
     {
       int index = _map.get(element);
-      return index == _map.NOT_FOUND_VALUE && !_map.containsKey(element)
+      return index == DoubleToIntMap.NOT_FOUND_VALUE && !_map.containsKey(element)
            ? -1
            : index;
     }
@@ -394,7 +477,15 @@ public class RealSet extends RuntimeSet
     {
       if (!_map.containsKey(element))
         {
-          _map.put(element,_maxIndex++);
+          _unshare();
+          int index = _newIndex();
+
+          if (index == _slots.length)
+            _slots = Arrays.copyOf(_slots,index+(index>>1)+1);
+
+          _slots[index] = element;
+          _map.put(element,index);
+          _contentHash += _elementHash(element);
           double min = size() == 1 ? element : Math.min(_min,element);
           double max = size() == 1 ? element : Math.max(_max,element);
           if (min != _min || max != _max) _realRange = null;
@@ -429,8 +520,16 @@ public class RealSet extends RuntimeSet
    */
   protected final RuntimeSet _remove (double element)
     {
-      if (_hasHoles |= (_map.remove(element) >= 0))
+      if (!_map.containsKey(element))
+        return this;
+
+      _unshare();
+      int index = _map.remove(element);
+
+      if (index >= 0)
         {
+          _removeIndex(index);
+          _contentHash -= _elementHash(element);
           if (element == _min) _recomputeMin();
           if (element == _max) _recomputeMax();
           _array = null;
@@ -496,8 +595,11 @@ public class RealSet extends RuntimeSet
    */
   protected final RuntimeSet _union (RuntimeSet set)
     {
-      for (DoubleIterator i = set.realIterator(true); i.hasNext();)
-        _add(i.next());
+      double[] others = SetAlgebra.reals(set,true);
+      boolean[] members = SetAlgebra.members(others,SetAlgebra.reals(this,false));
+
+      for (int i = 0; i < others.length; i++)
+        if (!members[i]) _add(others[i]);
 
       return this;
     }
@@ -507,14 +609,19 @@ public class RealSet extends RuntimeSet
    */
   public final RuntimeSet _intersection (RuntimeSet set)
     {
-      for (DoubleIterator i = realIterator(false); i.hasNext();)
+      double[] elements = SetAlgebra.reals(this,true);
+      boolean[] members;
+
+      if (set instanceof RealSet)
+        members = SetAlgebra.members(elements,SetAlgebra.reals(set,false));
+      else
         {
-          double element = i.next();
-          if (!set.contains(element))
-            _remove(element);
+          members = new boolean[elements.length];
+          for (int i = 0; i < elements.length; i++)
+            members[i] = set.contains(elements[i]);
         }
 
-      return this;
+      return _keep(elements,members,true,null,null);
     }
 
   /**
@@ -522,10 +629,10 @@ public class RealSet extends RuntimeSet
    */
   public final RuntimeSet _minus (RuntimeSet set) 
     {
-      for (DoubleIterator i = set.realIterator(false); i.hasNext();)
-        _remove(i.next());
+      double[] elements = SetAlgebra.reals(this,true);
+      boolean[] members = SetAlgebra.members(elements,SetAlgebra.reals(set,false));
 
-      return this;
+      return _keep(elements,members,false,null,null);
     }
 
   /**
@@ -533,13 +640,52 @@ public class RealSet extends RuntimeSet
    */
   public final RuntimeSet _exclusion (RuntimeSet set)
     {
-      for (DoubleIterator i = set.realIterator(true); i.hasNext();)
+      double[] elements = SetAlgebra.reals(this,true);
+      double[] others = SetAlgebra.reals(set,true);
+
+      return _keep(elements,SetAlgebra.members(elements,others),false,
+                   others,SetAlgebra.members(others,elements));
+    }
+
+  /**
+   * Makes this set contain, in this order, those of the specified elements whose
+   * membership flag is equal to the specified boolean, followed by those of the
+   * specified others (if any) whose membership flag is <tt>false</tt>. The elements
+   * are this set's in index order. This set is left untouched when nothing changes,
+   * and otherwise rebuilt in one pass, without holes.
+   */
+  private final RuntimeSet _keep (double[] elements, boolean[] members, boolean keep,
+                                  double[] others, boolean[] otherMembers)
+    {
+      int added = others == null ? 0 : SetAlgebra.countMissing(otherMembers);
+      double[] result = new double[elements.length + added];
+      int count = 0;
+
+      for (int i = 0; i < elements.length; i++)
+        if (members[i] == keep) result[count++] = elements[i];
+
+      if (count == elements.length && added == 0)
+        return this;
+
+      for (int i = 0; added > 0 && i < others.length; i++)
+        if (!otherMembers[i]) result[count++] = others[i];
+
+      _map = new DoubleToIntMap();
+      _slots = result;
+      _isShared = false;
+      _clearIndices();
+      _array = null;
+      _realRange = null;
+      _min = Double.POSITIVE_INFINITY;
+      _max = Double.NEGATIVE_INFINITY;
+      _contentHash = 0;
+
+      for (int i = 0; i < count; i++)
         {
-          double element = i.next();
-          if (contains(element))
-            _remove(element);
-          else
-            _add(element);             
+          _map.put(result[i],_newIndex());
+          _min = Math.min(_min,result[i]);
+          _max = Math.max(_max,result[i]);
+          _contentHash += _elementHash(result[i]);
         }
 
       return this;
@@ -698,7 +844,8 @@ public class RealSet extends RuntimeSet
 
       RuntimeSet other = (RuntimeSet)object;
 
-      if (size() != other.size())
+      if (size() != other.size()
+          || other instanceof RuntimeSet && hashCode() != other.hashCode())
         return false;
 
       for (DoubleIterator i = realIterator(false); i.hasNext();)
@@ -725,7 +872,8 @@ public class RealSet extends RuntimeSet
 
       RuntimeSet other = (RuntimeSet)object;
 
-      if (size() != other.size())
+      if (size() != other.size()
+          || other instanceof RuntimeSet && hashCode() != other.hashCode())
         return false;
 
      for (Iterator i = _map.iterator(); i.hasNext();)
@@ -767,7 +915,7 @@ public class RealSet extends RuntimeSet
 
       public final Object next ()
         {
-          return new RuntimeReal(_iterator.next());
+          return Runtime.newReal(_iterator.next());
         }
 
       public final void remove ()
@@ -5,7 +5,7 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 21:53:37 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
@@ -22,6 +22,9 @@ import hlt.language.util.IntStack;
 import hlt.language.util.DoubleStack;
 import hlt.language.tools.Debug;
 
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
 /**
  * This is the class defining a runtime object. Such an object serves
  * as the common execution environment context shared by <a
@@ -83,6 +86,35 @@ import hlt.language.tools.Debug;
  * href="../kernel/Compiler.html"><tt>Compiler</tt></a> proceed to generating
  * instructions which will safely act on the appropriate stacks and
  * environments of the correct sort (integer, floating-point, or object).
+ *
+ * <p>
+ *
+ * <b>Concurrency.</b> A <tt>Runtime</tt> object is not thread-safe and
+ * must be confined to one thread at a time. However, distinct runtimes
+ * share no mutable state (the tracing flag, in particular, is specific to
+ * each runtime), and may therefore run concurrently in distinct threads
+ * of the same JVM, subject to the following conditions on what they share:
+ *
+ * <ul>
+ * <li> code arrays, <a href="Block.html"><tt>Block</tt></a>s, and
+ *      <a href="Closure.html"><tt>Closure</tt></a>s may be shared as long as
+ *      they are not modified - note that a <a href="../types/DefinedEntry.html">
+ *      <tt>DefinedEntry</tt></a> that is set on evaluation modifies its code
+ *      the first time it is evaluated, which should thus be done before its
+ *      code is shared;
+ * <li> runtime values such as sets, maps, tuples, and object instances may
+ *      not be shared between runtimes that access them concurrently, even for
+ *      reading, since some read operations update internal caches (<i>e.g.</i>,
+ *      the index array of a <a href="RuntimeSet.html"><tt>RuntimeSet</tt></a>);
+ * <li> canonical constants such as <tt>BOXED_TRUE</tt> or
+ *      <a href="RuntimeInt.html"><tt>RuntimeInt.ZERO</tt></a> are immutable and
+ *      may be shared freely;
+ * <li> each runtime should have its own <a href="DisplayManager.html">
+ *      <tt>DisplayManager</tt></a> since the default display form manager keeps
+ *      a tag table while formatting objects;
+ * <li> tracing displays types using the shared type naming table, and should
+ *      thus be enabled in one runtime at a time.
+ * </ul>
  */
 
 public class Runtime
@@ -128,11 +160,64 @@ public class Runtime
   protected int _ip;
 
   /**
-   * This is the stack recording saved states of computation to allow safe
-   * excursions on closure applications. This is affected by the
-   * <tt>saveState()</tt> and <tt>restoreState()</tt> methods.
+   * <b>The following parallel arrays make up the save stack, which records saved
+   * states of computation to allow safe excursions on closure applications. This
+   * is affected by the <tt>saveState()</tt> and <tt>restoreState()</tt> methods.
+   * A saved state is identified by its depth in the save stack; saving a state
+   * thus allocates nothing beyond the occasional growth of these arrays.</b>
+   */
+
+  /**
+   * This is the initial capacity of the save stack.
+   */
+  private static final int SAVE_STACK_CAPACITY = 32;
+
+  /**
+   * A constant denoting the absence of a saved state.
+   */
+  public static final int NO_STATE = -1;
+
+  /**
+   * These record the code array and the next instruction pointer of each saved state.
+   */
+  protected Instruction[][] _savedCode      = new Instruction[SAVE_STACK_CAPACITY][];
+  protected int[]           _savedIP        = new int[SAVE_STACK_CAPACITY];
+
+  /**
+   * These record the sizes of the three result stacks of each saved state.
+   */
+  protected int[]   _savedIntStackPoint     = new int[SAVE_STACK_CAPACITY];
+  protected int[]   _savedRealStackPoint    = new int[SAVE_STACK_CAPACITY];
+  protected int[]   _savedObjectStackPoint  = new int[SAVE_STACK_CAPACITY];
+
+  /**
+   * These record the sizes of the three environment stacks of each saved state.
+   */
+  protected int[]   _savedIntEnvPoint       = new int[SAVE_STACK_CAPACITY];
+  protected int[]   _savedRealEnvPoint      = new int[SAVE_STACK_CAPACITY];
+  protected int[]   _savedObjectEnvPoint    = new int[SAVE_STACK_CAPACITY];
+
+  /**
+   * This records, for each saved state, the exitable state that was current in
+   * this runtime at the time the state was saved.
+   */
+  protected int[]   _savedExitableState     = new int[SAVE_STACK_CAPACITY];
+
+  /**
+   * This records, for each saved state that is exitable, the exitable state that
+   * immediately encloses it (or <tt>NO_STATE</tt> if it is the outermost one).
+   */
+  protected int[]   _enclosingExitableState = new int[SAVE_STACK_CAPACITY];
+
+  /**
+   * This records whether each saved state is exitable.
+   */
+  protected boolean[] _isExitableState      = new boolean[SAVE_STACK_CAPACITY];
+
+  /**
+   * This is the number of states in the save stack.
    */
-  protected Stack         _saveStack      = new Stack();
+  protected int _saveDepth = 0;
 
   /**
    * This is the stack recording saved states of computation to allow safe
@@ -161,27 +246,29 @@ public class Runtime
 
   /**
    * <b>The three following stacks record closure environments (<i>i.e.</i>, encapsulated
-   * values of local variables that belong to enclosing lexical scopes).</b>
+   * values of local variables that belong to enclosing lexical scopes). They share the
+   * frames of the closures that are applied rather than copy them (see <a href=
+   * "IntEnvironment.html"><tt>IntEnvironment</tt></a>).</b>
    */
 
   /**
    * This stack records integer environments.
    */
-  protected IntStack      _intEnv         = new IntStack();
+  protected IntEnvironment    _intEnv     = new IntEnvironment();
   /**
    * This stack records floating-point number environments.
    */
-  protected DoubleStack   _realEnv        = new DoubleStack();
+  protected RealEnvironment   _realEnv    = new RealEnvironment();
   /**
    * This stack records object environments.
    */
-  protected Stack         _objectEnv      = new Stack();
+  protected ObjectEnvironment _objectEnv  = new ObjectEnvironment();
 
   /**
-   * When non <tt>null</tt>, this is the state saved when the current
+   * When not <tt>NO_STATE</tt>, this is the state saved when the current
    * enclosing exitable closure is applied.
    */
-  protected State _currentExitableState = null;
+  protected int _currentExitableState = NO_STATE;
 
   /**
    * This value records the runtime sort of the latest value that was pushed
@@ -197,20 +284,30 @@ public class Runtime
   /**
    * This flag indicates that tracing in on (for debugging purposes).
    */
-  private static boolean _tracing = false;
+  private boolean _tracing = false;
+
+  /**
+   * This flag indicates that tracing is on for all runtimes; it is only set by
+   * the deprecated static <tt>toggleTrace()</tt>.
+   */
+  private static volatile boolean _tracingAll = false;
 
   ////////////////////////////////////////////////////////////////////
   
   /**
-   * This is the default display manager associated to this runtime.
+   * This is the display manager associated to this runtime. Unless one is set,
+   * a default display manager is created the first time it is needed.
    */
-  private DisplayManager _displayManager = new DefaultDisplayManager();
+  private DisplayManager _displayManager;
 
   /**
    * Returns this runtime's display manager.
    */
   public final DisplayManager displayManager ()
     {
+      if (_displayManager == null)
+        _displayManager = new DefaultDisplayManager();
+
       return _displayManager;
     }
 
@@ -219,7 +316,7 @@ public class Runtime
    */
   public final DisplayManager getDisplayManager ()
     {
-      return _displayManager;
+      return displayManager();
     }
 
   /**
@@ -237,7 +334,7 @@ public class Runtime
    */
   public final DisplayDeviceManager displayDeviceManager ()
     {
-      return _displayManager.displayDeviceManager();
+      return displayManager().displayDeviceManager();
     }
 
   /**
@@ -245,7 +342,7 @@ public class Runtime
    */
   public final DisplayDeviceManager getDisplayDeviceManager ()
     {
-      return _displayManager.displayDeviceManager();
+      return displayManager().displayDeviceManager();
     }
 
   /**
@@ -254,7 +351,7 @@ public class Runtime
    */
   public final Runtime setDisplayDeviceManager (DisplayDeviceManager displayDeviceManager)
     {
-      _displayManager.setDisplayDeviceManager(displayDeviceManager);
+      displayManager().setDisplayDeviceManager(displayDeviceManager);
       return this;
     }
 
@@ -263,7 +360,7 @@ public class Runtime
    */
   public final DisplayFormManager displayFormManager ()
     {
-      return _displayManager.displayFormManager();
+      return displayManager().displayFormManager();
     }
 
   /**
@@ -271,7 +368,7 @@ public class Runtime
    */
   public final DisplayFormManager getDisplayFormManager ()
     {
-      return _displayManager.displayFormManager();
+      return displayManager().displayFormManager();
     }
 
   /**
@@ -280,20 +377,48 @@ public class Runtime
    */
   public final Runtime setDisplayFormManager (DisplayFormManager displayFormManager)
     {
-      _displayManager.setDisplayFormManager(displayFormManager);
+      displayManager().setDisplayFormManager(displayFormManager);
       return this;
     }
 
   ////////////////////////////////////////////////////////////////////
   
   /**
-   * Sets the code array to the specified one.
+   * Returns the current code array.
+   */
+  public final Instruction[] code ()
+    {
+      return _code;
+    }
+
+  /**
+   * Sets the code array to the specified one. What this runtime has derived
+   * from it is kept, unless <tt>codeChanged</tt> has been called on it.
    */
   public final void setCode (Instruction[] code)
     {
       _code = code;
     }
 
+  /**
+   * Drops what this runtime has derived from the specified code array, namely
+   * its return mask and its compiled code. This must be called whenever a code
+   * array that may already have been executed is modified in place (<i>e.g.</i>,
+   * the code of a <a href="../types/DefinedEntry.html"><tt>DefinedEntry</tt></a>
+   * that is set on evaluation).
+   */
+  public final void codeChanged (Instruction[] code)
+    {
+      _returnMasks.remove(code);
+      if (_compiler != null) _compiler.codeChanged(code);
+
+      if (code == _maskedCode)
+        {
+          _maskedCode = null;
+          _mask = null;
+        }
+    }
+
   /**
    * Returns the value of the current instruction pointer.
    */
@@ -337,6 +462,7 @@ public class Runtime
   public final void pushInt (int x)
     {
       _intStack.push(x);
+      if (_intStack.size() > _intStackMark) _intStackMark = _intStack.size();
       _resultSort = Type.INT_SORT;
     }
 
@@ -346,6 +472,7 @@ public class Runtime
   public final void pushReal (double x)
     {
       _realStack.push(x);
+      if (_realStack.size() > _realStackMark) _realStackMark = _realStack.size();
       _resultSort = Type.REAL_SORT;
     }
 
@@ -355,6 +482,7 @@ public class Runtime
   public final void pushObject (Object x)
     {
       _objectStack.push(x);
+      if (_objectStack.size() > _objectStackMark) _objectStackMark = _objectStack.size();
       _resultSort = Type.OBJECT_SORT;
     }
 
@@ -364,6 +492,7 @@ public class Runtime
   public final void pushBoolean (boolean x)
     {
       _intStack.push(x ? TRUE : FALSE);
+      if (_intStack.size() > _intStackMark) _intStackMark = _intStack.size();
       _resultSort = Type.INT_SORT;
     }
 
@@ -460,6 +589,24 @@ public class Runtime
       return _intStack.peek() == TRUE;
     }
 
+  /**
+   * Returns <tt>true</tt> iff the result stack of the runtime sort of the latest
+   * value pushed is not empty - <i>i.e.</i>, iff the corresponding result method
+   * (<tt>intResult()</tt>, <tt>realResult()</tt>, or <tt>objectResult()</tt>) may be
+   * called.
+   */
+  public final boolean hasResult ()
+    {
+      switch (_resultSort)
+        {
+        case Type.INT_SORT:
+          return !_intStack.isEmpty();
+        case Type.REAL_SORT:
+          return !_realStack.isEmpty();
+        }
+      return !_objectStack.isEmpty();
+    }
+
   ////////////////////////////////////////////////////////////////////
 
   /**
@@ -630,28 +777,23 @@ public class Runtime
   ////////////////////////////////////////////////////////////////////
 
   /**
-   * This returns a boxed integer with the specified int value; values <tt>0</tt>
-   * and <tt>1</tt> are boxed into unique canonical objects since they are frequently
-   * used.
+   * This returns a boxed integer with the specified int value; values within
+   * the cache range of <a href="RuntimeInt.html"><tt>RuntimeInt</tt></a> are
+   * boxed into unique canonical objects since they are frequently used.
    */
   public static final RuntimeInt newInt (int value)
     {
-      switch (value)
-        {
-        case 0: return RuntimeInt.ZERO;      
-        case 1: return RuntimeInt.ONE;      
-        }
-      return new RuntimeInt(value);
+      return RuntimeInt.valueOf(value);
     }
 
   /**
-   * This returns a boxed real number with the specified double value; the value
-   * <tt>0.0</tt> is boxed into a unique canonical object it is frequently used.
+   * This returns a boxed real number with the specified double value; common
+   * values (see <a href="RuntimeReal.html"><tt>RuntimeReal</tt></a>) are boxed
+   * into unique canonical objects since they are frequently used.
    */
   public static final RuntimeReal newReal (double value)
     {
-      if (value == 0.0) return  RuntimeReal.ZERO;      
-      return new RuntimeReal(value);
+      return RuntimeReal.valueOf(value);
     }
 
   ////////////////////////////////////////////////////////////////////
@@ -684,11 +826,12 @@ public class Runtime
 
   /**
    * Pushes all the elements of the specified int array on the environment stack.
+   * The array, which is typically the frame of a closure being applied, may be
+   * shared by the stack rather than copied, and must not be modified afterwards.
    */
   public final void pushIntEnvArray (int[] frame)
     {
-      for (int i=0; i<frame.length; i++)
-        _intEnv.push(frame[i]);
+      _intEnv.pushFrame(frame);
     }
 
   /**
@@ -696,8 +839,7 @@ public class Runtime
    */
   public final void pushRealEnvArray (double[] frame)
     {
-      for (int i=0; i<frame.length; i++)
-        _realEnv.push(frame[i]);
+      _realEnv.pushFrame(frame);
     }
 
   /**
@@ -705,55 +847,41 @@ public class Runtime
    */
   public final void pushObjectEnvArray (Object[] frame)
     {
-      for (int i=0; i<frame.length; i++)
-        _objectEnv.push(frame[i]);
+      _objectEnv.pushFrame(frame);
     }
 
   ////////////////////////////////////////////////////////////////////
 
   /**
    * Copies the latest <tt>size</tt> int values from the environment stack into
-   * an array, and returns the array.
+   * an array, and returns the array. When these values are exactly the frame of
+   * a closure that was pushed as a whole, this frame is returned rather than a
+   * copy of it: since it is then shared, callers must not modify the returned
+   * array.
    */
   public final int[] copyIntEnv (int size)
     {
-      int[] env = new int[size];
-
-      int depth = _intEnv.size()-size;
-      for (int i=0; i<size; i++)
-        env[i] = _intEnv.get(depth+i);
-      
-      return env;
+      return _intEnv.copy(size);
     }
 
   /**
    * Copies the latest <tt>size</tt> double values from the environment stack into
-   * an array, and returns the array.
+   * an array, and returns the array, which may be a shared closure frame and must
+   * not be modified (see <tt>copyIntEnv(int)</tt>).
    */
   public final double[] copyRealEnv (int size)
     {
-      double[] env = new double[size];
-
-      int depth = _realEnv.size()-size;
-      for (int i=0; i<size; i++)
-        env[i] = _realEnv.get(depth+i);
-      
-      return env;
+      return _realEnv.copy(size);
     }
 
   /**
    * Copies the latest <tt>size</tt> objects from the environment stack into
-   * an array, and returns the array.
+   * an array, and returns the array, which may be a shared closure frame and must
+   * not be modified (see <tt>copyIntEnv(int)</tt>).
    */
   public final Object[] copyObjectEnv (int size)
     {
-      Object[] env = new Object[size];
-
-      int depth = _objectEnv.size()-size;
-      for (int i=0; i<size; i++)
-        env[i] = _objectEnv.get(depth+i);
-      
-      return env;
+      return _objectEnv.copy(size);
     }
 
   ////////////////////////////////////////////////////////////////////
@@ -908,28 +1036,27 @@ public class Runtime
    * Pushes the specified state onto the exitable state stack.  This
    * stack is a substack of the save stack: it is threaded in-place from
    * a global private register <tt>_currentExitableState</tt> which
-   * always points to the latest (if any, <tt>null</tt> otherwise)
-   * exitable <tt>State</tt> in the save stack that encloses this runtime's
+   * always points to the latest (if any, <tt>NO_STATE</tt> otherwise)
+   * exitable state in the save stack that encloses this runtime's
    * current state of computation. The exitable states in the stack are
-   * thus link-chained using the <tt>setEnclosingExitableState(State)</tt>
-   * and <tt>getEnclosingExitableState()</tt> methods.
+   * thus link-chained through the <tt>_enclosingExitableState</tt> array.
    */
-  public final void pushExitableState (State state)
+  public final void pushExitableState (int state)
     {
-      state.setEnclosingExitableState(_currentExitableState);
-      _currentExitableState = state.setIsExitable(true);
+      _enclosingExitableState[state] = _currentExitableState;
+      _isExitableState[state] = true;
+      _currentExitableState = state;
     }
 
   /**
-   * Pops and returns the latest exitable <tt>State</tt> in the save
-   * stack that encloses this runtime's current state of
-   * computation. NB: Typechecking garantees that is is always
-   * non-<tt>null</tt>.
+   * Pops and returns the latest exitable state in the save stack that
+   * encloses this runtime's current state of computation. NB:
+   * Typechecking garantees that is is always a saved state.
    */
-  public final State popExitableState ()
+  public final int popExitableState ()
     {
-      State currentExitableState = _currentExitableState;
-      _currentExitableState = _currentExitableState.getEnclosingExitableState();
+      int currentExitableState = _currentExitableState;
+      _currentExitableState = _enclosingExitableState[currentExitableState];
 
       return currentExitableState;
     }
@@ -957,7 +1084,33 @@ public class Runtime
    */
   public final void leaveExitableScope ()
     {
+      RuntimeEvents.Unwind event = new RuntimeEvents.Unwind();
+
+      if (!event.isEnabled())
+        {
+          restoreState(popExitableState());
+          return;
+        }
+
+      event.begin();
+
+      int saveDepth = _saveDepth;
+      int intSize = _intStack.size();
+      int realSize = _realStack.size();
+      int objectSize = _objectStack.size();
+
       restoreState(popExitableState());
+
+      event.end();
+
+      if (event.shouldCommit())
+        {
+          event.savedStates = saveDepth - _saveDepth;
+          event.intValues = intSize - _intStack.size();
+          event.realValues = realSize - _realStack.size();
+          event.objectValues = objectSize - _objectStack.size();
+          event.commit();
+        }
     }
 
   /**
@@ -965,61 +1118,112 @@ public class Runtime
    * stack and returns it.  A state consists of the code array, the next
    * instruction pointer, and the sizes of all the stacks.
    */
-  public final State saveState ()
+  public final int saveState ()
     {
-      State state = new State(_code,_ip+1,
-                              _intStack.size(),_realStack.size(),_objectStack.size(),
-                              _intEnv.size(),_realEnv.size(),_objectEnv.size())
-                              .setCurrentExitableState(_currentExitableState);
-      _saveStack.push(state);
-      return state;
+      return _saveState(_intStack.size(),_realStack.size(),_objectStack.size());
     }
 
   /**
    * Saves this runtime's state of computation obtained after the result stacks
    * have been popped as many arguments as the specified arities.
    */
-  public final State saveState (int intArity, int realArity, int objectArity)
+  public final int saveState (int intArity, int realArity, int objectArity)
+    {
+      return _saveState(_intStack.size() - intArity,
+                        _realStack.size() - realArity,
+                        _objectStack.size() - objectArity);
+    }
+
+  /**
+   * Pushes onto the save stack a state made of this runtime's code array, next
+   * instruction pointer, and environment sizes, and of the specified result stack
+   * sizes, and returns it.
+   */
+  private final int _saveState (int intStackPoint, int realStackPoint, int objectStackPoint)
     {
-      State state = new State(_code,_ip+1,
-                              _intStack.size() - intArity,
-                              _realStack.size() - realArity,
-                              _objectStack.size() - objectArity,
-                              _intEnv.size(),_realEnv.size(),_objectEnv.size())
-                              .setCurrentExitableState(_currentExitableState);
-      _saveStack.push(state);
+      if (_saveDepth == _savedIP.length)
+        _growSaveStack();
+
+      int state = _saveDepth++;
+
+      _savedCode[state] = _code;
+      _savedIP[state] = _ip+1;
+
+      _savedIntStackPoint[state] = intStackPoint;
+      _savedRealStackPoint[state] = realStackPoint;
+      _savedObjectStackPoint[state] = objectStackPoint;
+
+      _savedIntEnvPoint[state] = _intEnv.size();
+      _savedRealEnvPoint[state] = _realEnv.size();
+      _savedObjectEnvPoint[state] = _objectEnv.size();
+
+      _savedExitableState[state] = _currentExitableState;
+      _isExitableState[state] = false;
+
       return state;
     }
 
+  /**
+   * Doubles the capacity of the save stack.
+   */
+  private final void _growSaveStack ()
+    {
+      _resizeSaveStack(2*_savedIP.length);
+    }
+
+  /**
+   * Sets the capacity of the save stack to the specified one, which must not
+   * be less than its depth.
+   */
+  private final void _resizeSaveStack (int capacity)
+    {
+      _savedCode = Arrays.copyOf(_savedCode,capacity);
+      _savedIP = Arrays.copyOf(_savedIP,capacity);
+
+      _savedIntStackPoint = Arrays.copyOf(_savedIntStackPoint,capacity);
+      _savedRealStackPoint = Arrays.copyOf(_savedRealStackPoint,capacity);
+      _savedObjectStackPoint = Arrays.copyOf(_savedObjectStackPoint,capacity);
+
+      _savedIntEnvPoint = Arrays.copyOf(_savedIntEnvPoint,capacity);
+      _savedRealEnvPoint = Arrays.copyOf(_savedRealEnvPoint,capacity);
+      _savedObjectEnvPoint = Arrays.copyOf(_savedObjectEnvPoint,capacity);
+
+      _savedExitableState = Arrays.copyOf(_savedExitableState,capacity);
+      _enclosingExitableState = Arrays.copyOf(_enclosingExitableState,capacity);
+      _isExitableState = Arrays.copyOf(_isExitableState,capacity);
+    }
+
   /**
    * Restores the latest state of computation that was saved in the save stack
    * into this runtime.
    */
   public final void restoreState ()
     {
-      restoreState((State)_saveStack.peek());
+      restoreState(_saveDepth-1);
       _terminated = false;
     }
 
   /**
-   * Restores the specified state of computation into this runtime.
+   * Restores the specified state of computation into this runtime, popping it
+   * from the save stack along with all the states saved after it.
    */
-  public final void restoreState (State s)
+  public final void restoreState (int state)
     {
-      while (_saveStack.peek() != s) _saveStack.pop();
-      _saveStack.pop();
+      int depth = _saveDepth;
+      _saveDepth = state;
 
-      _code = s.code();
-      _ip = s.ip();
-      _currentExitableState = s.getCurrentExitableState();
+      _code = _savedCode[state];
+      if (state < depth) Arrays.fill(_savedCode,state,depth,null);
+      _ip = _savedIP[state];
+      _currentExitableState = _savedExitableState[state];
 
-      _intStack.setSize(s.intStackPoint());
-      _realStack.setSize(s.realStackPoint());
-      _objectStack.setSize(s.objectStackPoint());
+      _intStack.setSize(_savedIntStackPoint[state]);
+      _realStack.setSize(_savedRealStackPoint[state]);
+      _objectStack.setSize(_savedObjectStackPoint[state]);
 
-      _intEnv.setSize(s.intEnvPoint());
-      _realEnv.setSize(s.realEnvPoint());
-      _objectEnv.setSize(s.objectEnvPoint());
+      _intEnv.setSize(_savedIntEnvPoint[state]);
+      _realEnv.setSize(_savedRealEnvPoint[state]);
+      _objectEnv.setSize(_savedObjectEnvPoint[state]);
     }
 
   ////////////////////////////////////////////////////////////////////
@@ -1030,192 +1234,954 @@ public class Runtime
    * along with this runtime's current code array and next instruction pointer into the
    * call stack, and sets this runtime's code array to that of the specified entry's
    * and reset the instruction pointer to 0. Otherwise, a <tt>UnsafeCodeException</tt>
-   * is thrown.
+   * is thrown. If the call is in tail position (see <tt>_isTailCall(DefinedEntry)</tt>),
+   * nothing is pushed: the callee will return directly to the current caller.
    */
   public final void pushCall (DefinedEntry entry) throws UnsafeCodeException
     {
       if (entry.isUnsafe()) throw new UnsafeCodeException(entry);
-      _callStack.push(new CallState(entry,_code,_ip+1));
+
+      if (!(_eliminatesTailCalls && _isTailCall(entry)))
+        {
+          CallState state = new CallState(entry,_code,_ip+1);
+
+          if (RuntimeEvents.CALL_TYPE.isEnabled())
+            {
+              state._event = new RuntimeEvents.Call();
+              state._event.begin();
+            }
+
+          _callStack.push(state);
+          if (_callStack.size() > _callStackMark) _callStackMark = _callStack.size();
+          if (_profiler != null) _profiler.enter(entry);
+        }
+      else
+        {
+          if (_profiler != null) _profiler.replace(entry);
+        }
+
       _code = entry.code();
       _ip = 0;
+
+      if (_compiler != null) _compiler.enter(_code);
     }
 
   /**
-   * If the call stack is  empty, this sets the termination flag to <tt>true</tt>; otherwise,
-   * pops a call state and restores from it the code array and the next instruction pointer.
-   * If the entry from the popped state is to be set on evaluation, this will modify its code
-   * to return the latest value pushed on the appropriate result stack.
+   * This flag indicates whether runtimes eliminate tail calls by default, which
+   * they do unless the system property <tt>hlt.runtime.tailcalls</tt> is <tt>false</tt>.
    */
-  public final void popCall ()
+  public static final boolean ELIMINATES_TAIL_CALLS =
+    !"false".equals(System.getProperty("hlt.runtime.tailcalls"));
+
+  /**
+   * This flag indicates whether calls in tail position reuse the current call
+   * frame rather than push a new one.
+   */
+  private boolean _eliminatesTailCalls = ELIMINATES_TAIL_CALLS;
+
+  /**
+   * This is the call profiler of this runtime, if any.
+   */
+  private CallProfiler _profiler;
+
+  /**
+   * Returns this runtime's call profiler, or <tt>null</tt> if it has none.
+   */
+  public final CallProfiler profiler ()
     {
-      if (_callStack.isEmpty())
-        _terminated = true;
-      else
-        {
-          CallState state = (CallState)_callStack.pop();
-          _code = state.code();
-          _ip = state.ip();
-          DefinedEntry entry = state.entry();
-          if (entry.isSetOnEvaluation())
-            setValue(entry);
-        }
+      return _profiler;
     }
 
   /**
-   * Modifies the code array of the specified <a href="../types/DefinedEntry.html">
-   * <tt>DefinedEntry</tt></a> to one that pushes the latest value that was pushed
-   * on this runtime's appropriate result stack.
+   * Sets this runtime's call profiler to the specified one (or removes it if
+   * <tt>null</tt>), and returns this runtime. Like the choice of a tracing or
+   * untraced engine, this takes effect on the next call to <tt>run()</tt> or
+   * <tt>runBody(Block)</tt>, and should not be done while this runtime is
+   * running.
    */
-  public final void setValue (DefinedEntry entry)
+  public final Runtime setProfiler (CallProfiler profiler)
     {
-      switch (entry.type().boxSort())
-        {
-        case Type.INT_SORT:
-          entry.setValue(_intStack.peek());
-          break;
-        case Type.REAL_SORT:
-          entry.setValue(_realStack.peek());
-          break;
-        default:
-          entry.setValue(_objectStack.peek());
-        }
+      _profiler = profiler;
+      return this;
     }
 
-  ////////////////////////////////////////////////////////////////////
+  /**
+   * These are the stack marks recorded by this runtime, if any.
+   */
+  private StackMarks _stackMarks;
 
   /**
-   * Resets this runtime to a virginal state and returns this.
+   * Returns the stack marks recorded by this runtime, or <tt>null</tt> if it
+   * records none.
    */
-  public final Runtime reset ()
+  public final StackMarks stackMarks ()
     {
-      _clearAllStacks();
-      _ip = 0;
-      _terminated = false;
+      return _stackMarks;
+    }
+
+  /**
+   * Sets the stack marks recorded by this runtime to the specified ones (or
+   * stops recording them if <tt>null</tt>), and returns this runtime. As for
+   * <tt>setProfiler(CallProfiler)</tt>, this takes effect on the next call to
+   * <tt>run()</tt> or <tt>runBody(Block)</tt>.
+   */
+  public final Runtime setStackMarks (StackMarks marks)
+    {
+      _stackMarks = marks;
       return this;
-    }      
+    }
 
   /**
-   * Resets this runtime and sets the code array to the specified one.
+   * This is the default capacity of each stack, used when a stack that has
+   * grown beyond the stack limit is given back.
    */
-  public final void initialize (Instruction[] code)
+  public static final int DEFAULT_STACK_CAPACITY = 16;
+
+  /**
+   * These are the capacities of this runtime's stacks, indexed as in <a href=
+   * "StackMarks.html"><tt>StackMarks</tt></a>, as set by <tt>presize(StackMarks)</tt>.
+   */
+  private int[] _stackCapacities;
+
+  /**
+   * When positive, this is the size beyond which a stack is reallocated to its
+   * capacity when this runtime is reset.
+   */
+  private int _stackLimit = 0;
+
+  /**
+   * Returns the capacity of the specified stack, indexed as in <tt>StackMarks</tt>.
+   */
+  private final int _stackCapacity (int stack)
     {
-      reset();
-      _code = code;
+      if (_stackCapacities == null)
+        return stack == StackMarks.SAVE_STACK ? SAVE_STACK_CAPACITY : DEFAULT_STACK_CAPACITY;
+
+      return _stackCapacities[stack];
     }
 
   /**
-   * Clears all the stacks.
+   * Resets this runtime and reallocates its stacks with capacities taken from
+   * the overall marks of the specified stack marks, so that runs reaching no
+   * higher marks never need to grow them; then returns this runtime.
    */
-  private final void _clearAllStacks ()
+  public final Runtime presize (StackMarks marks)
     {
-      _saveStack.clear();
-      _callStack.clear();
+      _stackCapacities = new int[StackMarks.STACK_COUNT];
 
-      _intStack.clear();
-      _realStack.clear();
-      _objectStack.clear();
+      for (int i = StackMarks.STACK_COUNT; i-->0;)
+        _stackCapacities[i] = Math.max(1,marks.maxMark(i));
 
-      _intEnv.clear();
-      _realEnv.clear();
-      _objectEnv.clear();
+      for (int i = StackMarks.STACK_COUNT; i-->0;)
+        _reallocateStack(i);
+
+      return reset();
     }
 
   /**
-   * Resets this runtime, sets the code array to the specified one, and
-   * initiates execution of this runtime's code, which proceeds as long
-   * as the termination flag is not set.
+   * Returns this runtime's stack limit.
    */
-  public final void run (Instruction[] code) throws Exception
+  public final int stackLimit ()
     {
-      initialize(code);
-      run();
+      return _stackLimit;
     }
 
   /**
-   * Initiates execution of this runtime's code and proceeds as long
-   * as the termination flag is not set.
+   * Sets this runtime's stack limit, and returns this runtime. When this limit
+   * is positive, resetting this runtime reallocates to its capacity (see
+   * <tt>presize(StackMarks)</tt>) any stack that holds room for more elements
+   * than the limit, so that a pathological program does not pin a huge stack in
+   * a long-lived (<i>e.g.</i>, pooled) runtime. The room held by an environment
+   * stack or the save stack is its capacity; that of a result stack or the call
+   * stack, whose capacities are not exposed, is the highest size it reached since
+   * it was allocated, which its capacity grew to hold.
    */
-  public final void run () throws Exception
+  public final Runtime setStackLimit (int limit)
     {
-       while (!_terminated)
-         {
-           if (_tracing) _showState();
-           _currentInstruction().execute(this);
-         }
+      _stackLimit = limit;
+      return this;
     }
 
   /**
-   * Initiates execution of the specified block's body, and proceeds as long
-   * as the current instruction is not a return instruction.
+   * These are the highest sizes reached by the result stacks and the call stack
+   * since they were allocated.
    */
-  public final void runBody (Block block) throws Exception
+  private int _intStackMark;
+  private int _realStackMark;
+  private int _objectStackMark;
+  private int _callStackMark;
+
+  /**
+   * Returns the number of elements the specified stack, indexed as in <tt>StackMarks</tt>,
+   * holds room for (see <tt>setStackLimit(int)</tt>).
+   */
+  private final int _stackRoom (int stack)
     {
-      _code = block.code();
-      _ip = block.address();
-      Instruction inst = null;
+      switch (stack)
+        {
+        case StackMarks.INT_STACK:
+          return _intStackMark;
+        case StackMarks.REAL_STACK:
+          return _realStackMark;
+        case StackMarks.OBJECT_STACK:
+          return _objectStackMark;
+        case StackMarks.INT_ENV:
+          return _intEnv.capacity();
+        case StackMarks.REAL_ENV:
+          return _realEnv.capacity();
+        case StackMarks.OBJECT_ENV:
+          return _objectEnv.capacity();
+        case StackMarks.SAVE_STACK:
+          return _savedCode.length;
+        }
 
-      for (;;)
-         {
-           if (_tracing) _showState();
-           inst = _currentInstruction();
-           if (inst.isReturn()) return;
-           inst.execute(this);
-         }
+      return _callStackMark;
     }
 
   /**
-   * Returns the instruction currently indicated by the instruction pointer.
+   * Reallocates to its capacity each stack that holds room for more elements than
+   * both the stack limit and that capacity.
    */
-  private final Instruction _currentInstruction ()
+  private final void _shrinkStacks ()
     {
-      return (Instruction)_code[_ip];
+      for (int i = StackMarks.STACK_COUNT; i-->0;)
+        {
+          int room = _stackRoom(i);
+
+          if (room > _stackLimit && room > _stackCapacity(i))
+            _reallocateStack(i);
+        }
     }
 
   /**
-   * Stops the execution of this runtime.
+   * Replaces the specified stack by an empty one of its capacity. This is only
+   * called on stacks that are about to be cleared.
    */
-  public final void stop ()
+  private final void _reallocateStack (int stack)
     {
-      _terminated = true;
+      int capacity = _stackCapacity(stack);
+
+      switch (stack)
+        {
+        case StackMarks.INT_STACK:
+          _intStack = new IntStack(capacity);
+          _intStackMark = 0;
+          break;
+        case StackMarks.REAL_STACK:
+          _realStack = new DoubleStack(capacity);
+          _realStackMark = 0;
+          break;
+        case StackMarks.OBJECT_STACK:
+          _objectStack = new Stack(capacity);
+          _objectStackMark = 0;
+          break;
+        case StackMarks.INT_ENV:
+          _intEnv = new IntEnvironment(capacity);
+          break;
+        case StackMarks.REAL_ENV:
+          _realEnv = new RealEnvironment(capacity);
+          break;
+        case StackMarks.OBJECT_ENV:
+          _objectEnv = new ObjectEnvironment(capacity);
+          break;
+        case StackMarks.SAVE_STACK:
+          _saveDepth = 0;
+          _resizeSaveStack(capacity);
+          break;
+        case StackMarks.CALL_STACK:
+          _callStack = new Stack(capacity);
+          _callStackMark = 0;
+        }
     }
 
   /**
-   * Toggles the tracing flag.
+   * This is the code compiler of this runtime, if any.
    */
-  public final static void toggleTrace ()
-    {
-      _tracing = !_tracing;
+  private CodeCompiler _compiler;
 
+  /**
+   * Returns this runtime's code compiler, or <tt>null</tt> if it has none.
+   */
+  public final CodeCompiler compiler ()
+    {
+      return _compiler;
     }
 
   /**
-   * Returns the tracing flag.
+   * Sets this runtime's code compiler to the specified one (or removes it if
+   * <tt>null</tt>), and returns this runtime. With a compiler, this runtime
+   * runs in tiered mode: code arrays that are entered often are compiled into
+   * JVM classes (see <a href="CodeCompiler.html"><tt>CodeCompiler</tt></a>),
+   * which are executed in place of the interpretive loop. Compiled code is only
+   * executed by the untraced engines, and never by budgeted, profiled, or
+   * stack-marking runs, which need to observe each instruction. As for
+   * <tt>setProfiler(CallProfiler)</tt>, this takes effect on the next call
+   * to <tt>run()</tt> or <tt>runBody(Block)</tt>.
    */
-  public final static boolean isTracing ()
+  public final Runtime setCompiler (CodeCompiler compiler)
     {
-      return _tracing;
+      _compiler = compiler;
+      return this;
     }
 
-  ////////////////////////////////////////////////////////////////////
+  /**
+   * Returns <tt>true</tt> iff this runtime eliminates tail calls.
+   */
+  public final boolean eliminatesTailCalls ()
+    {
+      return _eliminatesTailCalls;
+    }
 
   /**
-   * FP: If true the trace must stop at each step
+   * Sets whether this runtime eliminates tail calls (see <tt>ELIMINATES_TAIL_CALLS</tt>
+   * for the default), and returns this runtime. Disabling it may be useful for
+   * debugging since the call stack then records every pending call.
    */
-  protected boolean mustStop ()
+  public final Runtime setTailCallElimination (boolean flag)
     {
-      return true;
+      _eliminatesTailCalls = flag;
+      return this;
     }
-  
+
   /**
-   * Prints out a display form of this runtime's result and environment stacks.
+   * Returns <tt>true</tt> iff a call to the specified entry from the current
+   * instruction is a tail call that may reuse the current call frame. This is the
+   * case when the next instruction is a return instruction, since returning from
+   * the callee would then immediately return from the caller, unless:
+   * <ul>
+   * <li> the entry is to be set on evaluation, as it then needs its own frame
+   *      for its value to be set when it returns;
+   * <li> a block body is being executed by <tt>runBody(Block)</tt>, which stops
+   *      on a return instruction rather than execute it, so that the frames
+   *      pushed in the body must all be there when it stops.
+   * </ul>
    */
-  private final void _showStacks (IntStack i, DoubleStack r, Stack o)
+  private final boolean _isTailCall (DefinedEntry entry)
     {
-      System.out.println("\n\tINT:\t\tREAL:\t\tOBJECT:\n");
+      return _bodyDepth == 0
+          && _ip+1 < _code.length
+          && _code[_ip+1] != null
+          && _code[_ip+1].isReturn()
+          && !entry.isSetOnEvaluation();
+    }
 
-      int depth = Math.max(i.size(),Math.max(r.size(),o.size()));
+  /**
+   * The number of pending calls to <tt>runBody(Block)</tt>.
+   */
+  private int _bodyDepth;
 
-      for (int j=depth; j-->0;)
+  /**
+   * If the call stack is  empty, this sets the termination flag to <tt>true</tt>; otherwise,
+   * pops a call state and restores from it the code array and the next instruction pointer.
+   * If the entry from the popped state is to be set on evaluation, this will modify its code
+   * to return the latest value pushed on the appropriate result stack.
+   */
+  public final void popCall ()
+    {
+      if (_profiler != null) _profiler.exit();
+
+      if (_callStack.isEmpty())
+        _terminated = true;
+      else
+        {
+          CallState state = (CallState)_callStack.pop();
+
+          if (state._event != null)
+            _endCallEvent(state);
+
+          _code = state.code();
+          _ip = state.ip();
+          DefinedEntry entry = state.entry();
+          if (entry.isSetOnEvaluation())
+            setValue(entry);
+        }
+    }
+
+  /**
+   * Ends the call event of the specified call state, and commits it if the
+   * call lasted longer than the event's threshold.
+   */
+  private final void _endCallEvent (CallState state)
+    {
+      RuntimeEvents.Call event = state._event;
+      state._event = null;
+      event.end();
+
+      if (event.shouldCommit())
+        {
+          event.entry = String.valueOf(state.entry());
+          event.callDepth = _callStack.size();
+          event.commit();
+        }
+    }
+
+  /**
+   * Modifies the code array of the specified <a href="../types/DefinedEntry.html">
+   * <tt>DefinedEntry</tt></a> to one that pushes the latest value that was pushed
+   * on this runtime's appropriate result stack.
+   */
+  public final void setValue (DefinedEntry entry)
+    {
+      switch (entry.type().boxSort())
+        {
+        case Type.INT_SORT:
+          entry.setValue(_intStack.peek());
+          break;
+        case Type.REAL_SORT:
+          entry.setValue(_realStack.peek());
+          break;
+        default:
+          entry.setValue(_objectStack.peek());
+        }
+    }
+
+  ////////////////////////////////////////////////////////////////////
+
+  /**
+   * Resets this runtime to a virginal state and returns this.
+   */
+  public final Runtime reset ()
+    {
+      if (_profiler != null) _profiler.exitAll();
+      if (_stackLimit > 0) _shrinkStacks();
+      if (_stackMarks != null) _stackMarks.endRun();
+      _clearAllStacks();
+      _maskedCode = null;
+      _mask = null;
+      _ip = 0;
+      _terminated = false;
+      return this;
+    }      
+
+  /**
+   * Resets this runtime and sets the code array to the specified one.
+   */
+  public final void initialize (Instruction[] code)
+    {
+      reset();
+      _code = code;
+    }
+
+  /**
+   * Clears all the stacks.
+   */
+  private final void _clearAllStacks ()
+    {
+      Arrays.fill(_savedCode,null);
+      _saveDepth = 0;
+      _currentExitableState = NO_STATE;
+      _callStack.clear();
+
+      _intStack.clear();
+      _realStack.clear();
+      _objectStack.clear();
+
+      _intEnv.clear();
+      _realEnv.clear();
+      _objectEnv.clear();
+    }
+
+  /**
+   * Resets this runtime, sets the code array to the specified one, and
+   * initiates execution of this runtime's code, which proceeds as long
+   * as the termination flag is not set.
+   */
+  public final void run (Instruction[] code) throws Exception
+    {
+      initialize(code);
+      run();
+    }
+
+  /**
+   * Initiates execution of this runtime's code and proceeds as long
+   * as the termination flag is not set. The execution engine (traced or
+   * untraced) is chosen once, when execution starts; therefore, toggling
+   * the tracing flag while this runtime is running takes effect on the
+   * next call to <tt>run()</tt> or <tt>runBody(Block)</tt>.
+   */
+  public final void run () throws Exception
+    {
+      RuntimeEvents.Run event = new RuntimeEvents.Run();
+      event.begin();
+
+      try
+        {
+          if (_isInstrumented())
+            {
+              _runInstrumented(Long.MAX_VALUE);
+              return;
+            }
+
+          if (isTraced())
+            _runTraced();
+          else
+            if (_compiler != null)
+              _runTiered();
+            else
+              _runUntraced();
+        }
+      finally
+        {
+          _endRunEvent(event,-1);
+        }
+    }
+
+  /**
+   * Resets this runtime, sets the code array to the specified one, and
+   * executes at most <tt>budget</tt> instructions of it. This returns
+   * <tt>true</tt> if execution has terminated, and <tt>false</tt> if it has
+   * been suspended for exhausting its budget (see <tt>run(long)</tt>).
+   */
+  public final boolean run (Instruction[] code, long budget) throws Exception
+    {
+      initialize(code);
+      return run(budget);
+    }
+
+  /**
+   * Proceeds with the execution of this runtime's code for at most <tt>budget</tt>
+   * instructions. This returns <tt>true</tt> if execution has terminated, and
+   * <tt>false</tt> if it has been suspended for exhausting its budget. In the
+   * latter case, the state of this runtime is left exactly as it was after the
+   * last executed instruction, so that calling <tt>run(long)</tt> (or <tt>run()</tt>)
+   * again resumes execution where it left off. This lets a scheduler interleave
+   * the execution of many runtimes on a few threads, or abandon a runaway
+   * program (in which case the runtime should be <tt>reset()</tt> before being
+   * reused).
+   *
+   * <p>
+   *
+   * Only the instructions dispatched by this engine are counted; an instruction
+   * that itself runs a block body (<i>e.g.</i>, by applying a closure from Java
+   * code through <tt>runBody(Block)</tt>) counts as one, and cannot be suspended.
+   */
+  public final boolean run (long budget) throws Exception
+    {
+      RuntimeEvents.Run event = new RuntimeEvents.Run();
+      event.begin();
+
+      try
+        {
+          if (_isInstrumented())
+            return _runInstrumented(budget);
+
+          if (isTraced())
+            return _runTraced(budget);
+
+          return _runUntraced(budget);
+        }
+      finally
+        {
+          _endRunEvent(event,budget);
+        }
+    }
+
+  /**
+   * Ends the specified run event, and commits it if it lasted longer than
+   * its threshold.
+   */
+  private final void _endRunEvent (RuntimeEvents.Run event, long budget)
+    {
+      event.end();
+
+      if (event.shouldCommit())
+        {
+          event.budget = budget;
+          event.terminated = _terminated;
+          event.callDepth = _callStack.size();
+          event.commit();
+        }
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this runtime's execution has terminated.
+   */
+  public final boolean isTerminated ()
+    {
+      return _terminated;
+    }
+
+  /**
+   * This is the untraced execution engine: it dispatches on the current
+   * instruction until the termination flag is set without any further
+   * per-instruction test.
+   */
+  private final void _runUntraced () throws Exception
+    {
+      while (!_terminated)
+        _code[_ip].execute(this);
+    }
+
+  /**
+   * This is the tiered execution engine: it works like the untraced one, but
+   * executes the compiled code of the current code array, if there is one,
+   * rather than interpret it. The compiled code is looked up only when the
+   * code array changes.
+   */
+  private final void _runTiered () throws Exception
+    {
+      CodeCompiler compiler = _compiler;
+      Instruction[] code = null;
+      CompiledCode compiled = null;
+
+      while (!_terminated)
+        {
+          if (_code != code)
+            compiled = compiler.compiled(code = _code);
+
+          if (compiled != null)
+            compiled.execute(this,false);
+          else
+            code[_ip].execute(this);
+        }
+    }
+
+  /**
+   * This is the traced execution engine: it works like the untraced one,
+   * but shows this runtime's state before each instruction is executed.
+   */
+  private final void _runTraced () throws Exception
+    {
+      while (!_terminated)
+        {
+          _showState();
+          _code[_ip].execute(this);
+        }
+    }
+
+  /**
+   * This is the untraced budgeted execution engine: it works like the
+   * untraced one, but also stops once <tt>budget</tt> instructions have
+   * been executed.
+   */
+  private final boolean _runUntraced (long budget) throws Exception
+    {
+      while (!_terminated && budget-- > 0)
+        _code[_ip].execute(this);
+
+      return _terminated;
+    }
+
+  /**
+   * This is the traced budgeted execution engine.
+   */
+  private final boolean _runTraced (long budget) throws Exception
+    {
+      while (!_terminated && budget-- > 0)
+        {
+          _showState();
+          _code[_ip].execute(this);
+        }
+
+      return _terminated;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this runtime must be run by an instrumented
+   * execution engine; <i>i.e.</i>, if it has a call profiler or records
+   * stack marks.
+   */
+  private final boolean _isInstrumented ()
+    {
+      return _profiler != null || _stackMarks != null;
+    }
+
+  /**
+   * This is the instrumented execution engine: it counts each instruction it
+   * executes for this runtime's profiler, if any, and samples the sizes of
+   * this runtime's stacks after it for its stack marks, if any (showing this
+   * runtime's state first if tracing is on). Upon termination, it closes all
+   * pending activations of the profiler.
+   */
+  private final boolean _runInstrumented (long budget) throws Exception
+    {
+      CallProfiler profiler = _profiler;
+      StackMarks marks = _stackMarks;
+      boolean tracing = isTraced();
+
+      while (!_terminated && budget-- > 0)
+        {
+          if (tracing) _showState();
+          if (profiler != null) profiler._instructionCount++;
+          _code[_ip].execute(this);
+          if (marks != null) _sampleStacks(marks);
+        }
+
+      if (_terminated && profiler != null)
+        profiler.exitAll();
+
+      return _terminated;
+    }
+
+  /**
+   * Records the current sizes of this runtime's stacks into the specified marks.
+   */
+  private final void _sampleStacks (StackMarks marks)
+    {
+      marks.sample(_intStack.size(),_realStack.size(),_objectStack.size(),
+                   _intEnv.size(),_realEnv.size(),_objectEnv.size(),
+                   _saveDepth,_callStack.size());
+    }
+
+  /**
+   * Initiates execution of the specified block's body, and proceeds as long
+   * as the current instruction is not a return instruction. As for <tt>run()</tt>,
+   * the execution engine is chosen once, when execution starts.
+   */
+  public final void runBody (Block block) throws Exception
+    {
+      _code = block.code();
+      _ip = block.address();
+
+      if (_compiler != null) _compiler.enter(_code);
+
+      _bodyDepth++;
+
+      try
+        {
+          if (_isInstrumented())
+            _runBodyInstrumented();
+          else
+            if (isTraced())
+              _runBodyTraced();
+            else
+              if (_compiler != null)
+                _runBodyTiered();
+              else
+                _runBodyUntraced();
+        }
+      finally
+        {
+          _bodyDepth--;
+        }
+    }
+
+  /**
+   * This is the untraced execution engine for block bodies. Rather than
+   * asking each instruction whether it is a return instruction, it uses
+   * the pre-decoded return mask of the current code array, which it
+   * fetches again only when the code array changes.
+   */
+  private final void _runBodyUntraced () throws Exception
+    {
+      Instruction[] code = _code;
+      boolean[] returns = _returnMask(code);
+
+      for (;;)
+        {
+          if (_code != code)
+            returns = _returnMask(code = _code);
+
+          if (returns[_ip]) return;
+
+          code[_ip].execute(this);
+        }
+    }
+
+  /**
+   * This is the tiered execution engine for block bodies.
+   */
+  private final void _runBodyTiered () throws Exception
+    {
+      CodeCompiler compiler = _compiler;
+      Instruction[] code = _code;
+      boolean[] returns = _returnMask(code);
+      CompiledCode compiled = compiler.compiled(code);
+
+      for (;;)
+        {
+          if (_code != code)
+            {
+              returns = _returnMask(code = _code);
+              compiled = compiler.compiled(code);
+            }
+
+          if (compiled != null)
+            {
+              if (compiled.execute(this,true)) return;
+              continue;
+            }
+
+          if (returns[_ip]) return;
+
+          code[_ip].execute(this);
+        }
+    }
+
+  /**
+   * This is the traced execution engine for block bodies.
+   */
+  private final void _runBodyTraced () throws Exception
+    {
+      Instruction[] code = _code;
+      boolean[] returns = _returnMask(code);
+
+      for (;;)
+        {
+          _showState();
+
+          if (_code != code)
+            returns = _returnMask(code = _code);
+
+          if (returns[_ip]) return;
+
+          code[_ip].execute(this);
+        }
+    }
+
+  /**
+   * This is the instrumented execution engine for block bodies.
+   */
+  private final void _runBodyInstrumented () throws Exception
+    {
+      CallProfiler profiler = _profiler;
+      StackMarks marks = _stackMarks;
+      boolean tracing = isTraced();
+      Instruction[] code = _code;
+      boolean[] returns = _returnMask(code);
+
+      for (;;)
+        {
+          if (tracing) _showState();
+
+          if (_code != code)
+            returns = _returnMask(code = _code);
+
+          if (returns[_ip]) return;
+
+          if (profiler != null) profiler._instructionCount++;
+          code[_ip].execute(this);
+          if (marks != null) _sampleStacks(marks);
+        }
+    }
+
+  /**
+   * This is a cache of the return masks of the code arrays that have been
+   * executed by <tt>runBody(Block)</tt>. It is keyed by the code arrays
+   * themselves (which hash and compare by identity) and weakly so, in order
+   * not to retain code that is no longer used.
+   */
+  private final WeakHashMap _returnMasks = new WeakHashMap();
+
+  /**
+   * The code array whose return mask was last fetched, and that mask.
+   */
+  private Instruction[] _maskedCode;
+  private boolean[] _mask;
+
+  /**
+   * Returns the return mask of the specified code array; <i>i.e.</i>, an
+   * array of booleans such that <tt>mask[i]</tt> is <tt>true</tt> iff
+   * <tt>code[i].isReturn()</tt>. A mask is computed once per code array,
+   * and recomputed only after <tt>codeChanged</tt> is called on it.
+   */
+  private final boolean[] _returnMask (Instruction[] code)
+    {
+      if (code == _maskedCode)
+        return _mask;
+
+      boolean[] mask = (boolean[])_returnMasks.get(code);
+
+      if (mask == null)
+        {
+          mask = new boolean[code.length];
+          for (int i = code.length; i-->0;)
+            mask[i] = code[i] != null && code[i].isReturn();
+          _returnMasks.put(code,mask);
+        }
+
+      _maskedCode = code;
+      return _mask = mask;
+    }
+
+  /**
+   * Stops the execution of this runtime.
+   */
+  public final void stop ()
+    {
+      _terminated = true;
+    }
+
+  /**
+   * Toggles this runtime's tracing flag.
+   */
+  public final void toggleTracing ()
+    {
+      _tracing = !_tracing;
+    }
+
+  /**
+   * Toggles the tracing flag of all runtimes, which is checked along with each
+   * runtime's own flag when it starts executing.
+   *
+   * @deprecated Tracing is a per-runtime setting: use <tt>setTracing(boolean)</tt>
+   * or <tt>toggleTracing()</tt> on a runtime instead.
+   */
+  @Deprecated
+  public final static void toggleTrace ()
+    {
+      _tracingAll = !_tracingAll;
+    }
+
+  /**
+   * Sets this runtime's tracing flag to the specified value, and returns this
+   * runtime.
+   */
+  public final Runtime setTracing (boolean flag)
+    {
+      _tracing = flag;
+      return this;
+    }
+
+  /**
+   * Returns this runtime's tracing flag.
+   */
+  public final boolean tracing ()
+    {
+      return _tracing;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this runtime traces its execution, because either
+   * its own tracing flag or that of all runtimes is on.
+   */
+  public final boolean isTraced ()
+    {
+      return _tracing || _tracingAll;
+    }
+
+  /**
+   * Returns the tracing flag of all runtimes.
+   *
+   * @deprecated Tracing is a per-runtime setting: use <tt>isTraced()</tt> on a
+   * runtime instead.
+   */
+  @Deprecated
+  public final static boolean isTracing ()
+    {
+      return _tracingAll;
+    }
+
+  ////////////////////////////////////////////////////////////////////
+
+  /**
+   * FP: If true the trace must stop at each step
+   */
+  protected boolean mustStop ()
+    {
+      return true;
+    }
+  
+  /**
+   * Prints out a display form of this runtime's result stacks.
+   */
+  private final void _showStacks (IntStack i, DoubleStack r, Stack o)
+    {
+      System.out.println("\n\tINT:\t\tREAL:\t\tOBJECT:\n");
+
+      int depth = Math.max(i.size(),Math.max(r.size(),o.size()));
+
+      for (int j=depth; j-->0;)
         {
           int index;
           
@@ -1234,7 +2200,37 @@ public class Runtime
           if (index >= 0)
             System.out.print("\t" + index + ":\t" + o.get(index));
         }
-    }     
+    }
+
+  /**
+   * Prints out a display form of this runtime's environment stacks.
+   */
+  private final void _showStacks (IntEnvironment i, RealEnvironment r, ObjectEnvironment o)
+    {
+      System.out.println("\n\tINT:\t\tREAL:\t\tOBJECT:\n");
+
+      int depth = Math.max(i.size(),Math.max(r.size(),o.size()));
+
+      for (int j=depth; j-->0;)
+        {
+          int index;
+          
+          System.out.println();
+          index = j-depth+i.size();
+          if (index >= 0)
+            System.out.print("\t" + index + ":\t" + i.get(index));
+          else
+            System.out.print("\t\t");
+          index = j-depth+r.size();
+          if (index >= 0)
+            System.out.print("\t" + index + ":\t" + r.get(index));
+          else
+            System.out.print("\t\t");
+          index = j-depth+o.size();
+          if (index >= 0)
+            System.out.print("\t" + index + ":\t" + o.get(index));
+        }
+    }
 
   public final void showState () { _showState(); }
 
@@ -1254,12 +2250,9 @@ public class Runtime
       System.out.println("\n");
 
       System.out.println("\nSAVE STACK:\n");
-      for (int i=_saveStack.size(); i-->0;)
-        {
-          State state = (State)_saveStack.get(i);
-          System.out.println("\t" + i + ": " + state+
-                             (state == _currentExitableState ? "\t<== CURRENT" : ""));
-        }
+      for (int i=_saveDepth; i-->0;)
+        System.out.println("\t" + i + ": " + _savedStateString(i) +
+                           (i == _currentExitableState ? "\t<== CURRENT" : ""));
       System.out.println("\n");
 
       System.out.println("\nCALL STACK:\n");
@@ -1273,6 +2266,21 @@ public class Runtime
         Debug.step();
     }
 
+  /**
+   * Returns a display form of the specified saved state.
+   */
+  private final String _savedStateString (int state)
+    {
+      return CodeEntry.getId(_savedCode[state]) + "\tIP = " + _savedIP[state] +
+             "\tSP = <" + _savedIntStackPoint[state] + "," +
+                          _savedRealStackPoint[state] + "," +
+                          _savedObjectStackPoint[state] + ">" +
+             "\tEP = <" + _savedIntEnvPoint[state] + "," +
+                          _savedRealEnvPoint[state] + "," +
+                          _savedObjectEnvPoint[state] + ">" +
+             "\t" + (_isExitableState[state] ? "" : "NON-") + "EXITABLE";
+    }
+
   ////////////////////////////////////////////////////////////////////////////
 
   /**
@@ -1312,6 +2320,11 @@ public class Runtime
     {
       private DefinedEntry _entry;
 
+      /**
+       * The flight recorder event timing this call, if enabled.
+       */
+      RuntimeEvents.Call _event;
+
       CallState (DefinedEntry entry, Instruction[] code, int ip)
         {
           super(code,ip);
@@ -1347,179 +2360,5 @@ public class Runtime
           return super.toString() + "\tENTRY = " + _entry;
         }
     }
-      
-  /**
-   * This class denotes information comprising a complete computation state.
-   */
-  protected static class State extends AbstractState
-    {
-      private int _intStackPoint;
-      private int _realStackPoint;
-      private int _objectStackPoint;
-      private int _intEnvPoint;
-      private int _realEnvPoint;
-      private int _objectEnvPoint;
-
-      /**
-       * This flag indicates whether this state is exitable.
-       */
-      private boolean _isExitable = false;
-      /**
-       * This state is the exitable state that is current in the runtime
-       * at state-saving time and must be saved as part of the save state.
-       */
-      private State _currentExitableState;
-      /**
-       * This is the link for chaining the exitable states within the
-       * saved-state stack (from inside out). This is either
-       * <tt>null</tt> (if this is the outermost exitable state), or the
-       * exitable state that is the immediately enclosing exitable state
-       * at the runtime's state of computation at the creation of this state.
-       */
-      private State _enclosingExitableState;
-
-      /**
-       * Returns <tt>true</tt> iff this state is exitable.
-       */
-      public final boolean isExitable ()
-        {
-          return _isExitable;
-        }
-
-      /**
-       * Sets this state to be exitable iff the specified flag is <tt>true</tt>.
-       */
-      public final State setIsExitable (boolean flag)
-        {
-          _isExitable = flag;
-          return this;
-        }
-
-      /**
-       * Returns the state that was the exitable state current in the
-       * runtime at this state's saving time and that was saved as part
-       * of this state.
-       */
-      public final State getCurrentExitableState ()
-        {
-          return _currentExitableState;
-        }
-
-      /**
-       * Returns the last exitable state saved before this one, or
-       * <tt>null</tt>, if none exists.
-       */
-      public final State getEnclosingExitableState ()
-        {
-          return _enclosingExitableState;
-        }
-
-      /**
-       * Save in this state the specified state as the one that was
-       * the current exitable state at runtime state-saving time.
-       */
-      public final State setCurrentExitableState (State exitable)
-        {
-          _currentExitableState = exitable;
-          return this;
-        }
-
-      /**
-       * Sets the last exitable state saved before this one to be
-       * the specified one, and returns this.
-       */
-      public final State setEnclosingExitableState (State exitable)
-        {
-          _enclosingExitableState = exitable;
-          return this;
-        }
-
-      State (Instruction[] code, int ip,
-             int intStackPoint, int realStackPoint, int objectStackPoint,
-             int intEnvPoint, int realEnvPoint, int objectEnvPoint)
-        {
-          super(code,ip);
-          _intStackPoint = intStackPoint;
-          _realStackPoint = realStackPoint;
-          _objectStackPoint = objectStackPoint;
-          _intEnvPoint = intEnvPoint;
-          _realEnvPoint = realEnvPoint;
-          _objectEnvPoint = objectEnvPoint;
-        }
-
-      final int intStackPoint ()
-        {
-          return _intStackPoint;
-        }
-
-      final int realStackPoint ()
-        {
-          return _realStackPoint;
-        }
-
-      final int objectStackPoint ()
-        {
-          return _objectStackPoint;
-        }
-
-      final int intEnvPoint ()
-        {
-          return _intEnvPoint;
-        }
-
-      final int realEnvPoint ()
-        {
-          return _realEnvPoint;
-        }
-
-      final int objectEnvPoint ()
-        {
-          return _objectEnvPoint;
-        }
-
-      public final boolean equals (Object other)
-        {
-          if (this == other)
-            return true;
-
-          if (!(other instanceof State))
-            return false;
-
-          return this._code        == ((State)other)._code
-              && this._ip          == ((State)other)._ip
-              && _intStackPoint    == ((State)other)._intStackPoint
-              && _realStackPoint   == ((State)other)._realStackPoint
-              && _objectStackPoint == ((State)other)._objectStackPoint
-              && _intEnvPoint      == ((State)other)._intEnvPoint
-              && _realEnvPoint     == ((State)other)._realEnvPoint
-              && _objectEnvPoint   == ((State)other)._objectEnvPoint
-              && _isExitable       == ((State)other)._isExitable
-              && _currentExitableState    == ((State)other)._currentExitableState
-              && _enclosingExitableState  == ((State)other)._enclosingExitableState;
-        }
-
-      public final int hashCode ()
-        {
-          return this._code.hashCode() + this._ip
-               + _intStackPoint
-               + _realStackPoint
-               + _objectStackPoint
-               + _intEnvPoint
-               + _realEnvPoint
-               + _objectEnvPoint;
-        }
-
-      public final String toString ()
-        {
-          return super.toString() +
-                 "\tSP = <" + _intStackPoint + "," +
-                              _realStackPoint + "," +
-                              _objectStackPoint + ">" +
-                 "\tEP = <" + _intEnvPoint + "," +
-                              _realEnvPoint + "," +
-                              _objectEnvPoint + ">" +
-                 "\t" + (_isExitable ? "" : "NON-") + "EXITABLE";
-        }
-    }
 
 }
@@ -0,0 +1,154 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 20:36:05 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * This class gathers the Java Flight Recorder events emitted by the runtime
+ * and the set subsystems. Each event is timed and carries a default duration
+ * threshold, so that recording can stay on in production: an event whose
+ * duration is below its threshold is not committed, and an event that is
+ * not enabled in the recording settings costs no more than a test. The
+ * thresholds may be overridden in a recording's settings, using the
+ * events' names.
+ *
+ * <p>
+ *
+ * Since a <tt>Call</tt> event must outlive the instruction that begins it, it
+ * is only allocated when enabled, which is tested through its event type.
+ * The other events are begun and ended within one method, where the JIT
+ * can elide them when they are not enabled.
+ */
+public class RuntimeEvents
+{
+  /**
+   * The event type of <tt>Call</tt> events, used to test whether they are enabled.
+   */
+  static final EventType CALL_TYPE = EventType.getEventType(Call.class);
+
+  /**
+   * An execution of a runtime's code by <tt>Runtime.run()</tt> or
+   * <tt>Runtime.run(long)</tt>.
+   */
+  @Name("hlt.language.design.backend.Run")
+  @Label("Runtime Run")
+  @Category({"HLT","Runtime"})
+  @Description("Execution of a runtime's code until termination or exhaustion of its budget")
+  @Threshold("20 ms")
+  @StackTrace(false)
+  public static final class Run extends Event
+    {
+      @Label("Budget")
+      @Description("The instruction budget of this execution, or -1 if unbounded")
+      long budget;
+
+      @Label("Terminated")
+      boolean terminated;
+
+      @Label("Call Depth")
+      @Description("The size of the call stack when execution stopped")
+      int callDepth;
+    }
+
+  /**
+   * A call to a defined entry, from <tt>Runtime.pushCall</tt> to the matching
+   * <tt>Runtime.popCall</tt>. Tail calls, which reuse the caller's frame, are
+   * accounted for in the enclosing call's event.
+   */
+  @Name("hlt.language.design.backend.Call")
+  @Label("Defined Entry Call")
+  @Category({"HLT","Runtime"})
+  @Description("Call to a defined entry taking longer than the threshold")
+  @Threshold("10 ms")
+  @StackTrace(false)
+  public static final class Call extends Event
+    {
+      @Label("Entry")
+      String entry;
+
+      @Label("Call Depth")
+      int callDepth;
+    }
+
+  /**
+   * An unwind of an exitable scope by <tt>Runtime.leaveExitableScope</tt>. Since
+   * an unwind only resets stack sizes, its duration is always short; this event
+   * is therefore disabled by default and reports how much state was discarded.
+   */
+  @Name("hlt.language.design.backend.ExitableScopeUnwind")
+  @Label("Exitable Scope Unwind")
+  @Category({"HLT","Runtime"})
+  @Description("Restoration of the state saved on entering an exitable scope")
+  @Enabled(false)
+  @Threshold("0 ms")
+  @StackTrace(false)
+  public static final class Unwind extends Event
+    {
+      @Label("Discarded Saved States")
+      int savedStates;
+
+      @Label("Discarded Int Values")
+      int intValues;
+
+      @Label("Discarded Real Values")
+      int realValues;
+
+      @Label("Discarded Object Values")
+      int objectValues;
+    }
+
+  /**
+   * A reassignment of the indices of a set's elements by <tt>RuntimeSet._resetIndices()</tt>,
+   * which compacts the set's entries in index order in one linear pass.
+   */
+  @Name("hlt.language.design.backend.ResetIndices")
+  @Label("Set Index Reset")
+  @Category({"HLT","Sets"})
+  @Description("Linear compaction of a set's entries to eliminate index holes")
+  @Threshold("1 ms")
+  public static final class ResetIndices extends Event
+    {
+      @Label("Size")
+      int size;
+
+      @Label("Max Index")
+      int maxIndex;
+    }
+
+  /**
+   * A rebuild of the element array of a set by its <tt>array()</tt> method.
+   */
+  @Name("hlt.language.design.backend.SetArrayRebuild")
+  @Label("Set Array Rebuild")
+  @Category({"HLT","Sets"})
+  @Description("Rebuild of the inverse element array of a set")
+  @Threshold("1 ms")
+  public static final class ArrayRebuild extends Event
+    {
+      @Label("Set Class")
+      String setClass;
+
+      @Label("Size")
+      int size;
+
+      @Label("Had Holes")
+      boolean hadHoles;
+    }
+}
@@ -5,19 +5,64 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 22:32:32 2012 by hak
+ * @version     Last modified on Sat Oct 17 20:58:36 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * This is a light-weight wrapper for boxed int used at runtime.
+ *
+ * <p>
+ *
+ * Boxes should be obtained with <tt>valueOf(int)</tt> (or <tt>Runtime.newInt(int)</tt>)
+ * rather than constructed, so that the values of a small range are boxed into
+ * unique canonical objects, as <tt>Integer.valueOf</tt> does. This range is
+ * <tt>-128..1023</tt> by default, and may be set with the system properties
+ * <tt>hlt.runtime.int.cache.low</tt> and <tt>hlt.runtime.int.cache.high</tt>.
+ * When the system property <tt>hlt.runtime.box.stats</tt> is <tt>true</tt>,
+ * the number of boxes allocated and of cached boxes returned by <tt>valueOf</tt>
+ * are counted; otherwise, counting costs nothing.
  */
 public class RuntimeInt implements RuntimeObject
 {
   public static final RuntimeInt ZERO = new RuntimeInt(0);
   public static final RuntimeInt ONE  = new RuntimeInt(1);
 
+  /**
+   * This flag indicates whether boxing statistics are kept; it is shared
+   * with <tt>RuntimeReal</tt>.
+   */
+  static final boolean COUNTS_BOXES = Boolean.getBoolean("hlt.runtime.box.stats");
+
+  /**
+   * The bounds of the range of cached values.
+   */
+  public static final int CACHE_LOW  = Integer.getInteger("hlt.runtime.int.cache.low",-128).intValue();
+  public static final int CACHE_HIGH = Math.max(CACHE_LOW-1,Integer.getInteger("hlt.runtime.int.cache.high",1023).intValue());
+
+  /**
+   * The cached boxes, from <tt>CACHE_LOW</tt> to <tt>CACHE_HIGH</tt>.
+   */
+  private static final RuntimeInt[] _cache = new RuntimeInt[CACHE_HIGH-CACHE_LOW+1];
+
+  static
+    {
+      for (int i = 0; i < _cache.length; i++)
+        {
+          int value = CACHE_LOW + i;
+          _cache[i] = value == 0 ? ZERO : value == 1 ? ONE : new RuntimeInt(value);
+        }
+    }
+
+  /**
+   * The boxing statistics, when kept.
+   */
+  private static final LongAdder _allocations = new LongAdder();
+  private static final LongAdder _cacheHits = new LongAdder();
+
   private int _value;
 
   public RuntimeInt (int value)
@@ -25,6 +70,60 @@ public class RuntimeInt implements RuntimeObject
       _value = value;
     }
 
+  /**
+   * Sets the value of this box, and returns it. This is only meant for a box used
+   * to probe a collection by value, which must never be stored nor handed out:
+   * boxes are otherwise immutable.
+   */
+  final RuntimeInt _setProbeValue (int value)
+    {
+      _value = value;
+      return this;
+    }
+
+  /**
+   * Returns a box for the specified value, which is a canonical one if the
+   * value is within the cache range.
+   */
+  public static final RuntimeInt valueOf (int value)
+    {
+      if (value >= CACHE_LOW && value <= CACHE_HIGH)
+        {
+          if (COUNTS_BOXES) _cacheHits.increment();
+          return _cache[value-CACHE_LOW];
+        }
+
+      if (COUNTS_BOXES) _allocations.increment();
+      return new RuntimeInt(value);
+    }
+
+  /**
+   * Returns the number of boxes allocated by <tt>valueOf</tt> since the
+   * statistics were last reset (always 0 unless statistics are kept).
+   */
+  public static final long allocationCount ()
+    {
+      return _allocations.sum();
+    }
+
+  /**
+   * Returns the number of cached boxes returned by <tt>valueOf</tt> since the
+   * statistics were last reset (always 0 unless statistics are kept).
+   */
+  public static final long cacheHitCount ()
+    {
+      return _cacheHits.sum();
+    }
+
+  /**
+   * Resets the boxing statistics.
+   */
+  public static final void resetCounts ()
+    {
+      _allocations.reset();
+      _cacheHits.reset();
+    }
+
   public final int value ()
     {
       return _value;
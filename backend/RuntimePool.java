@@ -0,0 +1,390 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 21:44:20 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import hlt.language.design.types.Type;
+import hlt.language.design.instructions.Instruction;
+
+import java.io.PrintStream;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A <tt>RuntimePool</tt> runs many small independent programs (<i>i.e.</i>,
+ * code arrays), each on its own virtual thread (or a pooled daemon thread on a
+ * JVM without virtual threads, <i>i.e.</i>, before Java 21), using <a href="Runtime.html">
+ * <tt>Runtime</tt></a> objects that it recycles from one program to the next
+ * rather than creating a new one for each.
+ *
+ * <p>
+ *
+ * A program is submitted with <tt>submit(Instruction[])</tt>, which returns a
+ * <tt>Future</tt> whose value is a <a href="RuntimePool.Result.html"><tt>Result</tt></a>
+ * recording the runtime sort and the value of the program's result. Runtimes
+ * may also be borrowed and returned explicitly with <tt>acquire()</tt> and
+ * <tt>release(Runtime)</tt>. A released runtime is reset, and given back the
+ * configuration it had when <tt>newRuntime()</tt> created it (tracing, profiler,
+ * compiler, stack marks and limit, tail-call elimination, and display manager with
+ * its device, formatter, and output stream), so that nothing a
+ * borrower sets leaks to the next one. It is then kept for reuse as long as the
+ * pool holds fewer idle runtimes than its capacity, and has not been shut down. As per the
+ * concurrency contract of <tt>Runtime</tt>, the programs run by a pool must not
+ * share mutable runtime values.
+ */
+public class RuntimePool
+{
+  /**
+   * This is the default maximum number of idle runtimes kept by a pool.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * The idle runtimes of this pool.
+   */
+  private final ConcurrentLinkedQueue<Runtime> _idle = new ConcurrentLinkedQueue<Runtime>();
+
+  /**
+   * The number of idle runtimes of this pool.
+   */
+  private final AtomicInteger _idleCount = new AtomicInteger();
+
+  /**
+   * The configuration of each runtime created by this pool, as created, keyed by
+   * the runtime (weakly, so that the runtimes the pool drops are reclaimed).
+   */
+  private final Map<Runtime,Settings> _settings =
+    Collections.synchronizedMap(new WeakHashMap<Runtime,Settings>());
+
+  /**
+   * This flag is set once this pool is shut down, after which it keeps no idle
+   * runtimes.
+   */
+  private volatile boolean _isShutdown;
+
+  /**
+   * The maximum number of idle runtimes kept by this pool.
+   */
+  private final int _capacity;
+
+  /**
+   * The executor running each submitted program on a new virtual thread.
+   */
+  private final ExecutorService _executor = _newExecutor();
+
+  /**
+   * Returns an executor running each task on a new virtual thread if the JVM
+   * supports them, or else on a cached daemon platform thread. The former is
+   * looked up reflectively so that this class compiles and runs before Java 21.
+   */
+  private static final ExecutorService _newExecutor ()
+    {
+      try
+        {
+          return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                 .invoke(null);
+        }
+      catch (ReflectiveOperationException e)
+        {
+          return Executors.newCachedThreadPool(new ThreadFactory()
+            {
+              public Thread newThread (Runnable task)
+                {
+                  Thread thread = new Thread(task);
+                  thread.setDaemon(true);
+                  return thread;
+                }
+            });
+        }
+    }
+
+  /**
+   * Constructs a pool keeping at most <tt>DEFAULT_CAPACITY</tt> idle runtimes.
+   */
+  public RuntimePool ()
+    {
+      this(DEFAULT_CAPACITY);
+    }
+
+  /**
+   * Constructs a pool keeping at most the specified number of idle runtimes.
+   */
+  public RuntimePool (int capacity)
+    {
+      _capacity = capacity;
+    }
+
+  /**
+   * Returns a new runtime for this pool. This may be overridden to pool
+   * runtimes of a subclass of <tt>Runtime</tt>, or to configure them (<i>e.g.</i>,
+   * with a display manager).
+   */
+  protected Runtime newRuntime ()
+    {
+      return new Runtime();
+    }
+
+  /**
+   * Returns an idle runtime of this pool if there is one, or a new runtime
+   * otherwise. The returned runtime is in a reset state.
+   */
+  public final Runtime acquire ()
+    {
+      Runtime runtime = _idle.poll();
+
+      if (runtime == null)
+        {
+          runtime = newRuntime();
+          _settings.put(runtime,new Settings(runtime));
+          return runtime;
+        }
+
+      _idleCount.decrementAndGet();
+      return runtime;
+    }
+
+  /**
+   * Resets the specified runtime, restores the configuration it was created with,
+   * and gives it back to this pool, which keeps it for reuse unless it already holds
+   * as many idle runtimes as its capacity or has been shut down. A runtime that was
+   * not created by this pool is not kept.
+   */
+  public final void release (Runtime runtime)
+    {
+      runtime.reset();
+
+      Settings settings = _settings.get(runtime);
+      if (settings == null || _isShutdown)
+        return;
+
+      settings.restore(runtime);
+
+      if (_idleCount.incrementAndGet() <= _capacity)
+        {
+          _idle.offer(runtime);
+          if (_isShutdown) _drain();
+        }
+      else
+        _idleCount.decrementAndGet();
+    }
+
+  /**
+   * Drops the idle runtimes of this pool.
+   */
+  private final void _drain ()
+    {
+      while (_idle.poll() != null)
+        _idleCount.decrementAndGet();
+    }
+
+  /**
+   * Returns the number of idle runtimes currently held by this pool.
+   */
+  public final int idleCount ()
+    {
+      return _idleCount.get();
+    }
+
+  /**
+   * Runs the specified code with a runtime of this pool in the calling thread,
+   * and returns its result.
+   */
+  public final Result execute (Instruction[] code) throws Exception
+    {
+      Runtime runtime = acquire();
+
+      try
+        {
+          runtime.run(code);
+          return new Result(runtime);
+        }
+      finally
+        {
+          release(runtime);
+        }
+    }
+
+  /**
+   * Runs the specified code with a runtime of this pool on a new virtual thread,
+   * and returns a future whose value is the <tt>Result</tt> of this execution.
+   */
+  public final Future<Result> submit (final Instruction[] code)
+    {
+      return _executor.submit(new Callable<Result>()
+        {
+          public Result call () throws Exception
+            {
+              return execute(code);
+            }
+        });
+    }
+
+  /**
+   * Stops this pool from accepting new programs; programs already submitted
+   * still run to completion, but the runtimes they release are no longer kept.
+   */
+  public final void shutdown ()
+    {
+      _isShutdown = true;
+      _executor.shutdown();
+      _drain();
+    }
+
+  /**
+   * This class records the configuration of a runtime that its borrowers may
+   * change, so as to restore it when the runtime is released.
+   */
+  private static class Settings
+    {
+      private final boolean _tracing;
+      private final CallProfiler _profiler;
+      private final CodeCompiler _compiler;
+      private final StackMarks _stackMarks;
+      private final int _stackLimit;
+      private final boolean _eliminatesTailCalls;
+      private final DisplayManager _displayManager;
+      private final DisplayDeviceManager _device;
+      private final DisplayFormManager _formatter;
+      private final PrintStream _outputStream;
+
+      Settings (Runtime runtime)
+        {
+          _tracing = runtime.tracing();
+          _profiler = runtime.profiler();
+          _compiler = runtime.compiler();
+          _stackMarks = runtime.stackMarks();
+          _stackLimit = runtime.stackLimit();
+          _eliminatesTailCalls = runtime.eliminatesTailCalls();
+          _displayManager = runtime.displayManager();
+          _device = _displayManager.displayDeviceManager();
+          _formatter = _displayManager.displayFormManager();
+          _outputStream = _displayManager.getOutputStream();
+        }
+
+      final void restore (Runtime runtime)
+        {
+          runtime.setTracing(_tracing)
+                 .setProfiler(_profiler)
+                 .setCompiler(_compiler)
+                 .setStackMarks(_stackMarks)
+                 .setStackLimit(_stackLimit)
+                 .setTailCallElimination(_eliminatesTailCalls)
+                 .setDisplayManager(_displayManager);
+
+          _displayManager.setDisplayDeviceManager(_device)
+                         .setDisplayFormManager(_formatter)
+                         .setOutputStream(_outputStream);
+        }
+    }
+
+  /**
+   * This class records the result of a program run by a pool: the runtime sort
+   * of the latest value pushed on a result stack, and that value, if any.
+   */
+  public static class Result
+    {
+      private byte _resultSort;
+      private boolean _hasResult;
+      private int _intResult;
+      private double _realResult;
+      private Object _objectResult;
+
+      Result (Runtime runtime)
+        {
+          _resultSort = runtime.resultSort();
+
+          if (_hasResult = runtime.hasResult())
+            switch (_resultSort)
+              {
+              case Type.INT_SORT:
+                _intResult = runtime.intResult();
+                break;
+              case Type.REAL_SORT:
+                _realResult = runtime.realResult();
+                break;
+              default:
+                _objectResult = runtime.objectResult();
+              }
+        }
+
+      /**
+       * Returns the runtime sort of the latest value pushed on a result stack.
+       */
+      public final byte resultSort ()
+        {
+          return _resultSort;
+        }
+
+      /**
+       * Returns <tt>true</tt> iff the program left a value of its result sort.
+       */
+      public final boolean hasResult ()
+        {
+          return _hasResult;
+        }
+
+      /**
+       * Returns the result as an int.
+       */
+      public final int intResult ()
+        {
+          return _intResult;
+        }
+
+      /**
+       * Returns the result as a floating-point number.
+       */
+      public final double realResult ()
+        {
+          return _realResult;
+        }
+
+      /**
+       * Returns the result as an object.
+       */
+      public final Object objectResult ()
+        {
+          return _objectResult;
+        }
+
+      /**
+       * Returns the result as a boolean.
+       */
+      public final boolean booleanResult ()
+        {
+          return _intResult == Runtime.TRUE;
+        }
+
+      public String toString ()
+        {
+          if (!_hasResult)
+            return "no result";
+
+          switch (_resultSort)
+            {
+            case Type.INT_SORT:
+              return String.valueOf(_intResult);
+            case Type.REAL_SORT:
+              return String.valueOf(_realResult);
+            }
+
+          return String.valueOf(_objectResult);
+        }
+    }
+}
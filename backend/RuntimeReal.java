@@ -5,17 +5,57 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 20:58:36 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * This is a light-weight wrapper for boxed double used at runtime.
+ *
+ * <p>
+ *
+ * Boxes should be obtained with <tt>valueOf(double)</tt> (or <tt>Runtime.newReal(double)</tt>)
+ * rather than constructed, so that common values are boxed into unique canonical
+ * objects: integral values of a small range, which is <tt>-128..1023</tt> by
+ * default and may be set with the system properties <tt>hlt.runtime.real.cache.low</tt>
+ * and <tt>hlt.runtime.real.cache.high</tt>, and the halves <tt>0.5</tt> and <tt>-0.5</tt>.
+ * As for <tt>RuntimeInt</tt>, boxing statistics are kept when the system property
+ * <tt>hlt.runtime.box.stats</tt> is <tt>true</tt>.
  */
 public class RuntimeReal implements RuntimeObject
 {
   public static final RuntimeReal ZERO = new RuntimeReal(0.0);
+  public static final RuntimeReal HALF = new RuntimeReal(0.5);
+  public static final RuntimeReal MINUS_HALF = new RuntimeReal(-0.5);
+
+  /**
+   * The bounds of the range of cached integral values.
+   */
+  public static final int CACHE_LOW  = Integer.getInteger("hlt.runtime.real.cache.low",-128).intValue();
+  public static final int CACHE_HIGH = Math.max(CACHE_LOW-1,Integer.getInteger("hlt.runtime.real.cache.high",1023).intValue());
+
+  /**
+   * The cached boxes of integral values, from <tt>CACHE_LOW</tt> to <tt>CACHE_HIGH</tt>.
+   */
+  private static final RuntimeReal[] _cache = new RuntimeReal[CACHE_HIGH-CACHE_LOW+1];
+
+  static
+    {
+      for (int i = 0; i < _cache.length; i++)
+        {
+          int value = CACHE_LOW + i;
+          _cache[i] = value == 0 ? ZERO : new RuntimeReal(value);
+        }
+    }
+
+  /**
+   * The boxing statistics, when kept.
+   */
+  private static final LongAdder _allocations = new LongAdder();
+  private static final LongAdder _cacheHits = new LongAdder();
 
   private double _value;
 
@@ -24,6 +64,75 @@ public class RuntimeReal implements RuntimeObject
       _value = value;
     }
 
+  /**
+   * Sets the value of this box, and returns it. This is only meant for a box used
+   * to probe a collection by value, which must never be stored nor handed out:
+   * boxes are otherwise immutable.
+   */
+  final RuntimeReal _setProbeValue (double value)
+    {
+      _value = value;
+      return this;
+    }
+
+  /**
+   * Returns a box for the specified value, which is a canonical one if the
+   * value is a cached one. Note that <tt>-0.0</tt> is boxed as <tt>ZERO</tt>,
+   * which it equals as a runtime value.
+   */
+  public static final RuntimeReal valueOf (double value)
+    {
+      int integral = (int)value;
+
+      if (integral == value && integral >= CACHE_LOW && integral <= CACHE_HIGH)
+        {
+          if (RuntimeInt.COUNTS_BOXES) _cacheHits.increment();
+          return _cache[integral-CACHE_LOW];
+        }
+
+      if (value == 0.5)
+        {
+          if (RuntimeInt.COUNTS_BOXES) _cacheHits.increment();
+          return HALF;
+        }
+
+      if (value == -0.5)
+        {
+          if (RuntimeInt.COUNTS_BOXES) _cacheHits.increment();
+          return MINUS_HALF;
+        }
+
+      if (RuntimeInt.COUNTS_BOXES) _allocations.increment();
+      return new RuntimeReal(value);
+    }
+
+  /**
+   * Returns the number of boxes allocated by <tt>valueOf</tt> since the
+   * statistics were last reset (always 0 unless statistics are kept).
+   */
+  public static final long allocationCount ()
+    {
+      return _allocations.sum();
+    }
+
+  /**
+   * Returns the number of cached boxes returned by <tt>valueOf</tt> since the
+   * statistics were last reset (always 0 unless statistics are kept).
+   */
+  public static final long cacheHitCount ()
+    {
+      return _cacheHits.sum();
+    }
+
+  /**
+   * Resets the boxing statistics.
+   */
+  public static final void resetCounts ()
+    {
+      _allocations.reset();
+      _cacheHits.reset();
+    }
+
   public final double value ()
     {
       return _value;
@@ -5,14 +5,12 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Thu Mar 24 21:01:30 2016 by hak
+ * @version     Last modified on Sat Oct 17 23:12:40 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
 
 import hlt.language.util.ToIntMap;
-import hlt.language.tools.Misc;
-import java.util.Iterator;
 
 /**
  * This is the mother of all runtime representations for sets. There
@@ -120,6 +118,54 @@ abstract public class RuntimeSet implements RuntimeObject, IndexableContainer
    */
   protected int _maxIndex = 0;
 
+  /**
+   * The order statistics of the indices, maintained only while this set has
+   * holes. With it, <tt>ord</tt>, <tt>next</tt>, <tt>prev</tt>, <i>etc.</i>,
+   * translate between indices and positions in logarithmic time rather than
+   * reset the indices after each removal.
+   */
+  protected OrderIndex _order;
+
+  /**
+   * The sum of the hashes of the elements of this set (see <tt>_elementHash</tt>),
+   * kept up to date as elements are added and removed.
+   */
+  protected int _contentHash = 0;
+
+  /**
+   * A removal compacts the indices right away once there are more holes
+   * than this, and more holes than elements. This bounds the space taken
+   * by dead indices when elements keep coming and going.
+   */
+  protected static final int MIN_COMPACTED_HOLES = 64;
+
+  /**
+   * A copy shares the elements of its set until either is modified, at which
+   * point it takes its own copy of them. A hashed set of at least this many
+   * elements that is at least <tt>PERSISTENT_CHAIN</tt> copies down a chain of
+   * copies takes them as a persistent index instead, which its later copies
+   * keep sharing as they are modified, so that the versions of a set built from
+   * one another share most of their structure. It goes back to a hash table
+   * once it has fewer than half as many elements.
+   */
+  public static final int PERSISTENT_THRESHOLD =
+    Integer.getInteger("hlt.runtime.set.persistent.threshold",1 << 10).intValue();
+
+  /**
+   * The position down a chain of copies from which a large hashed set takes its
+   * elements as a persistent index (see <tt>PERSISTENT_THRESHOLD</tt>). A copy
+   * of a locked set is at this position right away, since a locked set is kept
+   * to be copied.
+   */
+  public static final int PERSISTENT_CHAIN = 2;
+
+  /**
+   * The position of this set down the chain of copies it comes from: <tt>0</tt>
+   * for a set that is not a copy, and one more than that of its original for a
+   * copy (see <tt>PERSISTENT_CHAIN</tt>).
+   */
+  protected int _copyChain;
+
   /**
    * This flag is set whenever at least one hole has appeared in the indices.
    */
@@ -182,9 +228,10 @@ abstract public class RuntimeSet implements RuntimeObject, IndexableContainer
     }
 
   /**
-   * Returns the number of elements in this set.
+   * Returns the number of elements in this set. Subclasses that do not
+   * always keep an index map override this together with <tt>isEmpty()</tt>.
    */
-  public final int size ()
+  public int size ()
     {
       return map().size();
     }
@@ -192,46 +239,163 @@ abstract public class RuntimeSet implements RuntimeObject, IndexableContainer
   /**
    * Returns <tt>true</tt> iff this set is empty.
    */
-  public final boolean isEmpty ()
+  public boolean isEmpty ()
     {
       return map().isEmpty();
     }
 
   /**
-   * Returns a hash code for this set.
+   * Returns a hash code for this set, which depends on its elements but not on
+   * their order.
    */
   public final int hashCode ()
     {
-      return size();
+      return _contentHash;
+    }
+
+  /**
+   * Returns the hash of the specified int as an element of a set. An int hashes
+   * like the equal double, and like its boxed wrapper, so that equal sets of
+   * different sorts have the same hash code.
+   */
+  protected static final int _elementHash (int element)
+    {
+      return _elementHash((double)element);
+    }
+
+  /**
+   * Returns the hash of the specified double as an element of a set.
+   */
+  protected static final int _elementHash (double element)
+    {
+      return _mix(element == 0.0 ? 0L : Double.doubleToLongBits(element));
+    }
+
+  /**
+   * Returns the hash of the specified object as an element of a set. Its own hash
+   * code is mixed, so that summing the hashes of elements with neighbouring hash
+   * codes spreads well.
+   */
+  protected static final int _elementHash (Object element)
+    {
+      if (element instanceof RuntimeInt)
+        return _elementHash(((RuntimeInt)element).value());
+
+      if (element instanceof RuntimeReal)
+        return _elementHash(((RuntimeReal)element).value());
+
+      return _mix(element.hashCode());
+    }
+
+  /**
+   * Scrambles the bits of the specified long (this is the finalizer of MurmurHash3).
+   */
+  private static final int _mix (long bits)
+    {
+      bits = (bits ^ (bits >>> 33)) * 0xff51afd7ed558ccdL;
+      bits = (bits ^ (bits >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return (int)(bits ^ (bits >>> 33));
+    }
+
+  /**
+   * Returns a fresh index for an element being added to this set.
+   */
+  protected final int _newIndex ()
+    {
+      if (_order != null) _order.append();
+      return _maxIndex++;
+    }
+
+  /**
+   * Records that the element with the specified index has been removed
+   * from this set, which leaves a hole.
+   */
+  protected final void _removeIndex (int index)
+    {
+      if (_order == null) _order = new OrderIndex(_maxIndex);
+
+      _order.remove(index);
+      _hasHoles = true;
+
+      int holes = _maxIndex - size();
+      if (holes > MIN_COMPACTED_HOLES && holes > size())
+        _resetIndices();
+    }
+
+  /**
+   * Forgets all the indices of this set, which must be empty.
+   */
+  protected final void _clearIndices ()
+    {
+      _hasHoles = false;
+      _maxIndex = 0;
+      _order = null;
+    }
+
+  /**
+   * Returns the position of the element with the specified index, which is
+   * the index itself unless this set has holes.
+   */
+  protected final int _position (int index)
+    {
+      return _order == null ? index : _order.rank(index);
+    }
+
+  /**
+   * Returns the index of the element at the specified position, which is
+   * the position itself unless this set has holes.
+   */
+  protected final int _index (int position)
+    {
+      return _order == null ? position : _order.select(position);
+    }
+
+  /**
+   * Gives the specified copy of this set the same indexing as this set, and its
+   * place down this set's chain of copies, and returns it.
+   */
+  protected final RuntimeSet _copyIndices (RuntimeSet set)
+    {
+      set._copyChain = _isLocked ? PERSISTENT_CHAIN : Math.min(_copyChain+1,PERSISTENT_CHAIN);
+      set._hasHoles = _hasHoles;
+      set._maxIndex = _maxIndex;
+      set._order = _order == null ? null : _order.copy();
+      return set;
     }
 
   /**
    * Reassigns the indices of the elements of the set to eliminate holes in such a
    * way as to preserve the order of the original indices.
-   *
-   * @returns an array of int map entries in insertion order
    */
-  protected final ToIntMap.Entry[] _resetIndices ()
+  protected final void _resetIndices ()
     {
-      ToIntMap.Entry[] entries = new ToIntMap.Entry[size()];
+      RuntimeEvents.ResetIndices event = new RuntimeEvents.ResetIndices();
+      event.begin();
 
-      int index = 0;
-      for (Iterator i = map().iterator(); i.hasNext();)
-        entries[index++] = (ToIntMap.Entry)i.next();
+      int maxIndex = _maxIndex;
+      _compactIndices();
 
-      //System.err.print("Sorting "+index+" elements...");
-      //long time = System.currentTimeMillis();
-      Misc.sort(entries);
-      //System.err.println(" in "+(System.currentTimeMillis()-time)+" ms");
+      event.end();
 
-      for (; index-->0;)
-        entries[index].setValue(index);
+      if (event.shouldCommit())
+        {
+          event.size = size();
+          event.maxIndex = maxIndex;
+          event.commit();
+        }
 
       _hasHoles = false;
       _maxIndex = size();
-      return entries;
+      _order = null;
     }
 
+  /**
+   * Renumbers the elements of this set from <tt>0</tt> in the order of their
+   * current indices. Each subclass keeps its elements by index, so this is a
+   * linear sweep skipping the dead indices, with no sorting.
+   */
+  abstract protected void _compactIndices ();
+
   /**
    * Returns <tt>true</tt> when this set is equal (as a set) to the specified one,
    * with a side-effect on the specified array of ints that will contain the index
@@ -5,22 +5,61 @@
 package hlt.language.design.backend;
 
 /**
- * @version     Last modified on Wed Jun 20 14:29:51 2012 by hak
+ * @version     Last modified on Sat Oct 17 22:19:05 2026 by hak
  * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
  * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
  */
+import java.util.WeakHashMap;
+import java.lang.ref.WeakReference;
+
 import hlt.language.design.types.Type;
 
 /**
  * This is the runtime representation for tuples.
+ *
+ * <p>
+ *
+ * A tuple may be <i>frozen</i>, after which its components may no longer be set.
+ * Its hash code is then computed once and for all, unless an object component
+ * may still change (<i>e.g.</i>, a set), in which case it is computed on each
+ * call as for any other tuple. A frozen tuple may further be
+ * <i>interned</i>, so that equal interned tuples are one and the same object, as
+ * with <tt>String.intern</tt>. Tuples obtained with <tt>valueOf</tt> are frozen,
+ * and interned if the system property <tt>hlt.runtime.tuple.intern</tt> is
+ * <tt>true</tt>. Frozen tuples are immutable and may be shared freely.
  */
 public class RuntimeTuple implements RuntimeObject
 {
+  /**
+   * This flag indicates whether <tt>valueOf</tt> interns the tuples it returns.
+   */
+  public static final boolean INTERNS = Boolean.getBoolean("hlt.runtime.tuple.intern");
+
+  /**
+   * The interned tuples, each mapped to a weak reference to itself, so that the
+   * interned tuples no longer in use are reclaimed.
+   */
+  private static final WeakHashMap _interned = new WeakHashMap();
+
   private int[] _intComponents;
   private double[] _realComponents;
   private Object[] _objectComponents;
 
-  public final static RuntimeTuple EMPTY = new RuntimeTuple(null,null,null);
+  /**
+   * The hash code of this tuple, once it is frozen, when <tt>_hasStableHash</tt>.
+   */
+  private int _hash;
+
+  private boolean _isFrozen;
+  private boolean _isInterned;
+
+  /**
+   * This is <tt>true</tt> when this tuple is frozen and none of its components may
+   * change, so that <tt>_hash</tt> is its hash code for good.
+   */
+  private boolean _hasStableHash;
+
+  public final static RuntimeTuple EMPTY = new RuntimeTuple(null,null,null).intern();
 
   public RuntimeTuple (int[] intComponents, double[] realComponents, Object[] objectComponents)
     {
@@ -29,6 +68,141 @@ public class RuntimeTuple implements RuntimeObject
       _objectComponents = objectComponents;
     }
 
+  /**
+   * Returns a frozen tuple with the specified components, which is an interned one
+   * if <tt>INTERNS</tt> is <tt>true</tt>. The specified arrays are taken as they
+   * are, and must not be modified afterwards.
+   */
+  public static final RuntimeTuple valueOf (int[] intComponents, double[] realComponents,
+                                            Object[] objectComponents)
+    {
+      RuntimeTuple tuple = new RuntimeTuple(intComponents,realComponents,objectComponents);
+      return INTERNS ? tuple.intern() : tuple.freeze();
+    }
+
+  /**
+   * Freezes this tuple and returns it. Its component arrays must not be modified
+   * afterwards.
+   */
+  public final RuntimeTuple freeze ()
+    {
+      if (!_isFrozen)
+        {
+          _isFrozen = true;
+          if (_hasStableHash = _hasImmutableComponents())
+            _hash = _computeHash();
+        }
+
+      return this;
+    }
+
+  /**
+   * Freezes this tuple, whose hash code is known to be the specified one, and
+   * returns it.
+   */
+  final RuntimeTuple _freeze (int hash)
+    {
+      _hash = hash;
+      _isFrozen = true;
+      _hasStableHash = _hasImmutableComponents();
+      return this;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff none of the object components of this tuple may
+   * change (see <tt>isImmutable(Object)</tt>).
+   */
+  private final boolean _hasImmutableComponents ()
+    {
+      for (int i = objectDimension(); i-->0;)
+        if (!isImmutable(_objectComponents[i])) return false;
+
+      return true;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the specified object may not change, so that its
+   * hash code and equality only read immutable values: this is the case of a
+   * string, a boxed int or real, and a frozen tuple all of whose components are
+   * immutable.
+   */
+  static final boolean isImmutable (Object object)
+    {
+      if (object instanceof RuntimeTuple)
+        return ((RuntimeTuple)object)._hasStableHash;
+
+      return object instanceof String
+          || object instanceof RuntimeInt
+          || object instanceof RuntimeReal;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this tuple is frozen.
+   */
+  public final boolean isFrozen ()
+    {
+      return _isFrozen;
+    }
+
+  /**
+   * Returns the interned tuple equal to this one, which is this tuple, frozen,
+   * unless an equal one was interned before. The tuple components of this tuple
+   * are interned as well, in a copy of its object component array, so that equality
+   * of interned tuples is identity all the way down when their hash is stable.
+   */
+  public final RuntimeTuple intern ()
+    {
+      if (_isInterned)
+        return this;
+
+      Object[] components = _objectComponents;
+
+      for (int i = objectDimension(); i-->0;)
+        if (components[i] instanceof RuntimeTuple)
+          {
+            RuntimeTuple component = ((RuntimeTuple)components[i]).intern();
+            if (component != components[i])
+              {
+                if (components == _objectComponents)
+                  components = components.clone();
+                components[i] = component;
+              }
+          }
+
+      _objectComponents = components;
+      freeze();
+
+      synchronized (_interned)
+        {
+          WeakReference reference = (WeakReference)_interned.get(this);
+          RuntimeTuple tuple = reference == null ? null : (RuntimeTuple)reference.get();
+
+          if (tuple != null)
+            return tuple;
+
+          _isInterned = true;
+          _interned.put(this,new WeakReference(this));
+          return this;
+        }
+    }
+
+  /**
+   * Returns <tt>true</tt> iff this tuple is interned.
+   */
+  public final boolean isInterned ()
+    {
+      return _isInterned;
+    }
+
+  /**
+   * Throws a <tt>LockViolationException</tt> if this tuple is frozen.
+   */
+  private final void _checkNotFrozen () throws LockViolationException
+    {
+      if (_isFrozen)
+        throw new LockViolationException();
+    }
+
   public int[] intComponents ()
     {
       return _intComponents;
@@ -74,8 +248,9 @@ public class RuntimeTuple implements RuntimeObject
       return _intComponents[position-1];
     }
         
-  public final int setIntComponent (int position, int value)
+  public final int setIntComponent (int position, int value) throws LockViolationException
     {
+      _checkNotFrozen();
       return _intComponents[position-1] = value;
     }
         
@@ -89,8 +264,9 @@ public class RuntimeTuple implements RuntimeObject
         return getRealComponent(position);
     }
         
-  public final double setRealComponent (int position, double value)
+  public final double setRealComponent (int position, double value) throws LockViolationException
     {
+      _checkNotFrozen();
       return _realComponents[position-1] = value;
     }
         
@@ -104,48 +280,89 @@ public class RuntimeTuple implements RuntimeObject
       return _objectComponents[position-1];
     }
         
-  public final Object setObjectComponent (int position, Object value)
+  public final Object setObjectComponent (int position, Object value) throws LockViolationException
     {
+      _checkNotFrozen();
       return _objectComponents[position-1] = value;
     }
 
   public final Object getSlicer (int[] slice)
     {
-      RuntimeTuple component = this;
-
+      RuntimeTuple component = _sliceTuple(slice);
       int depth = slice.length-2;
-      for (int i=0; i<depth; i++)
-        component = (RuntimeTuple)component.getObjectComponent(slice[i]);
 
       switch (slice[depth+1])
         {
         case Type.INT_SORT:
-          return new RuntimeInt(component.getIntComponent(slice[depth]));
+          return Runtime.newInt(component.getIntComponent(slice[depth]));
         case Type.REAL_SORT:
-          return new RuntimeReal(component.getRealComponent(slice[depth]));
+          return Runtime.newReal(component.getRealComponent(slice[depth]));
         }
 
       return component.getObjectComponent(slice[depth]);
     }
 
+  /**
+   * Returns the slicer of this tuple for the specified slice, which must be of
+   * int sort, without boxing it.
+   */
+  public final int getIntSlicer (int[] slice)
+    {
+      return _sliceTuple(slice).getIntComponent(slice[slice.length-2]);
+    }
+
+  /**
+   * Returns the slicer of this tuple for the specified slice, which must be of
+   * real sort, without boxing it.
+   */
+  public final double getRealSlicer (int[] slice)
+    {
+      return _sliceTuple(slice).getRealComponent(slice[slice.length-2]);
+    }
+
+  /**
+   * Returns the tuple, nested in this one, that holds the slicer of the specified
+   * slice.
+   */
+  private final RuntimeTuple _sliceTuple (int[] slice)
+    {
+      RuntimeTuple component = this;
+
+      int depth = slice.length-2;
+      for (int i=0; i<depth; i++)
+        component = (RuntimeTuple)component.getObjectComponent(slice[i]);
+
+      return component;
+    }
+
   public final int hashCode ()
     {
-      int icode = 0, rcode = 0, ocode = 0;
-      
+      return _hasStableHash ? _hash : _computeHash();
+    }
+
+  /**
+   * Returns a hash of the components of this tuple, which depends on their order
+   * and is well mixed. Equal reals hash alike, zeros included.
+   */
+  private final int _computeHash ()
+    {
+      long hash = 0;
+
       int iDim = intDimension();
       for (int i=0; i<iDim; i++)
-        icode += _intComponents[i];
+        hash = 31*hash + _intComponents[i];
 
       int rDim = realDimension();
       for (int i=0; i<rDim; i++)
-        rcode += (int)_realComponents[i];
-
+        hash = 31*hash + (_realComponents[i] == 0.0 ? 0L : Double.doubleToLongBits(_realComponents[i]));
 
       int oDim = objectDimension();
       for (int i=0; i<oDim; i++)
-        ocode += _objectComponents[i].hashCode();
+        hash = 31*hash + _objectComponents[i].hashCode();
 
-      return 3*icode + 5*rcode + 7*ocode;
+      hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+      hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return (int)(hash ^ (hash >>> 33));
     }
 
   public final boolean equals (Object object)
@@ -158,6 +375,12 @@ public class RuntimeTuple implements RuntimeObject
 
       RuntimeTuple tuple = (RuntimeTuple)object;
 
+      if (_hasStableHash && tuple._hasStableHash)
+        {
+          if (_isInterned && tuple._isInterned) return false;
+          if (_hash != tuple._hash) return false;
+        }
+
       if (intDimension() != tuple.intDimension()) return false;
       if (realDimension() != tuple.realDimension()) return false;
       if (objectDimension() != tuple.objectDimension()) return false;
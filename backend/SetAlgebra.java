@@ -0,0 +1,463 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 22:19:05 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import hlt.language.util.IntIterator;
+import hlt.language.util.DoubleIterator;
+
+/**
+ * This class gathers the bulk kernels used by <a href="IntSet.html"><tt>IntSet</tt></a>
+ * and <a href="RealSet.html"><tt>RealSet</tt></a> for their set operations. Rather
+ * than probing one operand element by element, they take primitive snapshots of
+ * both operands and compute, in one sweep, which elements of one occur in the
+ * other. The set operation then builds its result in one pass from these flags,
+ * keeping the left operand's order as documented in
+ * <a href="RuntimeSet.html"><tt>RuntimeSet</tt></a>.
+ *
+ * <p>
+ *
+ * Membership among ints is computed on a bitmap of the probed elements when their
+ * span is small enough (at most 64 bits per element of both operands), and otherwise
+ * on a sorted copy, merged with the elements when those are sorted too, and binary
+ * searched otherwise. Membership among doubles always uses a sorted copy.
+ *
+ * <p>
+ *
+ * When the operands have at least <tt>PARALLEL_THRESHOLD</tt> elements altogether,
+ * sorting and probing are spread over the common <tt>ForkJoinPool</tt>: the
+ * elements are split into ranges, each task writing the flags of its own range
+ * only. The flags are thus the same as those computed sequentially, and the
+ * result built from them in index order is the same as well.
+ */
+public class SetAlgebra
+{
+  /**
+   * The total number of elements of two operands from which their kernel runs in
+   * parallel. It is set with the <tt>hlt.runtime.set.parallel.threshold</tt>
+   * system property.
+   */
+  public static final int PARALLEL_THRESHOLD =
+    Integer.getInteger("hlt.runtime.set.parallel.threshold",1 << 17).intValue();
+
+  /**
+   * The number of elements below which a parallel task no longer splits.
+   */
+  private static final int _LEAF_SIZE = 1 << 13;
+
+  private static final int[] _NO_INTS = new int[0];
+  private static final double[] _NO_REALS = new double[0];
+
+  /**
+   * Returns the elements of the specified set as ints, in index order if the
+   * specified boolean is <tt>true</tt>. The returned array must not be modified.
+   */
+  public static final int[] ints (RuntimeSet set, boolean ordered)
+    {
+      if (set.isEmpty())
+        return _NO_INTS;
+
+      if (set instanceof IntSet)
+        return ((IntSet)set).array();
+
+      int[] ints = new int[set.size()];
+      int count = 0;
+      for (IntIterator i = set.intIterator(ordered); i.hasNext();)
+        ints[count++] = i.next();
+
+      return ints;
+    }
+
+  /**
+   * Returns the elements of the specified set as doubles, in index order if the
+   * specified boolean is <tt>true</tt>. The returned array must not be modified.
+   */
+  public static final double[] reals (RuntimeSet set, boolean ordered)
+    {
+      if (set.isEmpty())
+        return _NO_REALS;
+
+      if (set instanceof RealSet)
+        return ((RealSet)set).array();
+
+      double[] reals = new double[set.size()];
+      int count = 0;
+      for (DoubleIterator i = set.realIterator(ordered); i.hasNext();)
+        reals[count++] = i.next();
+
+      return reals;
+    }
+
+  /**
+   * Returns an array of flags telling, for each of the specified elements, whether
+   * it occurs in the specified set of ints. Neither array is modified.
+   */
+  public static final boolean[] members (int[] elements, int[] set)
+    {
+      boolean[] members = new boolean[elements.length];
+
+      if (elements.length == 0 || set.length == 0)
+        return members;
+
+      boolean isParallel = elements.length + set.length >= PARALLEL_THRESHOLD;
+
+      int min = set[0];
+      int max = set[0];
+      for (int i = 1; i < set.length; i++)
+        {
+          min = Math.min(min,set[i]);
+          max = Math.max(max,set[i]);
+        }
+
+      long span = (long)max - min + 1;
+
+      if (span <= 64L * (elements.length + set.length))
+        {
+          long[] bits = new long[(int)((span + 63) >>> 6)];
+          for (int i = 0; i < set.length; i++)
+            {
+              long offset = (long)set[i] - min;
+              bits[(int)(offset >>> 6)] |= 1L << offset;
+            }
+
+          _run(new BitmapProbe(elements,members,bits,min,0,elements.length),isParallel);
+          return members;
+        }
+
+      int[] sorted = set;
+      if (!_isSorted(set))
+        {
+          sorted = set.clone();
+          if (isParallel)
+            Arrays.parallelSort(sorted);
+          else
+            Arrays.sort(sorted);
+        }
+
+      if (!isParallel && _isSorted(elements))
+        {
+          for (int i = 0, j = 0; i < elements.length && j < sorted.length;)
+            {
+              if (elements[i] < sorted[j])
+                i++;
+              else
+                {
+                  if (elements[i] == sorted[j]) members[i++] = true;
+                  j++;
+                }
+            }
+
+          return members;
+        }
+
+      _run(new SortedIntProbe(elements,members,sorted,0,elements.length),isParallel);
+      return members;
+    }
+
+  /**
+   * Returns an array of flags telling, for each of the specified elements, whether
+   * it occurs in the specified set of doubles. Neither array is modified.
+   */
+  public static final boolean[] members (double[] elements, double[] set)
+    {
+      boolean[] members = new boolean[elements.length];
+
+      if (elements.length == 0 || set.length == 0)
+        return members;
+
+      boolean isParallel = elements.length + set.length >= PARALLEL_THRESHOLD;
+
+      double[] sorted = set;
+      if (!_isSorted(set))
+        {
+          sorted = set.clone();
+          if (isParallel)
+            Arrays.parallelSort(sorted);
+          else
+            Arrays.sort(sorted);
+        }
+
+      if (!isParallel && _isSorted(elements))
+        {
+          for (int i = 0, j = 0; i < elements.length && j < sorted.length;)
+            {
+              if (elements[i] < sorted[j])
+                i++;
+              else
+                if (elements[i] == sorted[j])
+                  members[i++] = true;
+                else
+                  j++;
+            }
+
+          return members;
+        }
+
+      _run(new SortedRealProbe(elements,members,sorted,0,elements.length),isParallel);
+      return members;
+    }
+
+  /**
+   * Returns an array of flags telling, for each of the specified objects, whether
+   * the specified set contains it. Probing is only spread over several threads
+   * when it writes nothing (see <tt>_isReadOnlyProbe</tt>), since a runtime's sets
+   * are otherwise confined to its thread.
+   */
+  public static final boolean[] members (Object[] elements, RuntimeSet set)
+    {
+      boolean[] members = new boolean[elements.length];
+
+      if (elements.length > 0 && !set.isEmpty())
+        _run(new ContainsProbe(elements,members,set,0,elements.length),
+             elements.length + set.size() >= PARALLEL_THRESHOLD
+             && _isReadOnlyProbe(elements,set));
+
+      return members;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff probing the specified set for the specified objects
+   * writes nothing. This is the case when the set is an <tt>ObjectSet</tt>, whose
+   * lookups by object only read its map, index, or columns, and the objects are
+   * immutable (see <tt>RuntimeTuple.isImmutable(Object)</tt>), so that hashing and
+   * comparing them, as well as comparing them with the set's elements, writes
+   * nothing either. Other sets may update lazy state while they are probed (<i>e.g.</i>,
+   * the probe of an <tt>ObjectSet</tt> looking up a primitive value, or the element
+   * array a set rebuilds to be iterated when it is compared with another set).
+   */
+  private static final boolean _isReadOnlyProbe (Object[] elements, RuntimeSet set)
+    {
+      if (!(set instanceof ObjectSet))
+        return false;
+
+      for (int i = elements.length; i-->0;)
+        if (!RuntimeTuple.isImmutable(elements[i])) return false;
+
+      return true;
+    }
+
+  /**
+   * Returns the number of <tt>false</tt> flags in the specified array.
+   */
+  public static final int countMissing (boolean[] members)
+    {
+      int count = 0;
+      for (int i = members.length; i-->0;)
+        if (!members[i]) count++;
+
+      return count;
+    }
+
+  /**
+   * Runs the specified sweep over its whole range, in the common fork/join pool
+   * if the specified boolean is <tt>true</tt>.
+   */
+  private static final void _run (Sweep sweep, boolean isParallel)
+    {
+      if (isParallel)
+        ForkJoinPool.commonPool().invoke(sweep);
+      else
+        sweep.sweep(sweep._from,sweep._to);
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the specified array, sorted as by <tt>Arrays.sort</tt>,
+   * holds a double equal to the specified one as elements of sets are compared;
+   * <i>i.e.</i>, with <tt>==</tt>, so that <tt>0.0</tt> and <tt>-0.0</tt> are equal
+   * and <tt>NaN</tt> is equal to nothing. Unlike <tt>Arrays.binarySearch</tt>, this
+   * therefore does not compare with <tt>Double.compare</tt>.
+   */
+  private static final boolean _contains (double[] sorted, double element)
+    {
+      int low = 0;
+      int high = sorted.length;
+
+      while (low < high)
+        {
+          int middle = (low + high) >>> 1;
+
+          if (sorted[middle] < element)
+            low = middle + 1;
+          else
+            high = middle;
+        }
+
+      return low < sorted.length && sorted[low] == element;
+    }
+
+  private static final boolean _isSorted (int[] elements)
+    {
+      for (int i = 1; i < elements.length; i++)
+        if (elements[i-1] > elements[i]) return false;
+
+      return true;
+    }
+
+  private static final boolean _isSorted (double[] elements)
+    {
+      for (int i = 1; i < elements.length; i++)
+        if (Double.compare(elements[i-1],elements[i]) > 0) return false;
+
+      return true;
+    }
+
+  /**
+   * A sweep sets the membership flags of the elements in a range of indices,
+   * splitting the range in halves while it is larger than <tt>_LEAF_SIZE</tt>.
+   */
+  @SuppressWarnings("serial")
+  private static abstract class Sweep extends RecursiveAction
+    {
+      final int _from;
+      final int _to;
+
+      Sweep (int from, int to)
+        {
+          _from = from;
+          _to = to;
+        }
+
+      abstract void sweep (int from, int to);
+
+      abstract Sweep split (int from, int to);
+
+      protected final void compute ()
+        {
+          if (_to - _from <= _LEAF_SIZE)
+            {
+              sweep(_from,_to);
+              return;
+            }
+
+          int middle = (_from + _to) >>> 1;
+          invokeAll(split(_from,middle),split(middle,_to));
+        }
+    }
+
+  @SuppressWarnings("serial")
+  private static class BitmapProbe extends Sweep
+    {
+      private final int[] _elements;
+      private final boolean[] _members;
+      private final long[] _bits;
+      private final int _min;
+
+      BitmapProbe (int[] elements, boolean[] members, long[] bits, int min, int from, int to)
+        {
+          super(from,to);
+          _elements = elements;
+          _members = members;
+          _bits = bits;
+          _min = min;
+        }
+
+      final void sweep (int from, int to)
+        {
+          long span = (long)_bits.length << 6;
+
+          for (int i = from; i < to; i++)
+            {
+              long offset = (long)_elements[i] - _min;
+              _members[i] = offset >= 0 && offset < span
+                         && (_bits[(int)(offset >>> 6)] & (1L << offset)) != 0;
+            }
+        }
+
+      final Sweep split (int from, int to)
+        {
+          return new BitmapProbe(_elements,_members,_bits,_min,from,to);
+        }
+    }
+
+  @SuppressWarnings("serial")
+  private static class SortedIntProbe extends Sweep
+    {
+      private final int[] _elements;
+      private final boolean[] _members;
+      private final int[] _sorted;
+
+      SortedIntProbe (int[] elements, boolean[] members, int[] sorted, int from, int to)
+        {
+          super(from,to);
+          _elements = elements;
+          _members = members;
+          _sorted = sorted;
+        }
+
+      final void sweep (int from, int to)
+        {
+          for (int i = from; i < to; i++)
+            _members[i] = Arrays.binarySearch(_sorted,_elements[i]) >= 0;
+        }
+
+      final Sweep split (int from, int to)
+        {
+          return new SortedIntProbe(_elements,_members,_sorted,from,to);
+        }
+    }
+
+  @SuppressWarnings("serial")
+  private static class SortedRealProbe extends Sweep
+    {
+      private final double[] _elements;
+      private final boolean[] _members;
+      private final double[] _sorted;
+
+      SortedRealProbe (double[] elements, boolean[] members, double[] sorted, int from, int to)
+        {
+          super(from,to);
+          _elements = elements;
+          _members = members;
+          _sorted = sorted;
+        }
+
+      final void sweep (int from, int to)
+        {
+          for (int i = from; i < to; i++)
+            _members[i] = _contains(_sorted,_elements[i]);
+        }
+
+      final Sweep split (int from, int to)
+        {
+          return new SortedRealProbe(_elements,_members,_sorted,from,to);
+        }
+    }
+
+  @SuppressWarnings("serial")
+  private static class ContainsProbe extends Sweep
+    {
+      private final Object[] _elements;
+      private final boolean[] _members;
+      private final RuntimeSet _set;
+
+      ContainsProbe (Object[] elements, boolean[] members, RuntimeSet set, int from, int to)
+        {
+          super(from,to);
+          _elements = elements;
+          _members = members;
+          _set = set;
+        }
+
+      final void sweep (int from, int to)
+        {
+          for (int i = from; i < to; i++)
+            _members[i] = _set.contains(_elements[i]);
+        }
+
+      final Sweep split (int from, int to)
+        {
+          return new ContainsProbe(_elements,_members,_set,from,to);
+        }
+    }
+}
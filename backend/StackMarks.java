@@ -0,0 +1,177 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 21:53:37 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import java.util.Arrays;
+
+/**
+ * A <tt>StackMarks</tt> object records the high-water marks (<i>i.e.</i>, the
+ * maximal sizes) reached by the stacks of a <a href="Runtime.html"><tt>Runtime</tt></a>:
+ * its three result stacks, its three environment stacks, its save stack, and
+ * its call stack. It keeps both the marks of the latest program run (since the
+ * runtime was last reset) and the marks over all the programs it has recorded.
+ *
+ * <p>
+ *
+ * Marks are recorded by installing this object with <tt>Runtime.setStackMarks(StackMarks)</tt>,
+ * which makes the runtime use an instrumented engine that samples the stack
+ * sizes after each instruction. Recorded marks may then be used to pre-size the
+ * stacks of a runtime with <tt>Runtime.presize(StackMarks)</tt>, so that
+ * steady-state runs never need to grow them; conversely, they tell the runtime
+ * when one of its stacks has grown beyond its stack limit and should be given
+ * back when it is reset (see <tt>Runtime.setStackLimit(int)</tt>).
+ */
+public class StackMarks
+{
+  /**
+   * These are the indices of the marks of each stack.
+   */
+  public static final int INT_STACK    = 0;
+  public static final int REAL_STACK   = 1;
+  public static final int OBJECT_STACK = 2;
+  public static final int INT_ENV      = 3;
+  public static final int REAL_ENV     = 4;
+  public static final int OBJECT_ENV   = 5;
+  public static final int SAVE_STACK   = 6;
+  public static final int CALL_STACK   = 7;
+
+  /**
+   * The number of stacks for which marks are recorded.
+   */
+  public static final int STACK_COUNT  = 8;
+
+  private static final String[] _NAMES =
+    { "int stack", "real stack", "object stack",
+      "int env", "real env", "object env",
+      "save stack", "call stack" };
+
+  /**
+   * The marks of the program run being recorded.
+   */
+  private final int[] _marks = new int[STACK_COUNT];
+
+  /**
+   * The marks of the latest program run recorded.
+   */
+  private final int[] _lastMarks = new int[STACK_COUNT];
+
+  /**
+   * The marks over all the programs recorded.
+   */
+  private final int[] _maxMarks = new int[STACK_COUNT];
+
+  /**
+   * The number of programs recorded.
+   */
+  private int _runCount;
+
+  /**
+   * This flag indicates that sizes have been sampled since the latest run ended.
+   */
+  private boolean _isSampled;
+
+  /**
+   * Returns the mark of the specified stack for the latest program run recorded
+   * (<i>i.e.</i>, whose runtime has since been reset).
+   */
+  public final int mark (int stack)
+    {
+      return _lastMarks[stack];
+    }
+
+  /**
+   * Returns the mark of the specified stack over all the programs recorded.
+   */
+  public final int maxMark (int stack)
+    {
+      return Math.max(_marks[stack],_maxMarks[stack]);
+    }
+
+  /**
+   * Returns the number of programs recorded.
+   */
+  public final int runCount ()
+    {
+      return _runCount;
+    }
+
+  /**
+   * Samples the current sizes of the stacks of the specified runtime.
+   */
+  final void sample (int intStack, int realStack, int objectStack,
+                     int intEnv, int realEnv, int objectEnv,
+                     int saveStack, int callStack)
+    {
+      _isSampled = true;
+
+      if (intStack > _marks[INT_STACK]) _marks[INT_STACK] = intStack;
+      if (realStack > _marks[REAL_STACK]) _marks[REAL_STACK] = realStack;
+      if (objectStack > _marks[OBJECT_STACK]) _marks[OBJECT_STACK] = objectStack;
+      if (intEnv > _marks[INT_ENV]) _marks[INT_ENV] = intEnv;
+      if (realEnv > _marks[REAL_ENV]) _marks[REAL_ENV] = realEnv;
+      if (objectEnv > _marks[OBJECT_ENV]) _marks[OBJECT_ENV] = objectEnv;
+      if (saveStack > _marks[SAVE_STACK]) _marks[SAVE_STACK] = saveStack;
+      if (callStack > _marks[CALL_STACK]) _marks[CALL_STACK] = callStack;
+    }
+
+  /**
+   * Ends the recording of the latest program run, folding its marks into
+   * the overall marks.
+   */
+  final void endRun ()
+    {
+      if (!_isSampled)
+        return;
+
+      for (int i = STACK_COUNT; i-->0;)
+        if (_marks[i] > _maxMarks[i])
+          _maxMarks[i] = _marks[i];
+
+      System.arraycopy(_marks,0,_lastMarks,0,STACK_COUNT);
+      Arrays.fill(_marks,0);
+      _isSampled = false;
+      _runCount++;
+    }
+
+  /**
+   * Folds the overall marks of the specified object into those of this one
+   * (<i>e.g.</i>, to gather the marks recorded by the runtimes of a pool).
+   */
+  public final void merge (StackMarks other)
+    {
+      for (int i = STACK_COUNT; i-->0;)
+        _maxMarks[i] = Math.max(_maxMarks[i],other.maxMark(i));
+
+      _runCount += other._runCount;
+    }
+
+  /**
+   * Discards all the recorded marks.
+   */
+  public final void clear ()
+    {
+      Arrays.fill(_marks,0);
+      Arrays.fill(_lastMarks,0);
+      Arrays.fill(_maxMarks,0);
+      _isSampled = false;
+      _runCount = 0;
+    }
+
+  public String toString ()
+    {
+      StringBuilder buf = new StringBuilder();
+
+      for (int i = 0; i < STACK_COUNT; i++)
+        buf.append(String.format("%-14s %10d %10d\n",_NAMES[i],_lastMarks[i],maxMark(i)));
+
+      return buf.toString();
+    }
+}
@@ -0,0 +1,474 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 10:42:17 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import hlt.language.util.IntIterator;
+
+/**
+ * A <tt>TupleColumns</tt> holds a set of <a href="RuntimeTuple.html">
+ * <tt>RuntimeTuple</tt></a>s of the same shape (numbers of int, real, and
+ * object components) as columns rather than as tuple objects: the components
+ * of all the tuples are laid out in one array per sort, tuple after tuple, and
+ * a hash table of ints locates each tuple by its components. Each tuple sits
+ * in a <i>slot</i>, which is its index in the <a href="ObjectSet.html">
+ * <tt>ObjectSet</tt></a> using these columns; the slot of a removed tuple is
+ * dead until the columns are compacted.
+ *
+ * <p>
+ * Tuples are not kept as objects: those handed out are built afresh from the
+ * columns, so that they are equal to those that were added but not identical
+ * to them. They are frozen, with the hash code kept in the columns.
+ */
+public class TupleColumns
+{
+  /**
+   * The numbers of int, real, and object components of the tuples, the first of
+   * which is <tt>-1</tt> until the first tuple is added.
+   */
+  private int _intDimension = -1;
+  private int _realDimension;
+  private int _objectDimension;
+
+  /**
+   * The components of the tuples by sort: those of the tuple in slot <tt>s</tt>
+   * start at <tt>s</tt> times the dimension of their sort.
+   */
+  private int[] _ints = new int[0];
+  private double[] _reals = new double[0];
+  private Object[] _objects = new Object[0];
+
+  /**
+   * The hash of the components of the tuple in each slot.
+   */
+  private int[] _hashes = new int[0];
+
+  /**
+   * The live slots, as a bitmap.
+   */
+  private long[] _live = new long[0];
+
+  /**
+   * The number of slots and of live slots.
+   */
+  private int _slots;
+  private int _size;
+
+  /**
+   * The open-addressing hash table of the live slots: an entry is <tt>0</tt> when
+   * empty, <tt>-1</tt> when deleted, and otherwise the slot plus one.
+   */
+  private int[] _table = new int[16];
+
+  /**
+   * The number of entries of the table that are not empty.
+   */
+  private int _used;
+
+  /**
+   * Constructs empty columns, whose shape is that of the first tuple added.
+   */
+  public TupleColumns ()
+    {
+      _setCapacity(8);
+    }
+
+  /**
+   * Constructs a copy of the specified columns.
+   */
+  private TupleColumns (TupleColumns columns)
+    {
+      _intDimension = columns._intDimension;
+      _realDimension = columns._realDimension;
+      _objectDimension = columns._objectDimension;
+      _ints = columns._ints.clone();
+      _reals = columns._reals.clone();
+      _objects = columns._objects.clone();
+      _hashes = columns._hashes.clone();
+      _live = columns._live.clone();
+      _slots = columns._slots;
+      _size = columns._size;
+      _table = columns._table.clone();
+      _used = columns._used;
+    }
+
+  /**
+   * Returns a copy of these columns.
+   */
+  public final TupleColumns copy ()
+    {
+      return new TupleColumns(this);
+    }
+
+  /**
+   * Returns the number of slots.
+   */
+  public final int slots ()
+    {
+      return _slots;
+    }
+
+  /**
+   * Returns the number of tuples.
+   */
+  public final int size ()
+    {
+      return _size;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the specified object is a tuple that may be added
+   * to these columns, <i>i.e.</i>, one of their shape, or any tuple as long as
+   * no tuple was ever added.
+   */
+  public final boolean fits (Object object)
+    {
+      if (!(object instanceof RuntimeTuple))
+        return false;
+
+      RuntimeTuple tuple = (RuntimeTuple)object;
+
+      return _intDimension == -1
+          || tuple.intDimension() == _intDimension
+          && tuple.realDimension() == _realDimension
+          && tuple.objectDimension() == _objectDimension;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the specified slot is live.
+   */
+  public final boolean isLive (int slot)
+    {
+      return (_live[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+  /**
+   * Returns the slot of the specified object if it is a tuple of these columns,
+   * otherwise <tt>-1</tt>.
+   */
+  public final int find (Object object)
+    {
+      if (!fits(object) || _size == 0)
+        return -1;
+
+      RuntimeTuple tuple = (RuntimeTuple)object;
+      int hash = tuple.hashCode();
+      int mask = _table.length - 1;
+
+      for (int i = hash & mask;; i = (i + 1) & mask)
+        {
+          int entry = _table[i];
+
+          if (entry == 0)
+            return -1;
+
+          if (entry > 0 && _hashes[entry-1] == hash && _equals(entry-1,tuple))
+            return entry - 1;
+        }
+    }
+
+  /**
+   * Stores the components of the specified tuple, which must fit these columns
+   * and not be in them already, in the specified slot, which must not be less
+   * than the number of slots.
+   */
+  public final void put (RuntimeTuple tuple, int slot)
+    {
+      if (_intDimension == -1)
+        {
+          _intDimension = tuple.intDimension();
+          _realDimension = tuple.realDimension();
+          _objectDimension = tuple.objectDimension();
+          _setCapacity(_hashes.length);
+        }
+
+      if (slot >= _hashes.length)
+        _setCapacity(Math.max(slot+1,_hashes.length+(_hashes.length>>1)));
+
+      if (_intDimension > 0)
+        System.arraycopy(tuple.intComponents(),0,_ints,slot*_intDimension,_intDimension);
+      if (_realDimension > 0)
+        System.arraycopy(tuple.realComponents(),0,_reals,slot*_realDimension,_realDimension);
+      if (_objectDimension > 0)
+        System.arraycopy(tuple.objectComponents(),0,_objects,slot*_objectDimension,_objectDimension);
+
+      if (2 * (_used + 1) > _table.length)
+        _rehash(Math.max(16,Integer.highestOneBit(4 * _size + 3)));
+
+      _hashes[slot] = tuple.hashCode();
+      _live[slot >>> 6] |= 1L << slot;
+      _slots = slot + 1;
+      _size++;
+      _used++;
+      _insert(slot);
+    }
+
+  /**
+   * Removes the specified object from these columns if it is one of their tuples,
+   * and returns its slot, which is then dead, or <tt>-1</tt> if it was not there.
+   */
+  public final int remove (Object object)
+    {
+      int slot = find(object);
+
+      if (slot == -1)
+        return -1;
+
+      int mask = _table.length - 1;
+      int i = _hashes[slot] & mask;
+      while (_table[i] != slot + 1)
+        i = (i + 1) & mask;
+
+      _table[i] = -1;
+      _live[slot >>> 6] &= ~(1L << slot);
+      _size--;
+
+      if (_objectDimension > 0)
+        Arrays.fill(_objects,slot*_objectDimension,(slot+1)*_objectDimension,null);
+
+      return slot;
+    }
+
+  /**
+   * Returns a new frozen tuple equal to the one in the specified live slot.
+   */
+  public final RuntimeTuple tupleAt (int slot)
+    {
+      int[] ints = null;
+      double[] reals = null;
+      Object[] objects = null;
+
+      if (_intDimension > 0)
+        {
+          int start = slot * _intDimension;
+          ints = Arrays.copyOfRange(_ints,start,start+_intDimension);
+        }
+
+      if (_realDimension > 0)
+        {
+          int start = slot * _realDimension;
+          reals = Arrays.copyOfRange(_reals,start,start+_realDimension);
+        }
+
+      if (_objectDimension > 0)
+        {
+          int start = slot * _objectDimension;
+          objects = Arrays.copyOfRange(_objects,start,start+_objectDimension);
+        }
+
+      return new RuntimeTuple(ints,reals,objects)._freeze(_hashes[slot]);
+    }
+
+  /**
+   * Returns new tuples equal to those of these columns, in slot order.
+   */
+  public final Object[] toArray ()
+    {
+      Object[] array = new Object[_size];
+
+      for (int slot = 0, i = 0; i < _size; slot++)
+        if (isLive(slot)) array[i++] = tupleAt(slot);
+
+      return array;
+    }
+
+  /**
+   * Returns an iterator of new tuples equal to those of these columns, in slot
+   * order. The columns must not be modified during the iteration.
+   */
+  public final Iterator iterator ()
+    {
+      return new TupleIterator(this);
+    }
+
+  /**
+   * Returns an iterator over the live slots, in increasing order.
+   */
+  public final IntIterator liveSlots ()
+    {
+      return new SlotIterator(_live,_slots);
+    }
+
+  /**
+   * Moves the live slots down so that they are numbered from <tt>0</tt>, in the
+   * same order.
+   */
+  public final void compact ()
+    {
+      int count = 0;
+
+      for (int slot = 0; slot < _slots; slot++)
+        if (isLive(slot))
+          {
+            if (slot != count)
+              {
+                System.arraycopy(_ints,slot*_intDimension,_ints,count*_intDimension,_intDimension);
+                System.arraycopy(_reals,slot*_realDimension,_reals,count*_realDimension,_realDimension);
+                System.arraycopy(_objects,slot*_objectDimension,_objects,count*_objectDimension,_objectDimension);
+                _hashes[count] = _hashes[slot];
+              }
+            count++;
+          }
+
+      if (_objectDimension > 0)
+        Arrays.fill(_objects,count*_objectDimension,_slots*_objectDimension,null);
+
+      Arrays.fill(_live,0);
+      for (int slot = 0; slot < count; slot++)
+        _live[slot >>> 6] |= 1L << slot;
+
+      _slots = count;
+      _rehash(_table.length);
+    }
+
+  /**
+   * Sizes the columns for the specified number of slots.
+   */
+  private final void _setCapacity (int capacity)
+    {
+      if (_intDimension != -1)
+        {
+          _ints = Arrays.copyOf(_ints,capacity*_intDimension);
+          _reals = Arrays.copyOf(_reals,capacity*_realDimension);
+          _objects = Arrays.copyOf(_objects,capacity*_objectDimension);
+        }
+
+      _hashes = Arrays.copyOf(_hashes,capacity);
+      _live = Arrays.copyOf(_live,(capacity+63)>>>6);
+    }
+
+  /**
+   * Rebuilds the table with the specified length, a power of two, from the live
+   * slots.
+   */
+  private final void _rehash (int length)
+    {
+      _table = new int[length];
+      _used = _size;
+
+      for (int slot = 0; slot < _slots; slot++)
+        if (isLive(slot)) _insert(slot);
+    }
+
+  /**
+   * Enters the specified slot into the table at the first free entry for its hash.
+   */
+  private final void _insert (int slot)
+    {
+      int mask = _table.length - 1;
+      int i = _hashes[slot] & mask;
+      while (_table[i] > 0)
+        i = (i + 1) & mask;
+
+      if (_table[i] == -1)
+        _used--;
+
+      _table[i] = slot + 1;
+    }
+
+  /**
+   * Returns <tt>true</tt> iff the tuple in the specified slot has the components
+   * of the specified tuple, which fits these columns.
+   */
+  private final boolean _equals (int slot, RuntimeTuple tuple)
+    {
+      if (_intDimension > 0)
+        {
+          int[] ints = tuple.intComponents();
+          for (int i = 0, start = slot*_intDimension; i < _intDimension; i++)
+            if (_ints[start+i] != ints[i]) return false;
+        }
+
+      if (_realDimension > 0)
+        {
+          double[] reals = tuple.realComponents();
+          for (int i = 0, start = slot*_realDimension; i < _realDimension; i++)
+            if (_reals[start+i] != reals[i]) return false;
+        }
+
+      if (_objectDimension > 0)
+        {
+          Object[] objects = tuple.objectComponents();
+          for (int i = 0, start = slot*_objectDimension; i < _objectDimension; i++)
+            if (!_objects[start+i].equals(objects[i])) return false;
+        }
+
+      return true;
+    }
+
+  /**
+   * This is an iterator of new tuples equal to those of some columns.
+   */
+  private static class TupleIterator implements Iterator
+    {
+      private final TupleColumns _columns;
+      private final IntIterator _slots;
+
+      TupleIterator (TupleColumns columns)
+        {
+          _columns = columns;
+          _slots = columns.liveSlots();
+        }
+
+      public final boolean hasNext ()
+        {
+          return _slots.hasNext();
+        }
+
+      public final Object next ()
+        {
+          return _columns.tupleAt(_slots.next());
+        }
+
+      public final void remove ()
+        {
+          throw new UnsupportedOperationException();
+        }
+    }
+
+  /**
+   * This is an iterator over the set bits below some bound of a bitmap.
+   */
+  private static class SlotIterator implements IntIterator
+    {
+      private final long[] _words;
+      private final int _bound;
+      private int _index = -1;
+      private long _word;
+
+      SlotIterator (long[] words, int bound)
+        {
+          _words = words;
+          _bound = (bound + 63) >>> 6;
+          _advance();
+        }
+
+      private final void _advance ()
+        {
+          while (++_index < _bound)
+            if ((_word = _words[_index]) != 0) return;
+        }
+
+      public final boolean hasNext ()
+        {
+          return _index < _bound;
+        }
+
+      public final int next ()
+        {
+          int slot = (_index << 6) + Long.numberOfTrailingZeros(_word);
+          if ((_word &= _word - 1) == 0) _advance();
+          return slot;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+// PLEASE DO NOT EDIT WITHOUT THE EXPLICIT CONSENT OF THE AUTHOR! \\
+//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\//\\
+
+package hlt.language.design.backend;
+
+/**
+ * @version     Last modified on Sat Oct 17 22:06:31 2026 by hak
+ * @author      <a href="mailto:hak@acm.org">Hassan A&iuml;t-Kaci</a>
+ * @copyright   &copy; <a href="http://www.hassan-ait-kaci.net/">by the author</a>
+ */
+
+import hlt.language.design.instructions.Instruction;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * This checks that the code compiled by a <a href="CodeCompiler.html"><tt>CodeCompiler</tt></a>
+ * behaves as the interpreter does on the same code arrays: the result stacks,
+ * instruction pointer, and termination are compared after full runs, budgeted
+ * runs suspended and resumed, and block bodies. Compiling each code array also
+ * runs the JVM's verifier on the generated class, which throws a <tt>VerifyError</tt>.
+ */
+public class CodeCompilerTest
+{
+  public static class PushInt extends Instruction
+    {
+      private final int _value;
+
+      public PushInt (int value)
+        {
+          _value = value;
+        }
+
+      public void execute (Runtime r)
+        {
+          r.pushInt(_value);
+          r.incIP();
+        }
+    }
+
+  public static class AddInt extends Instruction
+    {
+      public void execute (Runtime r)
+        {
+          r.pushInt(r.popInt() + r.popInt());
+          r.incIP();
+        }
+    }
+
+  /**
+   * Pops <tt>n</tt> and <tt>acc</tt>, and pushes <tt>acc+n</tt> and <tt>n-1</tt>.
+   */
+  public static class Accumulate extends Instruction
+    {
+      public void execute (Runtime r)
+        {
+          int n = r.popInt();
+          int acc = r.popInt();
+          r.pushInt(acc + n);
+          r.pushInt(n - 1);
+          r.incIP();
+        }
+    }
+
+  public static class Dup extends Instruction
+    {
+      public void execute (Runtime r)
+        {
+          int n = r.popInt();
+          r.pushInt(n);
+          r.pushInt(n);
+          r.incIP();
+        }
+    }
+
+  public static class Pop extends Instruction
+    {
+      public void execute (Runtime r)
+        {
+          r.popInt();
+          r.incIP();
+        }
+    }
+
+  public static class JumpIfPositive extends Instruction
+    {
+      private final int _target;
+
+      public JumpIfPositive (int target)
+        {
+          _target = target;
+        }
+
+      public void execute (Runtime r)
+        {
+          if (r.popInt() > 0)
+            r.setIP(_target);
+          else
+            r.incIP();
+        }
+    }
+
+  public static class Stop extends Instruction
+    {
+      public void execute (Runtime r)
+        {
+          r.stop();
+        }
+    }
+
+  public static class Return extends Instruction
+    {
+      public boolean isReturn ()
+        {
+          return true;
+        }
+
+      public void execute (Runtime r)
+        {
+          r.popCall();
+        }
+    }
+
+  /**
+   * Returns a code array leaving the sum of the ints from 1 to <tt>n</tt> on
+   * the int stack.
+   */
+  private static final Instruction[] _sumCode (int n)
+    {
+      return new Instruction[]
+        {
+          new PushInt(0),
+          new PushInt(n),
+          new Accumulate(),
+          new Dup(),
+          new JumpIfPositive(2),
+          new Pop(),
+          new Stop()
+        };
+    }
+
+  /**
+   * Returns a runtime whose compiler has compiled the specified code array.
+   */
+  private static final Runtime _tiered (Instruction[] code)
+    {
+      CodeCompiler compiler = new CodeCompiler();
+      assertNotNull("not compiled",compiler.compile(code));
+      assertNull(compiler.lastFailure());
+      return new Runtime().setCompiler(compiler);
+    }
+
+  private static final void _assertSameState (Runtime interpreted, Runtime tiered)
+    {
+      assertEquals(interpreted.ip(),tiered.ip());
+      assertEquals(interpreted.hasResult(),tiered.hasResult());
+      if (interpreted.hasResult())
+        assertEquals(interpreted.intResult(),tiered.intResult());
+    }
+
+  @Test
+  public void testRun () throws Exception
+    {
+      for (int n = 0; n < 50; n += 7)
+        {
+          Instruction[] code = _sumCode(n);
+
+          Runtime interpreted = new Runtime();
+          Runtime tiered = _tiered(code);
+
+          interpreted.run(code);
+          tiered.run(code);
+
+          assertEquals(n*(n+1)/2,interpreted.intResult());
+          _assertSameState(interpreted,tiered);
+        }
+    }
+
+  @Test
+  public void testBudgetedRun () throws Exception
+    {
+      Instruction[] code = _sumCode(100);
+
+      for (long budget = 1; budget < 20; budget++)
+        {
+          Runtime interpreted = new Runtime();
+          Runtime tiered = _tiered(code);
+
+          boolean interpretedDone = interpreted.run(code,budget);
+          boolean tieredDone = tiered.run(code,budget);
+
+          while (!interpretedDone)
+            {
+              assertFalse(tieredDone);
+              _assertSameState(interpreted,tiered);
+              interpretedDone = interpreted.run(budget);
+              tieredDone = tiered.run(budget);
+            }
+
+          assertTrue(tieredDone);
+          assertEquals(5050,tiered.intResult());
+          _assertSameState(interpreted,tiered);
+        }
+    }
+
+  @Test
+  public void testRunBody () throws Exception
+    {
+      Instruction[] code =
+        {
+          new Stop(),
+          new PushInt(1),
+          new PushInt(2),
+          new AddInt(),
+          new Return()
+        };
+
+      Block block = new Block(code,1,0,0,0,0);
+
+      Runtime interpreted = new Runtime();
+      Runtime tiered = _tiered(code);
+
+      interpreted.runBody(block);
+      tiered.runBody(block);
+
+      assertEquals(4,interpreted.ip());
+      assertEquals(3,interpreted.intResult());
+      _assertSameState(interpreted,tiered);
+    }
+
+  @Test
+  public void testCodeChanged () throws Exception
+    {
+      Instruction[] code = _sumCode(10);
+      Runtime tiered = _tiered(code);
+      CodeCompiler compiler = tiered.compiler();
+
+      code[0] = new PushInt(100);
+      tiered.codeChanged(code);
+      assertNull(compiler.compiled(code));
+
+      tiered.run(code);
+      assertEquals(155,tiered.intResult());
+    }
+
+  @Test
+  public void testEnterCompiles () throws Exception
+    {
+      Instruction[] code = _sumCode(10);
+      CodeCompiler compiler = new CodeCompiler(3);
+
+      for (int i = 0; i < 2; i++)
+        compiler.enter(code);
+      assertNull(compiler.compiled(code));
+
+      compiler.enter(code);
+      assertNotNull(compiler.compiled(code));
+      assertEquals(1,compiler.compiledCount());
+
+      compiler.enter(code);
+      assertEquals(1,compiler.compiledCount());
+    }
+}